@@ -0,0 +1,16 @@
+package com.example.nettywebsocket.broker;
+
+/**
+ * 跨服务器消息代理接口
+ * 负责把消息发布到指定主题，由订阅该主题的服务器实例处理
+ */
+public interface MessageBroker {
+
+    /**
+     * 发布消息
+     * @param topic 主题
+     * @param payload 消息内容
+     * @return 收到消息的订阅者数量，发布失败时返回0
+     */
+    long publish(String topic, String payload);
+}
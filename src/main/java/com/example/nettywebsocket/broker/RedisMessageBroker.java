@@ -0,0 +1,21 @@
+package com.example.nettywebsocket.broker;
+
+import com.example.nettywebsocket.util.RedisUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 基于Redis发布订阅的消息代理
+ */
+@Component
+public class RedisMessageBroker implements MessageBroker {
+
+    @Autowired
+    private RedisUtil redisUtil;
+
+    @Override
+    public long publish(String topic, String payload) {
+        Long receivers = redisUtil.publish(topic, payload);
+        return receivers != null ? receivers : 0L;
+    }
+}
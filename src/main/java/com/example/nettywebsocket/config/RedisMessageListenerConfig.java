@@ -1,6 +1,7 @@
 package com.example.nettywebsocket.config;
 
 import com.example.nettywebsocket.listener.RedisMessageListener;
+import com.example.nettywebsocket.manager.RedisWebSocketConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,6 +10,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
 
@@ -19,7 +21,6 @@ import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
 public class RedisMessageListenerConfig {
     
     private static final Logger logger = LoggerFactory.getLogger(RedisMessageListenerConfig.class);
-    private static final String REDIS_PREFIX = "websocket:";
     
     @Autowired(required = false)
     private RedisConnectionFactory redisConnectionFactory;
@@ -27,6 +28,9 @@ public class RedisMessageListenerConfig {
     @Autowired(required = false)
     private RedisMessageListener redisMessageListener;
     
+    @Autowired(required = false)
+    private RedisWebSocketConnectionManager connectionManager;
+    
     /**
      * 创建Redis消息监听容器（仅在Redis可用时创建）
      */
@@ -44,20 +48,20 @@ public class RedisMessageListenerConfig {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(redisConnectionFactory);
         
-        // 注册广播消息监听
+        // 注册广播、群组和本服务器节点主题的监听
+        // 发给单个用户的消息由发送方按用户所在服务器发布到对应节点主题，无需按用户动态订阅
         MessageListenerAdapter adapter = messageListenerAdapter();
         ChannelTopic topic = broadcastTopic();
         
-        if (adapter != null && topic != null) {
+        if (adapter != null && topic != null && connectionManager != null) {
             container.addMessageListener(adapter, topic);
-            logger.info("Redis消息监听容器创建成功");
+            container.addMessageListener(adapter, new PatternTopic(RedisWebSocketConnectionManager.GROUP_TOPIC_PREFIX + "*"));
+            container.addMessageListener(adapter, new ChannelTopic(connectionManager.getNodeTopic()));
+            logger.info("Redis消息监听容器创建成功，节点主题: {}", connectionManager.getNodeTopic());
         } else {
-            logger.warn("消息监听器适配器或主题为空，跳过监听器注册");
+            logger.warn("消息监听器适配器、主题或连接管理器为空，跳过监听器注册");
         }
         
-        // 注意：用户和群组消息监听不能在这里静态注册，需要动态注册
-        // 实际使用时，可以根据需要动态添加和移除监听
-        
         return container;
     }
     
@@ -84,6 +88,6 @@ public class RedisMessageListenerConfig {
     @ConditionalOnBean(RedisConnectionFactory.class)
     public ChannelTopic broadcastTopic() {
         logger.info("创建广播通道主题");
-        return new ChannelTopic(REDIS_PREFIX + "broadcast");
+        return new ChannelTopic(RedisWebSocketConnectionManager.BROADCAST_TOPIC);
     }
 }
\ No newline at end of file
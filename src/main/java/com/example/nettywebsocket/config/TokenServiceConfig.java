@@ -0,0 +1,65 @@
+package com.example.nettywebsocket.config;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import com.example.nettywebsocket.security.CachingTokenService;
+import com.example.nettywebsocket.security.DefaultTokenService;
+import com.example.nettywebsocket.security.JwtTokenService;
+import com.example.nettywebsocket.security.TokenService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * Token验证服务配置类
+ * websocket.security.token.mode 选择握手使用的验证方式：default（Redis存储或外部接口）、jwt（本地验证JWT签名）；
+ * default模式在实际的验证服务前加一层本地缓存，可通过 websocket.security.token.cache.enable 关闭。
+ * jwt模式验证只有本地计算，不使用缓存，避免缓存结果超过token的过期时间
+ */
+@Configuration
+public class TokenServiceConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenServiceConfig.class);
+
+    // 握手使用的token验证方式：default、jwt
+    @Value("${websocket.security.token.mode:default}")
+    private String mode;
+
+    // 是否启用token验证结果缓存
+    @Value("${websocket.security.token.cache.enable:true}")
+    private boolean cacheEnabled;
+
+    // 有效token的缓存时间（毫秒），token被撤销后在该时间内仍会通过验证
+    @Value("${websocket.security.token.cache.ttl:5000}")
+    private long cacheTtlMillis;
+
+    // 无效token的缓存时间（毫秒），0表示不缓存
+    @Value("${websocket.security.token.cache.negative-ttl:5000}")
+    private long cacheNegativeTtlMillis;
+
+    // 最多缓存的token数
+    @Value("${websocket.security.token.cache.max-size:100000}")
+    private int cacheMaxSize;
+
+    /**
+     * 握手鉴权使用的TokenService
+     */
+    @Bean
+    @Primary
+    public TokenService tokenService(DefaultTokenService defaultTokenService, ObjectProvider<JwtTokenService> jwtTokenService,
+                                     WebSocketMetrics metrics) {
+        if ("jwt".equals(mode)) {
+            logger.info("使用本地JWT签名验证token");
+            return jwtTokenService.getObject();
+        }
+        if (!cacheEnabled) {
+            return defaultTokenService;
+        }
+        logger.info("启用token验证缓存，有效期: {}ms，无效token有效期: {}ms，容量: {}",
+                cacheTtlMillis, cacheNegativeTtlMillis, cacheMaxSize);
+        return new CachingTokenService(defaultTokenService, cacheTtlMillis, cacheNegativeTtlMillis, cacheMaxSize, metrics);
+    }
+}
@@ -9,6 +9,7 @@ import org.springframework.web.bind.annotation.*;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 客服相关的控制器
@@ -23,23 +24,35 @@ public class CustomerServiceController {
     private CustomerService customerService;
 
     /**
-     * 客服注册
+     * 客服注册，可选参数 skills（逗号分隔的技能）和 capacity（最大服务人数，缺省使用全局设置）
      */
     @PostMapping("/register")
-    public Map<String, Object> registerAgent(@RequestBody Map<String, String> request) {
+    public Map<String, Object> registerAgent(@RequestBody Map<String, Object> request) {
         Map<String, Object> result = new HashMap<>();
         try {
-            String agentId = request.get("agentId");
+            String agentId = request.get("agentId") != null ? String.valueOf(request.get("agentId")) : null;
             if (agentId == null || agentId.trim().isEmpty()) {
                 result.put("status", "error");
                 result.put("message", "客服ID不能为空");
                 return result;
             }
 
-            customerService.registerAgent(agentId);
+            Object skillsValue = request.get("skills");
+            Set<String> skills = CustomerService.parseSkills(skillsValue != null ? String.valueOf(skillsValue) : null);
+            Object capacityValue = request.get("capacity");
+            Integer capacity = capacityValue != null ? Integer.valueOf(String.valueOf(capacityValue)) : null;
+            if (capacity != null && capacity <= 0) {
+                result.put("status", "error");
+                result.put("message", "最大服务人数必须大于0");
+                return result;
+            }
+
+            customerService.registerAgent(agentId, skills, capacity);
             result.put("status", "success");
             result.put("message", "客服注册成功");
             result.put("agentId", agentId);
+            result.put("skills", skills);
+            result.put("capacity", customerService.getAgentCapacity(agentId));
         } catch (Exception e) {
             logger.error("客服注册失败", e);
             result.put("status", "error");
@@ -132,15 +145,21 @@ public class CustomerServiceController {
         try {
             List<String> agents = customerService.getAllOnlineAgents();
             
-            // 获取每个客服的负载信息
+            // 获取每个客服的负载、容量和技能信息
             Map<String, Integer> agentLoads = new HashMap<>();
+            Map<String, Integer> agentCapacities = new HashMap<>();
+            Map<String, Set<String>> agentSkills = new HashMap<>();
             for (String agentId : agents) {
                 agentLoads.put(agentId, customerService.getAgentLoad(agentId));
+                agentCapacities.put(agentId, customerService.getAgentCapacity(agentId));
+                agentSkills.put(agentId, customerService.getAgentSkills(agentId));
             }
             
             result.put("status", "success");
             result.put("agents", agents);
             result.put("agentLoads", agentLoads);
+            result.put("agentCapacities", agentCapacities);
+            result.put("agentSkills", agentSkills);
             result.put("totalAgents", agents.size());
         } catch (Exception e) {
             logger.error("获取在线客服列表失败", e);
@@ -175,4 +194,42 @@ public class CustomerServiceController {
         }
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * 修改单个客服的最大服务人数，立即生效；capacity为空时恢复使用全局设置
+     */
+    @PostMapping("/set-agent-capacity")
+    public Map<String, Object> setAgentCapacity(@RequestBody Map<String, Object> request) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            String agentId = request.get("agentId") != null ? String.valueOf(request.get("agentId")) : null;
+            if (agentId == null || agentId.trim().isEmpty()) {
+                result.put("status", "error");
+                result.put("message", "客服ID不能为空");
+                return result;
+            }
+            Object capacityValue = request.get("capacity");
+            Integer capacity = capacityValue != null ? Integer.valueOf(String.valueOf(capacityValue)) : null;
+            if (capacity != null && capacity <= 0) {
+                result.put("status", "error");
+                result.put("message", "最大服务人数必须大于0");
+                return result;
+            }
+
+            if (!customerService.setAgentCapacity(agentId, capacity)) {
+                result.put("status", "error");
+                result.put("message", "无效的客服ID");
+                return result;
+            }
+            result.put("status", "success");
+            result.put("message", "客服最大服务人数设置成功");
+            result.put("agentId", agentId);
+            result.put("capacity", customerService.getAgentCapacity(agentId));
+        } catch (Exception e) {
+            logger.error("设置客服最大服务人数失败", e);
+            result.put("status", "error");
+            result.put("message", "设置失败: " + e.getMessage());
+        }
+        return result;
+    }
+}
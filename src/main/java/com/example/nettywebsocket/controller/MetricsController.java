@@ -0,0 +1,60 @@
+package com.example.nettywebsocket.controller;
+
+import com.example.nettywebsocket.manager.WebSocketConnectionManager;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import com.example.nettywebsocket.server.CompressionMetricsHandler;
+import io.netty.channel.Channel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 运行指标控制器
+ */
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+
+    @Autowired
+    private WebSocketMetrics metrics;
+
+    @Autowired
+    private WebSocketConnectionManager connectionManager;
+
+    /**
+     * 获取全部运行指标
+     */
+    @GetMapping
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("metrics", metrics.snapshot());
+        result.put("status", "success");
+        return result;
+    }
+
+    /**
+     * 获取本节点上指定用户连接的出站压缩统计
+     */
+    @GetMapping("/compression/{userId}")
+    public Map<String, Object> getCompressionStats(@PathVariable String userId) {
+        Map<String, Object> result = new HashMap<>();
+        Channel channel = connectionManager.getChannel(userId);
+        CompressionMetricsHandler.Stats stats = channel != null ? CompressionMetricsHandler.stats(channel) : null;
+        if (stats == null) {
+            result.put("status", "error");
+            result.put("message", "用户不在本节点或未启用压缩");
+            return result;
+        }
+        result.put("rawBytes", stats.getRawBytes());
+        result.put("wireBytes", stats.getWireBytes());
+        result.put("compressedFrames", stats.getCompressedFrames());
+        result.put("ratio", stats.getRatio());
+        result.put("status", "success");
+        return result;
+    }
+}
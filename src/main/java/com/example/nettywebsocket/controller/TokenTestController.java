@@ -1,6 +1,7 @@
 package com.example.nettywebsocket.controller;
 
 import com.example.nettywebsocket.security.DefaultTokenService;
+import com.example.nettywebsocket.security.TokenService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,6 +24,10 @@ public class TokenTestController {
     @Autowired
     private DefaultTokenService tokenService;
 
+    // 握手使用的TokenService，添加或移除token后使其缓存的验证结果失效
+    @Autowired
+    private TokenService handshakeTokenService;
+
     /**
      * 生成测试token
      * @param userId 用户ID
@@ -43,6 +48,7 @@ public class TokenTestController {
         
         // 添加到本地token存储
         tokenService.addToken(token, userId);
+        handshakeTokenService.invalidate(token);
         
         result.put("status", "success");
         result.put("token", token);
@@ -71,6 +77,7 @@ public class TokenTestController {
         }
         
         tokenService.removeToken(token);
+        handshakeTokenService.invalidate(token);
         
         result.put("status", "success");
         result.put("message", "测试token已移除");
@@ -1,8 +1,8 @@
 package com.example.nettywebsocket.controller;
 
+import com.example.nettywebsocket.handler.WebSocketMessageCodec;
 import com.example.nettywebsocket.manager.WebSocketConnectionManager;
 import com.example.nettywebsocket.model.WebSocketMessage;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,7 +25,7 @@ public class WebSocketController {
     private WebSocketConnectionManager connectionManager;
     
     @Autowired
-    private ObjectMapper objectMapper;
+    private WebSocketMessageCodec messageCodec;
     
     /**
      * 获取在线用户数量
@@ -77,7 +77,7 @@ public class WebSocketController {
             wsMessage.setMessageId(UUID.randomUUID().toString());
             
             // 发送消息
-            boolean sent = connectionManager.sendMessage(userId, objectMapper.writeValueAsString(wsMessage));
+            boolean sent = connectionManager.sendMessage(userId, messageCodec.encode(wsMessage));
             
             result.put("status", sent ? "success" : "error");
             result.put("message", sent ? "消息发送成功" : "用户不在线");
@@ -117,7 +117,7 @@ public class WebSocketController {
             wsMessage.setMessageId(UUID.randomUUID().toString());
             
             // 发送消息
-            connectionManager.sendToGroup(groupId, objectMapper.writeValueAsString(wsMessage));
+            connectionManager.sendToGroup(groupId, messageCodec.encode(wsMessage));
             
             result.put("status", "success");
             result.put("message", "群组消息发送成功");
@@ -155,7 +155,7 @@ public class WebSocketController {
             wsMessage.setMessageId(UUID.randomUUID().toString());
             
             // 广播消息
-            connectionManager.broadcast(objectMapper.writeValueAsString(wsMessage));
+            connectionManager.broadcast(messageCodec.encode(wsMessage));
             
             result.put("status", "success");
             result.put("message", "广播消息发送成功");
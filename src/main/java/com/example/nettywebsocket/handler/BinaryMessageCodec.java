@@ -0,0 +1,233 @@
+package com.example.nettywebsocket.handler;
+
+import com.example.nettywebsocket.model.WebSocketMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * WebSocketMessage的紧凑二进制编码，客户端通过Sec-WebSocket-Protocol协商 {@link #SUBPROTOCOL} 后使用
+ * <pre>
+ * flags      1字节，按位表示下列字段是否存在
+ * type       varint，0表示后跟字符串，n表示 TYPES[n-1]
+ * senderId   标识引用
+ * receiverId 标识引用
+ * timestamp  varint（毫秒）
+ * messageId  UUID格式时为16字节，否则为字符串
+ * content    字符串
+ * </pre>
+ * 字符串为varint长度加UTF-8字节。标识引用为varint，0表示后跟字符串并加入标识表，n表示标识表中第n个，
+ * 同一连接上重复出现的用户ID只在第一次传输全文。标识表按连接、按方向维护，因此每个连接的每个方向使用
+ * 单独的实例，且不能被多个线程同时使用
+ */
+public class BinaryMessageCodec {
+
+    public static final String SUBPROTOCOL = "wsmsg.binary.v1";
+
+    // 只用于客户端显式声明使用JSON文本帧
+    public static final String JSON_SUBPROTOCOL = "wsmsg.json.v1";
+
+    // 类型编码表，只能在末尾追加
+    static final List<String> TYPES = Arrays.asList(
+            WebSocketMessage.TYPE_SYSTEM, WebSocketMessage.TYPE_CHAT, WebSocketMessage.TYPE_GROUP,
+            WebSocketMessage.TYPE_BROADCAST, WebSocketMessage.TYPE_CS_ASSIGN, WebSocketMessage.TYPE_CS_STATUS,
+            WebSocketMessage.TYPE_USER_JOIN, WebSocketMessage.TYPE_USER_LEAVE, WebSocketMessage.TYPE_CONFIRM,
+            WebSocketMessage.TYPE_ERROR);
+
+    // 每个方向最多记录的标识数，超出后新标识按全文传输且不再加入标识表
+    static final int MAX_INTERNED_IDS = 1024;
+
+    private static final int FLAG_TYPE = 1;
+    private static final int FLAG_SENDER = 1 << 1;
+    private static final int FLAG_RECEIVER = 1 << 2;
+    private static final int FLAG_MESSAGE_ID = 1 << 3;
+    private static final int FLAG_MESSAGE_UUID = 1 << 4;
+    private static final int FLAG_CONTENT = 1 << 5;
+
+    private static final Map<String, Integer> TYPE_CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < TYPES.size(); i++) {
+            TYPE_CODES.put(TYPES.get(i), i + 1);
+        }
+    }
+
+    // 编码方向：标识 -> 引用序号
+    private final Map<String, Integer> encodeIds = new HashMap<>();
+
+    // 解码方向：引用序号 - 1 -> 标识
+    private final List<String> decodeIds = new ArrayList<>();
+
+    /**
+     * 把消息编码写入out
+     */
+    public void encode(WebSocketMessage message, ByteBuf out) {
+        UUID uuid = parseUuid(message.getMessageId());
+        int flags = (message.getType() != null ? FLAG_TYPE : 0)
+                | (message.getSenderId() != null ? FLAG_SENDER : 0)
+                | (message.getReceiverId() != null ? FLAG_RECEIVER : 0)
+                | (message.getMessageId() != null ? (uuid != null ? FLAG_MESSAGE_UUID : FLAG_MESSAGE_ID) : 0)
+                | (message.getContent() != null ? FLAG_CONTENT : 0);
+        out.writeByte(flags);
+        if (message.getType() != null) {
+            Integer code = TYPE_CODES.get(message.getType());
+            if (code != null) {
+                writeVarint(out, code);
+            } else {
+                writeVarint(out, 0);
+                writeString(out, message.getType());
+            }
+        }
+        if (message.getSenderId() != null) {
+            writeId(out, message.getSenderId());
+        }
+        if (message.getReceiverId() != null) {
+            writeId(out, message.getReceiverId());
+        }
+        writeVarint(out, message.getTimestamp());
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else if (message.getMessageId() != null) {
+            writeString(out, message.getMessageId());
+        }
+        if (message.getContent() != null) {
+            writeString(out, message.getContent());
+        }
+    }
+
+    /**
+     * 从in的可读内容解码一条消息，不改变in的读索引
+     * @throws CorruptedFrameException 内容不完整或引用了不存在的标识
+     */
+    public WebSocketMessage decode(ByteBuf in) {
+        int readerIndex = in.readerIndex();
+        try {
+            if (!in.isReadable()) {
+                throw new CorruptedFrameException("空的二进制消息");
+            }
+            int flags = in.readUnsignedByte();
+            WebSocketMessage message = new WebSocketMessage();
+            if ((flags & FLAG_TYPE) != 0) {
+                int code = (int) readVarint(in);
+                if (code == 0) {
+                    message.setType(readString(in));
+                } else if (code <= TYPES.size()) {
+                    message.setType(TYPES.get(code - 1));
+                } else {
+                    throw new CorruptedFrameException("未知的消息类型编码: " + code);
+                }
+            }
+            if ((flags & FLAG_SENDER) != 0) {
+                message.setSenderId(readId(in));
+            }
+            if ((flags & FLAG_RECEIVER) != 0) {
+                message.setReceiverId(readId(in));
+            }
+            message.setTimestamp(readVarint(in));
+            if ((flags & FLAG_MESSAGE_UUID) != 0) {
+                checkReadable(in, 16);
+                message.setMessageId(new UUID(in.readLong(), in.readLong()).toString());
+            } else if ((flags & FLAG_MESSAGE_ID) != 0) {
+                message.setMessageId(readString(in));
+            }
+            if ((flags & FLAG_CONTENT) != 0) {
+                message.setContent(readString(in));
+            }
+            return message;
+        } finally {
+            in.readerIndex(readerIndex);
+        }
+    }
+
+    private void writeId(ByteBuf out, String id) {
+        Integer ref = encodeIds.get(id);
+        if (ref != null) {
+            writeVarint(out, ref);
+            return;
+        }
+        writeVarint(out, 0);
+        writeString(out, id);
+        if (encodeIds.size() < MAX_INTERNED_IDS) {
+            encodeIds.put(id, encodeIds.size() + 1);
+        }
+    }
+
+    private String readId(ByteBuf in) {
+        long ref = readVarint(in);
+        if (ref == 0) {
+            String id = readString(in);
+            if (decodeIds.size() < MAX_INTERNED_IDS) {
+                decodeIds.add(id);
+            }
+            return id;
+        }
+        if (ref > decodeIds.size()) {
+            throw new CorruptedFrameException("引用了不存在的标识: " + ref);
+        }
+        return decodeIds.get((int) ref - 1);
+    }
+
+    static void writeVarint(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarint(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            checkReadable(in, 1);
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("varint过长");
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        writeVarint(out, ByteBufUtil.utf8Bytes(value));
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    private static String readString(ByteBuf in) {
+        long length = readVarint(in);
+        if (length > in.readableBytes()) {
+            throw new CorruptedFrameException("字符串长度超出消息: " + length);
+        }
+        return in.readCharSequence((int) length, CharsetUtil.UTF_8).toString();
+    }
+
+    private static void checkReadable(ByteBuf in, int length) {
+        if (in.readableBytes() < length) {
+            throw new CorruptedFrameException("二进制消息不完整");
+        }
+    }
+
+    /**
+     * 标准格式（小写、36个字符）的UUID返回解析结果，其他格式返回null，保证解码后得到原字符串
+     */
+    private static UUID parseUuid(String value) {
+        if (value == null || value.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(value);
+            return uuid.toString().equals(value) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.nettywebsocket.handler;
+
+import com.example.nettywebsocket.model.WebSocketMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * 协商了二进制协议的连接上的出站编码器
+ * 发送方按通道标记直接写入WebSocketMessage（连接管理器对扇出、转发的JSON内容只解码一次），这里编码为二进制帧，
+ * 出站路径上不再解析JSON。二进制连接上出现的文本帧说明发送方漏判了协议，直接使写入失败并记录错误，不会向客户端混发文本帧。
+ * 每个连接一个实例，在连接的I/O线程上执行
+ */
+public class BinaryProtocolEncoder extends MessageToMessageEncoder<Object> {
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryProtocolEncoder.class);
+
+    // 协商了二进制协议的通道标记，连接管理器据此决定写入WebSocketMessage还是JSON文本帧
+    private static final AttributeKey<Boolean> BINARY_ATTR = AttributeKey.valueOf("websocket.binary");
+
+    private final BinaryMessageCodec binaryCodec = new BinaryMessageCodec();
+
+    /**
+     * 标记通道已协商二进制协议，握手时在加入编码器的同时调用
+     */
+    public static void markBinary(Channel channel) {
+        channel.attr(BINARY_ATTR).set(Boolean.TRUE);
+    }
+
+    /**
+     * 通道是否协商了二进制协议
+     */
+    public static boolean isBinary(Channel channel) {
+        return Boolean.TRUE.equals(channel.attr(BINARY_ATTR).get());
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) {
+        return msg instanceof WebSocketMessage || msg instanceof TextWebSocketFrame;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) {
+        if (msg instanceof TextWebSocketFrame) {
+            // voidPromise写入的失败不会通知发送方，这里记录；由MessageToMessageEncoder释放帧并使写入失败
+            logger.error("二进制协议连接 {} 收到文本帧，已丢弃", ctx.channel().id());
+            throw new EncoderException("二进制协议连接不能发送文本帧，发送方应写入WebSocketMessage");
+        }
+        ByteBuf buffer = ctx.alloc().buffer();
+        try {
+            binaryCodec.encode((WebSocketMessage) msg, buffer);
+        } catch (RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+        out.add(new BinaryWebSocketFrame(buffer));
+    }
+}
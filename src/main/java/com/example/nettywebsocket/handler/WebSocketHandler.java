@@ -3,18 +3,22 @@ package com.example.nettywebsocket.handler;
 import com.example.nettywebsocket.manager.WebSocketConnectionManager;
 import com.example.nettywebsocket.model.WebSocketMessage;
 import com.example.nettywebsocket.security.TokenService;
+import com.example.nettywebsocket.server.BusinessExecutor;
 import com.example.nettywebsocket.service.CustomerService;
+import com.example.nettywebsocket.service.RoutingRequest;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.codec.http.websocketx.*;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
@@ -25,7 +29,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * WebSocket消息处理器
@@ -44,6 +52,9 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private WebSocketMessageCodec messageCodec;
+
     @Autowired
     private TokenService tokenService;
 
@@ -54,27 +65,52 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
     @Value("${netty.websocket.idleTimeout:180}")
     private int idleTimeout;
 
+    // 当前连接的业务串行执行器，阻塞操作在业务线程池中按提交顺序执行
+    private BusinessExecutor.SerialExecutor businessExecutor;
+
+    // 完成握手的连接组，握手后立即加入（早于在连接管理器中注册），服务器排空时向其中的连接发送关闭帧
+    private ChannelGroup upgradedChannels;
+
     // 存储当前连接的用户ID
-    private String userId;
+    private volatile String userId;
 
     // 存储当前连接的token
-    private String token;
+    private volatile String token;
 
     // 用户角色：AGENT(客服) 或 USER(普通用户)
-    private String userRole;
+    private volatile String userRole;
 
     // 分配的客服ID（普通用户使用）
-    private String assignedAgentId;
+    private volatile String assignedAgentId;
+
+    // 协商了二进制协议时的入站解码器，为null表示使用JSON文本帧
+    private volatile BinaryMessageCodec binaryDecoder;
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         logger.info("客户端连接成功: {}", ctx.channel().remoteAddress());
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        // 本次读取中在I/O线程上写出的帧（如Pong）统一刷新一次
+        ctx.flush();
+        ctx.fireChannelReadComplete();
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         logger.info("客户端断开连接: {}", ctx.channel().remoteAddress());
 
+        // 清理操作排在该连接尚未执行完的握手和消息任务之后，不受待处理任务数上限限制，
+        // 业务线程池繁忙时由后备线程执行，不会阻塞I/O线程
+        businessExecutor.executeGuaranteed(() -> releaseConnection(ctx));
+    }
+
+    /**
+     * 注销客服或移出服务列表，释放token并移除连接（业务线程执行）
+     */
+    private void releaseConnection(ChannelHandlerContext ctx) {
         // 如果已经成功建立连接并有用户ID
         if (userId != null) {
             // 根据角色处理客服相关逻辑
@@ -124,6 +160,12 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
             return;
         }
 
+        // 服务器正在排空，不再接受新的握手
+        if (connectionManager.isDraining()) {
+            sendHttpResponse(ctx, req, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE));
+            return;
+        }
+
         // 要求GET方法
         if (!req.method().name().equals("GET")) {
             sendHttpResponse(ctx, req, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.FORBIDDEN));
@@ -154,52 +196,138 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
             }
         }
 
-        // 验证token
-        boolean tokenValid = false;
-        if (token != null && !token.isEmpty()) {
-            tokenValid = tokenService.validateToken(token);
-            if (tokenValid) {
-                userId = tokenService.getUserIdByToken(token);
-                this.token = token;
-                logger.info("WebSocket连接token验证成功: userId={}", userId);
-            }
+        if (token == null || token.isEmpty()) {
+            sendUnauthorized(ctx, req);
+            return;
         }
 
-        // 如果token无效，拒绝连接
-        if (!tokenValid || userId == null) {
-            logger.warn("WebSocket连接token验证失败");
-            DefaultFullHttpResponse response = new DefaultFullHttpResponse(
-                    HttpVersion.HTTP_1_1, HttpResponseStatus.UNAUTHORIZED);
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
-            response.content().writeBytes("Unauthorized: Invalid token".getBytes(CharsetUtil.UTF_8));
-            sendHttpResponse(ctx, req, response);
-            return;
+        // token验证和后续的客服分配都可能阻塞在Redis或HTTP调用上，交给业务线程池执行
+        final String requestToken = token;
+        req.retain();
+        try {
+            businessExecutor.execute(() -> authenticate(ctx, req, requestToken));
+        } catch (RejectedExecutionException e) {
+            req.release();
+            logger.warn("业务线程池繁忙，拒绝WebSocket握手: {}", ctx.channel().remoteAddress());
+            sendHttpResponse(ctx, req, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE));
         }
-        this.token = token;
-        // 构建WebSocket握手响应
-        WebSocketServerHandshakerFactory factory = new WebSocketServerHandshakerFactory(
-                getWebSocketLocation(req), null, true);
-        handshaker = factory.newHandshaker(req);
-        if (handshaker == null) {
-            WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
-        } else {
+    }
+
+    /**
+     * 发起token验证（业务线程执行），TokenService支持异步验证时业务线程不等待结果
+     */
+    private void authenticate(ChannelHandlerContext ctx, FullHttpRequest req, String token) {
+        try {
+            tokenService.resolveAsync(token).whenComplete((resolvedUserId, error) -> onAuthenticated(ctx, req, token, resolvedUserId, error));
+        } catch (Exception e) {
+            onAuthenticated(ctx, req, token, null, e);
+        }
+    }
+
+    /**
+     * token验证完成后的回调，可能在业务线程或TokenService的I/O线程上执行，验证通过后回到I/O线程完成握手
+     */
+    private void onAuthenticated(ChannelHandlerContext ctx, FullHttpRequest req, String token, String resolvedUserId, Throwable error) {
+        boolean handedOff = false;
+        try {
+            if (error != null) {
+                // 验证服务不可用，返回503，客户端可以与token无效区分
+                logger.error("WebSocket握手鉴权失败", error);
+                sendServiceUnavailable(ctx, req);
+                return;
+            }
+
+            // 如果token无效，拒绝连接
+            if (resolvedUserId == null) {
+                sendUnauthorized(ctx, req);
+                return;
+            }
+            logger.info("WebSocket连接token验证成功: userId={}", resolvedUserId);
+
+            ctx.executor().execute(() -> completeHandshake(ctx, req, resolvedUserId, token));
+            handedOff = true;
+        } catch (Exception e) {
+            logger.error("WebSocket握手鉴权失败", e);
+            sendServiceUnavailable(ctx, req);
+        } finally {
+            if (!handedOff) {
+                req.release();
+            }
+        }
+    }
+
+    /**
+     * 完成WebSocket握手（I/O线程执行），连接的用户ID和token在这里记录
+     */
+    private void completeHandshake(ChannelHandlerContext ctx, FullHttpRequest req, String resolvedUserId, String token) {
+        try {
+            // 鉴权期间客户端可能已经断开，连接清理时还没有记录token，在这里释放
+            if (!ctx.channel().isActive()) {
+                businessExecutor.executeGuaranteed(() -> tokenService.releaseToken(token));
+                return;
+            }
+            userId = resolvedUserId;
+            this.token = token;
+            // 鉴权期间服务器可能已经开始排空，排空开始时已取得的连接列表不包含这个连接
+            if (connectionManager.isDraining()) {
+                sendHttpResponse(ctx, req, new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE));
+                return;
+            }
+            // 构建WebSocket握手响应
+            WebSocketServerHandshakerFactory factory = new WebSocketServerHandshakerFactory(
+                    getWebSocketLocation(req), BinaryMessageCodec.SUBPROTOCOL + "," + BinaryMessageCodec.JSON_SUBPROTOCOL, true);
+            handshaker = factory.newHandshaker(req);
+            if (handshaker == null) {
+                WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
+                return;
+            }
             handshaker.handshake(ctx.channel(), req);
-            // 从请求参数中获取用户角色
+            if (upgradedChannels != null) {
+                upgradedChannels.add(ctx.channel());
+            }
+            // 客户端选择二进制协议时，标记通道让发送方写入WebSocketMessage，由编码器编码为二进制帧
+            if (BinaryMessageCodec.SUBPROTOCOL.equals(handshaker.selectedSubprotocol())) {
+                BinaryProtocolEncoder.markBinary(ctx.channel());
+                ctx.pipeline().addBefore(ctx.name(), "binaryProtocolEncoder", new BinaryProtocolEncoder());
+                binaryDecoder = new BinaryMessageCodec();
+            }
+            // 从请求参数中获取用户角色和路由参数
             String role = req.uri().contains("role=agent") ? "AGENT" : "USER";
+            Map<String, List<String>> params = new QueryStringDecoder(req.uri()).parameters();
+            try {
+                businessExecutor.execute(() -> onHandshakeComplete(ctx, role, params));
+            } catch (RejectedExecutionException e) {
+                logger.warn("业务线程池繁忙，关闭用户 {} 的连接", userId);
+                ctx.close();
+            }
+        } finally {
+            req.release();
+        }
+    }
+
+    /**
+     * 握手完成后注册客服或分配客服，并将连接加入管理器（业务线程执行）
+     * 客服可通过 skills=（逗号分隔）和 capacity= 参数声明技能和最大服务人数，用户可通过 queue= 和 priority= 参数指定技能队列和优先级
+     */
+    private void onHandshakeComplete(ChannelHandlerContext ctx, String role, Map<String, List<String>> params) {
+        try {
             this.userRole = role;
 
             // 根据角色处理
             if ("AGENT".equals(role)) {
                 // 客服角色，注册到客服系统
-                customerService.registerAgent(userId);
+                customerService.registerAgent(userId, CustomerService.parseSkills(getParameter(params, "skills")),
+                        parsePositiveInt(getParameter(params, "capacity")));
                 logger.info("客服 {} 已上线", userId);
 
                 // 发送欢迎消息给客服
                 WebSocketMessage welcomeMsg = new WebSocketMessage("SYSTEM", "欢迎回来！您可以开始为客户服务了。", "server", userId);
-                sendMessage(ctx, objectMapper.writeValueAsString(welcomeMsg));
+                sendMessage(ctx, welcomeMsg);
             } else {
                 // 普通用户角色，分配客服
-                String agentId = customerService.assignCustomerService(userId);
+                Integer priority = parsePositiveInt(getParameter(params, "priority"));
+                RoutingRequest routing = new RoutingRequest(getParameter(params, "queue"), priority != null ? priority : 0);
+                String agentId = customerService.assignCustomerService(userId, routing);
                 this.assignedAgentId = agentId;
 
                 if (agentId != null) {
@@ -208,7 +336,7 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
                     logger.warn("普通用户 {} 暂时没有可用客服", userId);
                     // 发送系统消息告知用户正在等待客服
                     WebSocketMessage waitingMsg = new WebSocketMessage("SYSTEM", "正在为您分配客服，请稍候...", "server", userId);
-                    sendMessage(ctx, objectMapper.writeValueAsString(waitingMsg));
+                    sendMessage(ctx, waitingMsg);
                 }
             }
 
@@ -225,10 +353,58 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
                 welcomeMsg.setContent(welcomeMsg.getContent() + ", 您的客服是: " + assignedAgentId);
             }
 
-            sendMessage(ctx, objectMapper.writeValueAsString(welcomeMsg));
+            sendMessage(ctx, welcomeMsg);
 
             logger.info("用户 {} WebSocket连接成功，角色 = {}", userId, role);
+        } catch (Exception e) {
+            logger.error("用户 {} 握手后初始化失败", userId, e);
+            ctx.close();
+        }
+    }
+
+    /**
+     * 获取请求参数的第一个值
+     */
+    private static String getParameter(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    /**
+     * 解析正整数参数，缺失或格式错误时返回null
+     */
+    private static Integer parsePositiveInt(String value) {
+        if (value == null) {
+            return null;
         }
+        try {
+            int result = Integer.parseInt(value.trim());
+            return result > 0 ? result : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 验证服务不可用时拒绝握手
+     */
+    private void sendServiceUnavailable(ChannelHandlerContext ctx, FullHttpRequest req) {
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
+        sendHttpResponse(ctx, req, response);
+    }
+
+    /**
+     * 拒绝token无效的连接
+     */
+    private void sendUnauthorized(ChannelHandlerContext ctx, FullHttpRequest req) {
+        logger.warn("WebSocket连接token验证失败");
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.UNAUTHORIZED);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
+        response.content().writeBytes("Unauthorized: Invalid token".getBytes(CharsetUtil.UTF_8));
+        sendHttpResponse(ctx, req, response);
     }
 
     /**
@@ -242,7 +418,7 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
             return;
         }
 
-        // Ping帧
+        // Ping帧，只写入不刷新，由channelReadComplete统一刷新
         if (frame instanceof PingWebSocketFrame) {
             ctx.channel().write(new PongWebSocketFrame(frame.content().retain()));
             return;
@@ -250,56 +426,82 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
 
         // 文本帧
         if (frame instanceof TextWebSocketFrame) {
-            String text = ((TextWebSocketFrame) frame).text();
-            logger.info("收到用户 {} 的消息: {}", userId, text);
+            dispatchMessage(ctx, frame.content(), false);
+            return;
+        }
+
+        // 二进制帧，只在协商了二进制协议时处理
+        if (frame instanceof BinaryWebSocketFrame) {
+            if (binaryDecoder != null) {
+                dispatchMessage(ctx, frame.content(), true);
+            } else {
+                logger.debug("用户 {} 未协商二进制协议，丢弃二进制消息，长度: {}", userId, frame.content().readableBytes());
+            }
+        }
+    }
+
+    /**
+     * 把帧内容交给业务线程解析和处理
+     */
+    private void dispatchMessage(ChannelHandlerContext ctx, ByteBuf frameContent, boolean binary) {
+        // 帧内容直接交给业务线程解析，不先转成String，处理完成后释放
+        ByteBuf content = frameContent.retain();
+        if (logger.isDebugEnabled()) {
+            logger.debug("收到用户 {} 的{}消息，长度: {}", userId, binary ? "二进制" : "文本", content.readableBytes());
+        }
 
+        // 消息持久化和转发涉及Redis调用，交给业务线程池按接收顺序处理
+        try {
+            businessExecutor.execute(() -> {
+                try {
+                    handleMessage(ctx, content, binary);
+                } finally {
+                    content.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            content.release();
+            logger.warn("业务线程池繁忙，丢弃用户 {} 的消息", userId);
+            WebSocketMessage busyMsg = new WebSocketMessage("ERROR", "服务繁忙，请稍后重试", "server", userId);
             try {
-                // 解析消息
-                WebSocketMessage message = objectMapper.readValue(text, WebSocketMessage.class);
-                message.setSenderId(userId);
-                message.setMessageId(UUID.randomUUID().toString());
-
-                // 客服消息处理
-                if ("AGENT".equals(userRole)) {
-                    // 客服发送消息给用户
-                    if (message.getType() == null || "CHAT".equals(message.getType())) {
-                        // 确保消息类型正确
-                        message.setType("CHAT");
-                        // 发送给指定用户
-                        handleChatMessage(ctx, message);
-                        logger.info("客服 {} 发送消息给用户 {}", userId, message.getReceiverId());
-                    } else {
-                        // 处理其他类型消息
-                        switch (message.getType()) {
-                            case "GROUP":
-                                handleGroupMessage(ctx, message);
-                                break;
-                            case "BROADCAST":
-                                handleBroadcastMessage(ctx, message);
-                                break;
-                            default:
-                                sendMessage(ctx, text);
-                                break;
-                        }
-                    }
-                } else if ("USER".equals(userRole)) {
-                    // 普通用户发送消息，自动转发给分配的客服
-                    if (assignedAgentId != null) {
-                        message.setType("CHAT");
-                        message.setReceiverId(assignedAgentId); // 强制发送给客服
-                        handleChatMessage(ctx, message);
-                        logger.info("用户 {} 发送消息给客服 {}", userId, assignedAgentId);
-                    } else {
-                        // 没有分配客服，发送系统消息
-                        WebSocketMessage errorMsg = new WebSocketMessage("SYSTEM", "正在为您分配客服，请稍候...", "server", userId);
-                        sendMessage(ctx, objectMapper.writeValueAsString(errorMsg));
-                    }
+                sendMessage(ctx, busyMsg);
+            } catch (Exception ex) {
+                logger.error("发送错误消息失败", ex);
+            }
+        }
+    }
+
+    /**
+     * 处理JSON文本或二进制消息（业务线程执行）
+     * 处理过程中回给发送者的帧（确认、错误、回显）只写入，处理完成后统一刷新一次
+     */
+    private void handleMessage(ChannelHandlerContext ctx, ByteBuf content, boolean binary) {
+        try {
+            processMessage(ctx, content, binary);
+        } finally {
+            ctx.channel().flush();
+        }
+    }
+
+    private void processMessage(ChannelHandlerContext ctx, ByteBuf content, boolean binary) {
+        try {
+            // 解析消息
+            WebSocketMessage message = binary ? binaryDecoder.decode(content) : messageCodec.decode(content);
+            message.setSenderId(userId);
+            message.setMessageId(UUID.randomUUID().toString());
+
+            // 客服消息处理
+            if ("AGENT".equals(userRole)) {
+                // 客服发送消息给用户
+                if (message.getType() == null || "CHAT".equals(message.getType())) {
+                    // 确保消息类型正确
+                    message.setType("CHAT");
+                    // 发送给指定用户
+                    handleChatMessage(ctx, message);
+                    logger.info("客服 {} 发送消息给用户 {}", userId, message.getReceiverId());
                 } else {
-                    // 原来的消息处理逻辑
+                    // 处理其他类型消息
                     switch (message.getType()) {
-                        case "CHAT":
-                            handleChatMessage(ctx, message);
-                            break;
                         case "GROUP":
                             handleGroupMessage(ctx, message);
                             break;
@@ -307,27 +509,48 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
                             handleBroadcastMessage(ctx, message);
                             break;
                         default:
-                            sendMessage(ctx, text);
+                            echo(ctx, message, content, binary);
                             break;
                     }
                 }
-            } catch (Exception e) {
-                logger.error("处理消息失败", e);
-                // 发送错误消息
-                WebSocketMessage errorMsg = new WebSocketMessage("ERROR", "消息格式错误", "server", userId);
-                try {
-                    sendMessage(ctx, objectMapper.writeValueAsString(errorMsg));
-                } catch (Exception ex) {
-                    logger.error("发送错误消息失败", ex);
+            } else if ("USER".equals(userRole)) {
+                // 普通用户发送消息，自动转发给分配的客服
+                if (assignedAgentId != null) {
+                    message.setType("CHAT");
+                    message.setReceiverId(assignedAgentId); // 强制发送给客服
+                    handleChatMessage(ctx, message);
+                    logger.info("用户 {} 发送消息给客服 {}", userId, assignedAgentId);
+                } else {
+                    // 没有分配客服，发送系统消息
+                    WebSocketMessage errorMsg = new WebSocketMessage("SYSTEM", "正在为您分配客服，请稍候...", "server", userId);
+                    writeMessage(ctx, errorMsg);
+                }
+            } else {
+                // 原来的消息处理逻辑
+                switch (message.getType()) {
+                    case "CHAT":
+                        handleChatMessage(ctx, message);
+                        break;
+                    case "GROUP":
+                        handleGroupMessage(ctx, message);
+                        break;
+                    case "BROADCAST":
+                        handleBroadcastMessage(ctx, message);
+                        break;
+                    default:
+                        echo(ctx, message, content, binary);
+                        break;
                 }
             }
-            return;
-        }
-
-        // 二进制帧处理（如果需要）
-        if (frame instanceof BinaryWebSocketFrame) {
-            // 这里可以添加二进制消息的处理逻辑
-            logger.info("收到二进制消息，长度: {}", frame.content().readableBytes());
+        } catch (Exception e) {
+            logger.error("处理消息失败", e);
+            // 发送错误消息
+            WebSocketMessage errorMsg = new WebSocketMessage("ERROR", "消息格式错误", "server", userId);
+            try {
+                writeMessage(ctx, errorMsg);
+            } catch (Exception ex) {
+                logger.error("发送错误消息失败", ex);
+            }
         }
     }
 
@@ -347,7 +570,7 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
         }
 
         // 发送给接收者
-        boolean sent = connectionManager.sendMessage(receiverId, objectMapper.writeValueAsString(message));
+        boolean sent = connectionManager.sendMessage(receiverId, messageCodec.encode(ctx.alloc(), message));
 
         // 发送确认消息给发送者
         WebSocketMessage confirmMsg = new WebSocketMessage(
@@ -357,7 +580,7 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
                 userId
         );
         confirmMsg.setMessageId(message.getMessageId());
-        sendMessage(ctx, objectMapper.writeValueAsString(confirmMsg));
+        writeMessage(ctx, confirmMsg);
     }
 
     /**
@@ -367,7 +590,7 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
         String groupId = message.getReceiverId();
 
         // 发送到群组
-        connectionManager.sendToGroup(groupId, objectMapper.writeValueAsString(message));
+        connectionManager.sendToGroup(groupId, messageCodec.encode(ctx.alloc(), message));
 
         // 发送确认消息
         WebSocketMessage confirmMsg = new WebSocketMessage(
@@ -377,7 +600,7 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
                 userId
         );
         confirmMsg.setMessageId(message.getMessageId());
-        sendMessage(ctx, objectMapper.writeValueAsString(confirmMsg));
+        writeMessage(ctx, confirmMsg);
     }
 
     /**
@@ -385,7 +608,7 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
      */
     private void handleBroadcastMessage(ChannelHandlerContext ctx, WebSocketMessage message) throws Exception {
         // 广播消息
-        connectionManager.broadcast(objectMapper.writeValueAsString(message));
+        connectionManager.broadcast(messageCodec.encode(ctx.alloc(), message));
 
         // 发送确认消息
         WebSocketMessage confirmMsg = new WebSocketMessage(
@@ -395,7 +618,7 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
                 userId
         );
         confirmMsg.setMessageId(message.getMessageId());
-        sendMessage(ctx, objectMapper.writeValueAsString(confirmMsg));
+        writeMessage(ctx, confirmMsg);
     }
 
     /**
@@ -422,10 +645,36 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
     }
 
     /**
-     * 发送消息
+     * 发送消息并立即刷新
      */
-    private void sendMessage(ChannelHandlerContext ctx, String message) {
-        ctx.channel().writeAndFlush(new TextWebSocketFrame(message));
+    private void sendMessage(ChannelHandlerContext ctx, WebSocketMessage message) throws IOException {
+        writeMessage(ctx, message);
+        ctx.channel().flush();
+    }
+
+    /**
+     * 写入消息但不刷新，由调用方在一批写入完成后统一刷新。
+     * JSON连接直接编码到通道分配器的ByteBuf，二进制连接交给出站编码器在I/O线程上编码
+     */
+    private void writeMessage(ChannelHandlerContext ctx, WebSocketMessage message) throws IOException {
+        if (binaryDecoder != null) {
+            ctx.channel().write(message);
+        } else {
+            ctx.channel().write(new TextWebSocketFrame(messageCodec.encode(ctx.alloc(), message)));
+        }
+    }
+
+    /**
+     * 回发消息（只写入，不刷新）：JSON连接和二进制帧原样回发内容；
+     * 二进制协议连接上收到的JSON文本帧按解析后的消息回发，连接上只发送二进制帧
+     */
+    private void echo(ChannelHandlerContext ctx, WebSocketMessage message, ByteBuf content, boolean binary) throws IOException {
+        if (binaryDecoder != null && !binary) {
+            writeMessage(ctx, message);
+            return;
+        }
+        ByteBuf payload = content.retainedDuplicate();
+        ctx.channel().write(binary ? new BinaryWebSocketFrame(payload) : new TextWebSocketFrame(payload));
     }
 
     @Override
@@ -444,9 +693,9 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
                 // 发送超时消息给客户端
                 try {
                     WebSocketMessage timeoutMsg = new WebSocketMessage("SYSTEM", "连接空闲超时，即将断开", "server", userId);
-                    sendMessage(ctx, objectMapper.writeValueAsString(timeoutMsg));
-                    // 延迟100毫秒关闭，确保消息发送完成
-                    ctx.channel().close().syncUninterruptibly();
+                    sendMessage(ctx, timeoutMsg);
+                    // 关闭操作排在超时消息之后，不在I/O线程上同步等待
+                    ctx.channel().close();
                 } catch (Exception e) {
                     logger.error("发送超时消息失败", e);
                     ctx.close();
@@ -467,6 +716,10 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
         this.objectMapper = objectMapper;
     }
 
+    public void setMessageCodec(WebSocketMessageCodec messageCodec) {
+        this.messageCodec = messageCodec;
+    }
+
     public void setTokenService(TokenService tokenService) {
         this.tokenService = tokenService;
     }
@@ -475,6 +728,14 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<Object> {
         this.customerService = customerService;
     }
 
+    public void setBusinessExecutor(BusinessExecutor.SerialExecutor businessExecutor) {
+        this.businessExecutor = businessExecutor;
+    }
+
+    public void setUpgradedChannels(ChannelGroup upgradedChannels) {
+        this.upgradedChannels = upgradedChannels;
+    }
+
     public void setIdleTimeout(int idleTimeout) {
         this.idleTimeout = idleTimeout;
     }
@@ -0,0 +1,82 @@
+package com.example.nettywebsocket.handler;
+
+import com.example.nettywebsocket.model.WebSocketMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * WebSocket消息编解码
+ * 入站文本帧直接从帧的ByteBuf解析，不先转成String：堆内存缓冲区直接交给Jackson解析底层数组，
+ * 直接内存缓冲区通过ByteBufInputStream读取到Jackson自身复用的缓冲区；出站消息直接序列化为UTF-8写入池化ByteBuf，
+ * 不经过String和TextWebSocketFrame(String)的二次编码。ObjectReader/ObjectWriter线程安全，所有连接共享
+ */
+@Component
+public class WebSocketMessageCodec {
+
+    // 出站消息的初始缓冲区大小，超出时ByteBuf自动扩容
+    private static final int INITIAL_ENCODE_CAPACITY = 256;
+
+    private final ObjectReader messageReader;
+    private final ObjectWriter messageWriter;
+
+    public WebSocketMessageCodec(ObjectMapper objectMapper) {
+        this.messageReader = objectMapper.readerFor(WebSocketMessage.class);
+        this.messageWriter = objectMapper.writerFor(WebSocketMessage.class);
+    }
+
+    /**
+     * 解析文本帧内容，不改变content的读索引，content由调用方释放
+     * @param content UTF-8编码的JSON
+     * @return 解析后的消息
+     * @throws IOException JSON格式错误
+     */
+    public WebSocketMessage decode(ByteBuf content) throws IOException {
+        int readerIndex = content.readerIndex();
+        int length = content.readableBytes();
+        if (content.hasArray()) {
+            return messageReader.readValue(content.array(), content.arrayOffset() + readerIndex, length);
+        }
+        try (ByteBufInputStream in = new ByteBufInputStream(content, length)) {
+            return messageReader.readValue(in);
+        } finally {
+            content.readerIndex(readerIndex);
+        }
+    }
+
+    /**
+     * 使用默认分配器编码消息
+     * @see #encode(ByteBufAllocator, WebSocketMessage)
+     */
+    public ByteBuf encode(WebSocketMessage message) throws IOException {
+        return encode(ByteBufAllocator.DEFAULT, message);
+    }
+
+    /**
+     * 把消息序列化为UTF-8编码的JSON，直接写入从allocator分配的ByteBuf
+     * @param allocator 分配器，通常为目标通道的ctx.alloc()
+     * @param message 消息
+     * @return 编码后的内容，由调用方（或接收它的TextWebSocketFrame）释放
+     * @throws IOException 序列化失败，此时已分配的缓冲区已释放
+     */
+    public ByteBuf encode(ByteBufAllocator allocator, WebSocketMessage message) throws IOException {
+        ByteBuf buffer = allocator.buffer(INITIAL_ENCODE_CAPACITY);
+        try {
+            // ByteBufOutputStream同时实现了DataOutput，按OutputStream重载写入以使用Jackson的缓冲
+            OutputStream out = new ByteBufOutputStream(buffer);
+            messageWriter.writeValue(out, message);
+            return buffer;
+        } catch (IOException | RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+}
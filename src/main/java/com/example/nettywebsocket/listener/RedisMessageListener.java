@@ -2,6 +2,7 @@ package com.example.nettywebsocket.listener;
 
 import com.example.nettywebsocket.manager.RedisWebSocketConnectionManager;
 import com.example.nettywebsocket.model.WebSocketMessage;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,19 +11,18 @@ import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
 /**
  * Redis消息监听器，用于处理分布式环境下的WebSocket消息
+ * 每个服务器实例订阅广播主题、群组主题以及自己的节点主题
  */
 @Component
 public class RedisMessageListener implements MessageListener {
     
     private static final Logger logger = LoggerFactory.getLogger(RedisMessageListener.class);
     
-    private static final String REDIS_PREFIX = "websocket:";
-    private static final String BROADCAST_TOPIC = REDIS_PREFIX + "broadcast";
-    private static final String USER_TOPIC_PREFIX = REDIS_PREFIX + "user:";
-    private static final String GROUP_TOPIC_PREFIX = REDIS_PREFIX + "group:";
-    
     @Autowired
     private RedisWebSocketConnectionManager connectionManager;
     
@@ -31,30 +31,48 @@ public class RedisMessageListener implements MessageListener {
     
     @Override
     public void onMessage(Message message, byte[] pattern) {
+        handleMessage(new String(message.getChannel(), StandardCharsets.UTF_8),
+                new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * 处理跨服务器消息
+     * @param channel 消息所在的主题
+     * @param messageBody 消息信封（JSON格式的WebSocketMessage）
+     */
+    public void handleMessage(String channel, String messageBody) {
         try {
-            String channel = new String(message.getChannel());
-            String messageBody = new String(message.getBody());
-            
             logger.debug("收到Redis消息，通道: {}, 内容: {}", channel, messageBody);
             
-            // 解析消息
-            WebSocketMessage wsMessage = objectMapper.readValue(messageBody, WebSocketMessage.class);
+            // 解析消息信封
+            WebSocketMessage envelope = objectMapper.readValue(messageBody, WebSocketMessage.class);
+            
+            // 广播和群组消息在发送方服务器已经本地投递过，忽略自己发布的消息
+            boolean fromSelf = connectionManager.getServerId().equals(envelope.getSenderId());
             
             // 根据通道类型处理消息
-            if (channel.equals(BROADCAST_TOPIC)) {
+            if (channel.equals(RedisWebSocketConnectionManager.BROADCAST_TOPIC)) {
                 // 处理广播消息
-                connectionManager.handleRedisBroadcast(wsMessage.getContent());
-            } else if (channel.startsWith(USER_TOPIC_PREFIX)) {
-                // 处理用户定向消息
-                String userId = channel.substring(USER_TOPIC_PREFIX.length());
-                connectionManager.handleRedisUserMessage(userId, wsMessage.getContent());
-            } else if (channel.startsWith(GROUP_TOPIC_PREFIX)) {
+                if (!fromSelf) {
+                    connectionManager.handleRedisBroadcast(envelope.getContent());
+                }
+            } else if (channel.startsWith(RedisWebSocketConnectionManager.NODE_TOPIC_PREFIX)) {
+                // 处理发给本服务器用户的定向消息，批量消息的内容为 用户ID -> 消息内容
+                if (RedisWebSocketConnectionManager.ENVELOPE_DIRECT_BATCH.equals(envelope.getType())) {
+                    connectionManager.handleRedisUserMessages(
+                            objectMapper.readValue(envelope.getContent(), new TypeReference<Map<String, String>>() {}));
+                } else {
+                    connectionManager.handleRedisUserMessage(envelope.getReceiverId(), envelope.getContent());
+                }
+            } else if (channel.startsWith(RedisWebSocketConnectionManager.GROUP_TOPIC_PREFIX)) {
                 // 处理群组消息
-                String groupId = channel.substring(GROUP_TOPIC_PREFIX.length());
-                connectionManager.handleRedisGroupMessage(groupId, wsMessage.getContent());
+                if (!fromSelf) {
+                    String groupId = channel.substring(RedisWebSocketConnectionManager.GROUP_TOPIC_PREFIX.length());
+                    connectionManager.handleRedisGroupMessage(groupId, envelope.getContent());
+                }
             }
         } catch (Exception e) {
             logger.error("处理Redis消息失败", e);
         }
     }
-}
\ No newline at end of file
+}
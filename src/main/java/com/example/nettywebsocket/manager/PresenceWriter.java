@@ -0,0 +1,125 @@
+package com.example.nettywebsocket.manager;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 在线状态批量写入器
+ * 多个连接的上线/下线登记先合并在内存中，由单个后台线程定期或积累到批次上限时统一写入，
+ * 同一用户在一个批次内只保留最后一次操作
+ */
+class PresenceWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceWriter.class);
+
+    // 待写入的登记：用户ID -> true（上线）/ false（下线）
+    private final Map<String, Boolean> pending = new ConcurrentHashMap<>();
+
+    private final Consumer<Map<String, Boolean>> flusher;
+    private final long flushIntervalMillis;
+    private final int maxBatchSize;
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param flusher 批量写入函数，在后台线程中串行调用
+     * @param flushIntervalMillis 定期写入间隔（毫秒）
+     * @param maxBatchSize 单批最大用户数，待写入数量达到该值时立即触发写入
+     */
+    PresenceWriter(Consumer<Map<String, Boolean>> flusher, long flushIntervalMillis, int maxBatchSize) {
+        this.flusher = flusher;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("presence-writer", true));
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台线程，并写入剩余的登记
+     */
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * 登记用户上线
+     */
+    void register(String userId) {
+        pending.put(userId, Boolean.TRUE);
+        requestFlushIfFull();
+    }
+
+    /**
+     * 登记用户下线
+     */
+    void unregister(String userId) {
+        pending.put(userId, Boolean.FALSE);
+        requestFlushIfFull();
+    }
+
+    /**
+     * 待写入的登记数量
+     */
+    int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * 写入当前积累的登记，每批最多maxBatchSize个用户
+     */
+    synchronized void flush() {
+        flushRequested.set(false);
+        while (!pending.isEmpty()) {
+            Map<String, Boolean> batch = new LinkedHashMap<>();
+            Iterator<String> iterator = pending.keySet().iterator();
+            while (iterator.hasNext() && batch.size() < maxBatchSize) {
+                String userId = iterator.next();
+                // remove返回的是最新的登记，之后新的登记留到下一批
+                Boolean online = pending.remove(userId);
+                if (online != null) {
+                    batch.put(userId, online);
+                }
+            }
+            try {
+                flusher.accept(batch);
+            } catch (Exception e) {
+                logger.error("批量写入在线状态失败，用户数: {}", batch.size(), e);
+            }
+        }
+    }
+
+    private void requestFlushIfFull() {
+        if (pending.size() >= maxBatchSize && scheduler != null && flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // 正在关闭，stop()会写入剩余的登记
+                flushRequested.set(false);
+            }
+        }
+    }
+}
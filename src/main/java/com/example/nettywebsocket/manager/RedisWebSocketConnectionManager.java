@@ -1,23 +1,51 @@
 package com.example.nettywebsocket.manager;
 
+import com.example.nettywebsocket.broker.MessageBroker;
+import com.example.nettywebsocket.handler.BinaryProtocolEncoder;
+import com.example.nettywebsocket.handler.WebSocketMessageCodec;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
 import com.example.nettywebsocket.model.WebSocketMessage;
+import com.example.nettywebsocket.util.RedisBatch;
 import com.example.nettywebsocket.util.RedisUtil;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Redis实现的WebSocket连接管理器，支持分布式部署
@@ -38,6 +66,40 @@ public class RedisWebSocketConnectionManager implements WebSocketConnectionManag
     private static final String ONLINE_USER_KEY = REDIS_PREFIX + "online:users";
     private static final String USER_SERVER_KEY = REDIS_PREFIX + "user:server:";
     private static final String SERVER_USER_KEY = REDIS_PREFIX + "server:users:";
+    // 服务器存活租约和登记过租约的服务器集合
+    private static final String SERVER_LEASE_KEY = REDIS_PREFIX + "server:lease:";
+    private static final String SERVERS_KEY = REDIS_PREFIX + "servers";
+    
+    // 批量删除服务器在线状态的脚本，每次调用处理一批用户
+    private static final DefaultRedisScript<Long> CLEAR_SERVER_PRESENCE_SCRIPT = new DefaultRedisScript<>();
+    static {
+        CLEAR_SERVER_PRESENCE_SCRIPT.setLocation(new ClassPathResource("scripts/clear_server_presence.lua"));
+        CLEAR_SERVER_PRESENCE_SCRIPT.setResultType(Long.class);
+    }
+    
+    // 跨服务器消息主题：广播、群组和每个服务器实例各自的节点主题
+    public static final String BROADCAST_TOPIC = REDIS_PREFIX + "broadcast";
+    public static final String GROUP_TOPIC_PREFIX = REDIS_PREFIX + "group:";
+    public static final String NODE_TOPIC_PREFIX = REDIS_PREFIX + "node:";
+    
+    // 跨服务器消息信封类型
+    public static final String ENVELOPE_DIRECT = "DIRECT";
+    public static final String ENVELOPE_DIRECT_BATCH = "DIRECT_BATCH";
+    public static final String ENVELOPE_BROADCAST = "BROADCAST";
+    public static final String ENVELOPE_GROUP = "GROUP";
+    
+    // 通道上记录的用户ID和所在群组，断开连接时无需遍历所有连接和群组
+    private static final AttributeKey<String> USER_ID_ATTR = AttributeKey.valueOf("websocket.userId");
+    private static final AttributeKey<Set<String>> GROUP_IDS_ATTR = AttributeKey.valueOf("websocket.groupIds");
+    
+    // 扇出指标前缀
+    private static final String METRIC_FANOUT_PREFIX = "websocket.fanout.";
+    
+    // 在线状态写入指标前缀
+    private static final String METRIC_PRESENCE_PREFIX = "websocket.presence.";
+    
+    // 服务器租约指标前缀
+    private static final String METRIC_NODE_PREFIX = "websocket.node.";
     
     // 服务器实例ID，用于标识当前服务器
     private final String serverId;
@@ -49,100 +111,202 @@ public class RedisWebSocketConnectionManager implements WebSocketConnectionManag
     @Autowired
     private ObjectMapper objectMapper;
 
-    // Redis发布订阅通道
-    private final ChannelTopic broadcastTopic;
-    private final ChannelTopic userTopicPrefix;
+    // 二进制协议的通道需要把JSON内容解码为WebSocketMessage
+    @Autowired
+    private WebSocketMessageCodec messageCodec;
+
+    // 跨服务器消息代理
+    @Autowired
+    private MessageBroker messageBroker;
+    
+    @Autowired
+    private WebSocketMetrics metrics;
+    
+    // 是否合并多个连接的在线状态后批量写入Redis
+    @Value("${netty.websocket.presence.batch-enabled:true}")
+    private boolean presenceBatchEnabled;
+    
+    // 批量写入间隔（毫秒）
+    @Value("${netty.websocket.presence.flush-interval:10}")
+    private long presenceFlushIntervalMillis;
+    
+    // 单批最多写入的用户数
+    @Value("${netty.websocket.presence.max-batch-size:1000}")
+    private int presenceBatchMaxSize;
+    
+    // 排空时每次脚本调用删除的用户数
+    @Value("${netty.websocket.drain.presence-batch-size:500}")
+    private int drainPresenceBatchSize;
+    
+    // 服务器存活租约的有效期（毫秒），超过该时间未续约的服务器视为已宕机
+    @Value("${netty.websocket.node.lease-ttl:10000}")
+    private long leaseTtlMillis;
+    
+    // 续约间隔（毫秒），应明显小于租约有效期
+    @Value("${netty.websocket.node.heartbeat-interval:3000}")
+    private long heartbeatIntervalMillis;
+    
+    // 检查其他服务器租约的间隔（毫秒）
+    @Value("${netty.websocket.node.sweep-interval:5000}")
+    private long sweepIntervalMillis;
+    
+    // 在线状态批量写入器，未启用批量写入时为null，每个连接直接以管道方式写入
+    private PresenceWriter presenceWriter;
     
     // 本地内存存储（当Redis不可用时使用）
     private final Map<String, String> localUserServerMap = new ConcurrentHashMap<>();
     private final Map<String, Set<String>> localServerUsersMap = new ConcurrentHashMap<>();
     private final Set<String> localOnlineUsers = ConcurrentHashMap.newKeySet();
     
+    // 是否正在排空
+    private volatile boolean draining;
+    
+    // 是否已经持有过租约，用于发现租约在续约间隔内过期（在线状态可能已被其他服务器清理）
+    private volatile boolean leaseHeld;
+    
+    // 续约和清理宕机服务器的后台线程
+    private ScheduledExecutorService leaseScheduler;
+    
     public RedisWebSocketConnectionManager() {
         // 生成服务器实例ID，可以使用UUID或其他方式
         this.serverId = "server:" + System.currentTimeMillis() + ":" + Math.random();
-        this.broadcastTopic = new ChannelTopic(REDIS_PREFIX + "broadcast");
-        this.userTopicPrefix = new ChannelTopic(REDIS_PREFIX + "user:");
         
         logger.info("RedisWebSocketConnectionManager初始化，服务器ID: {}", serverId);
     }
     
+    @PostConstruct
+    public void init() {
+        if (presenceBatchEnabled) {
+            presenceWriter = new PresenceWriter(this::writePresence, presenceFlushIntervalMillis, presenceBatchMaxSize);
+            presenceWriter.start();
+            metrics.gauge(METRIC_PRESENCE_PREFIX + "pending", presenceWriter::pendingCount);
+            logger.info("在线状态批量写入已启用，写入间隔: {}ms，单批上限: {}", presenceFlushIntervalMillis, presenceBatchMaxSize);
+        }
+        
+        leaseScheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("node-lease", true));
+        leaseScheduler.scheduleWithFixedDelay(this::renewLease, 0, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+        leaseScheduler.scheduleWithFixedDelay(this::sweepDeadServers, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    @PreDestroy
+    public void destroy() {
+        if (leaseScheduler != null) {
+            leaseScheduler.shutdownNow();
+        }
+        if (presenceWriter != null) {
+            presenceWriter.stop();
+        }
+        // 主动释放租约，其他服务器在下一次检查时清理本服务器剩余的在线状态；服务器集合中的登记由清理方移除
+        redisUtil.delete(SERVER_LEASE_KEY + serverId);
+    }
+    
+    /**
+     * 续约当前服务器的存活租约，由后台线程定期调用
+     * 租约已在续约间隔内过期时，本服务器的在线状态可能已被其他服务器当作宕机清理，重新登记本地连接
+     */
+    public void renewLease() {
+        try {
+            String leaseKey = SERVER_LEASE_KEY + serverId;
+            boolean lost = leaseHeld && redisUtil.isRedisAvailable() && !redisUtil.hasKey(leaseKey);
+            RedisBatch batch = new RedisBatch()
+                    .set(leaseKey, System.currentTimeMillis(), leaseTtlMillis, TimeUnit.MILLISECONDS)
+                    .addToSet(SERVERS_KEY, serverId);
+            if (!redisUtil.executeBatch(batch)) {
+                return;
+            }
+            leaseHeld = true;
+            if (lost && !localConnections.isEmpty()) {
+                logger.warn("服务器 {} 的租约已过期，重新登记 {} 个本地连接的在线状态", serverId, localConnections.size());
+                metrics.increment(METRIC_NODE_PREFIX + "lease.lost");
+                Map<String, Boolean> presence = new HashMap<>();
+                for (String userId : localConnections.keySet()) {
+                    presence.put(userId, Boolean.TRUE);
+                }
+                writePresence(presence);
+            }
+        } catch (Exception e) {
+            logger.error("续约服务器租约失败", e);
+        }
+    }
+    
+    /**
+     * 检查登记过的其他服务器的租约，租约已过期的服务器视为宕机，批量删除其登记的在线状态，由后台线程定期调用。
+     * 多个服务器可能同时清理同一个宕机服务器，清理脚本可以重复执行
+     */
+    public void sweepDeadServers() {
+        try {
+            Set<String> servers = redisUtil.getSetMembers(SERVERS_KEY, String.class);
+            if (servers == null || servers.size() <= 1) {
+                return;
+            }
+            List<String> others = new ArrayList<>(servers.size());
+            List<String> leaseKeys = new ArrayList<>(servers.size());
+            for (String server : servers) {
+                if (!serverId.equals(server)) {
+                    others.add(server);
+                    leaseKeys.add(SERVER_LEASE_KEY + server);
+                }
+            }
+            // Redis不可用时返回null，不能据此判断租约过期
+            List<Object> leases = redisUtil.multiGet(leaseKeys, Object.class);
+            if (leases == null) {
+                return;
+            }
+            for (int i = 0; i < others.size(); i++) {
+                if (leases.get(i) == null) {
+                    String deadServerId = others.get(i);
+                    long removed = clearServerPresence(deadServerId);
+                    redisUtil.removeFromSet(SERVERS_KEY, deadServerId);
+                    metrics.increment(METRIC_NODE_PREFIX + "swept");
+                    metrics.increment(METRIC_NODE_PREFIX + "swept.users", removed);
+                    logger.warn("服务器 {} 的租约已过期，已删除其 {} 个用户的在线状态", deadServerId, removed);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("清理宕机服务器的在线状态失败", e);
+        }
+    }
+    
     @Override
     public void addConnection(String userId, Channel channel) {
         logger.debug("尝试添加用户连接，用户ID: {}", userId);
         
-        // 存储本地连接
+        // 存储本地连接，并在通道上记录用户ID
+        channel.attr(USER_ID_ATTR).set(userId);
         localConnections.put(userId, channel);
         
-        try {
-            // 检查Redis是否可用
-            if (redisUtil.isRedisAvailable()) {
-                // 在Redis中记录用户与服务器的映射关系
-                redisUtil.set(USER_SERVER_KEY + userId, serverId, 24, TimeUnit.HOURS);
-                
-                // 在Redis中记录当前服务器的在线用户
-                redisUtil.addToSet(SERVER_USER_KEY + serverId, userId);
-                
-                // 添加到在线用户集合
-                redisUtil.addToSet(ONLINE_USER_KEY, userId);
-                
-                logger.info("用户 {} 已连接，当前服务器：{}", userId, serverId);
-            } else {
-                logger.warn("Redis不可用，使用本地存储记录用户连接");
-                // Redis失败时，使用本地内存存储
-                localUserServerMap.put(userId, serverId);
-                localServerUsersMap.computeIfAbsent(serverId, k -> ConcurrentHashMap.newKeySet()).add(userId);
-                localOnlineUsers.add(userId);
-                logger.info("用户 {} 已连接（本地存储），当前服务器：{}", userId, serverId);
-            }
-        } catch (Exception e) {
-            logger.error("Redis记录用户连接失败", e);
-            // Redis失败时，使用本地内存存储
-            localUserServerMap.put(userId, serverId);
-            localServerUsersMap.computeIfAbsent(serverId, k -> ConcurrentHashMap.newKeySet()).add(userId);
-            localOnlineUsers.add(userId);
-            logger.info("用户 {} 已连接（本地存储），当前服务器：{}", userId, serverId);
+        if (presenceWriter != null) {
+            // 由批量写入器合并后统一写入Redis
+            presenceWriter.register(userId);
+            logger.info("用户 {} 已连接，当前服务器：{}", userId, serverId);
+        } else {
+            writePresence(Collections.singletonMap(userId, Boolean.TRUE));
         }
     }
     
     @Override
     public void removeConnection(Channel channel) {
-        // 查找对应的用户ID
-        String userId = null;
-        for (Map.Entry<String, Channel> entry : localConnections.entrySet()) {
-            if (entry.getValue().equals(channel)) {
-                userId = entry.getKey();
-                break;
-            }
-        }
+        // 从通道属性中获取对应的用户ID
+        String userId = channel.attr(USER_ID_ATTR).getAndSet(null);
         
-        if (userId != null) {
-            // 移除本地连接
-            localConnections.remove(userId);
-            
-            try {
-                // 从Redis中移除用户与服务器的映射关系
-                redisUtil.delete(USER_SERVER_KEY + userId);
-                
-                // 从当前服务器的在线用户集合中移除
-                redisUtil.removeFromSet(SERVER_USER_KEY + serverId, userId);
-                
-                // 从在线用户集合中移除
-                redisUtil.removeFromSet(ONLINE_USER_KEY, userId);
-                
+        // 只有当前映射仍指向该通道时才移除，避免用户重连后旧通道关闭误删新连接
+        if (userId != null && localConnections.remove(userId, channel)) {
+            if (presenceWriter != null) {
+                presenceWriter.unregister(userId);
                 logger.info("用户 {} 已断开连接", userId);
-            } catch (Exception e) {
-                logger.error("Redis移除用户连接失败", e);
-                // Redis失败时，使用本地内存存储
-                localUserServerMap.remove(userId);
-                localServerUsersMap.computeIfAbsent(serverId, k -> ConcurrentHashMap.newKeySet()).remove(userId);
-                localOnlineUsers.remove(userId);
-                logger.info("用户 {} 已断开连接（本地存储）", userId);
+            } else {
+                writePresence(Collections.singletonMap(userId, Boolean.FALSE));
             }
-            
-            // 从所有群组中移除用户
-            for (ChannelGroup group : localChannelGroups.values()) {
-                group.remove(channel);
+        }
+        
+        // 从所在群组中移除用户
+        Set<String> groupIds = channel.attr(GROUP_IDS_ATTR).getAndSet(null);
+        if (groupIds != null) {
+            for (String groupId : groupIds) {
+                ChannelGroup group = localChannelGroups.get(groupId);
+                if (group != null) {
+                    group.remove(channel);
+                }
             }
         }
     }
@@ -175,47 +339,115 @@ public class RedisWebSocketConnectionManager implements WebSocketConnectionManag
     }
     
     @Override
-    public boolean sendMessage(String userId, String message) {
+    public boolean sendMessage(String userId, ByteBuf payload) {
         // 检查用户是否连接在当前服务器
         Channel channel = localConnections.get(userId);
         if (channel != null && channel.isActive()) {
-            // 直接发送消息
-            channel.writeAndFlush(new TextWebSocketFrame(message));
+            // 直接发送已编码的内容，由帧编码器写出后释放
+            Object outbound = toOutbound(channel, payload);
+            if (outbound == null) {
+                return false;
+            }
+            channel.writeAndFlush(outbound);
             return true;
         } else {
             // 检查用户是否连接在其他服务器
             try {
-                String targetServerId = redisUtil.get(USER_SERVER_KEY + userId,String.class);
-                if (targetServerId != null) {
-                    // 通过Redis发布订阅发送到其他服务器
-                    WebSocketMessage wsMessage = new WebSocketMessage("DIRECT", message, null, userId);
-                    // 注意：这里需要额外的Redis发布订阅实现，暂时保留原逻辑
-                    logger.info("用户 {} 在其他服务器 {} 上，需要实现跨服务器消息发送", userId, targetServerId);
-                    return true;
+                String targetServerId = redisUtil.get(USER_SERVER_KEY + userId, String.class);
+                if (targetServerId != null && !serverId.equals(targetServerId)) {
+                    // 发布到目标服务器的节点主题，只有该服务器会收到
+                    WebSocketMessage envelope = new WebSocketMessage(ENVELOPE_DIRECT, payload.toString(CharsetUtil.UTF_8), serverId, userId);
+                    long receivers = messageBroker.publish(getNodeTopic(targetServerId), objectMapper.writeValueAsString(envelope));
+                    if (receivers > 0) {
+                        logger.debug("用户 {} 在其他服务器 {} 上，消息已转发", userId, targetServerId);
+                        return true;
+                    }
+                    logger.warn("用户 {} 所在服务器 {} 没有订阅节点主题，消息未送达", userId, targetServerId);
                 }
             } catch (Exception e) {
                 logger.error("发送消息到用户 {} 失败", userId, e);
+            } finally {
+                payload.release();
             }
             return false;
         }
     }
     
     @Override
-    public void broadcast(String message) {
-        // 先向本地所有连接广播
-        for (Channel channel : localConnections.values()) {
-            if (channel.isActive()) {
-                channel.writeAndFlush(new TextWebSocketFrame(message));
+    public int sendEncodedMessages(Map<String, ByteBuf> payloads) {
+        List<Channel> localChannels = new ArrayList<>();
+        List<Object> localMessages = new ArrayList<>();
+        List<String> remoteUserIds = new ArrayList<>();
+        for (Map.Entry<String, ByteBuf> entry : payloads.entrySet()) {
+            Channel channel = localConnections.get(entry.getKey());
+            if (channel != null && channel.isActive()) {
+                // 直接发送已编码的内容，由帧编码器写出后释放
+                Object outbound = toOutbound(channel, entry.getValue());
+                if (outbound != null) {
+                    localChannels.add(channel);
+                    localMessages.add(outbound);
+                }
+            } else {
+                remoteUserIds.add(entry.getKey());
             }
         }
-        
-        // 通过Redis向其他服务器实例广播
+        writeLocal(localChannels, localMessages);
+        int sent = localChannels.size();
+        if (remoteUserIds.isEmpty()) {
+            return sent;
+        }
+
         try {
-            WebSocketMessage wsMessage = new WebSocketMessage("BROADCAST", message, null, null);
-            // 注意：这里需要额外的Redis发布订阅实现，暂时保留原逻辑
-            logger.info("需要实现跨服务器广播消息");
+            // 一次MGET查出所有用户所在的服务器，再按服务器合并为一条转发
+            List<String> keys = new ArrayList<>(remoteUserIds.size());
+            for (String userId : remoteUserIds) {
+                keys.add(USER_SERVER_KEY + userId);
+            }
+            List<String> targetServerIds = redisUtil.multiGet(keys, String.class);
+            if (targetServerIds == null) {
+                return sent;
+            }
+            Map<String, Map<String, String>> byServer = new HashMap<>();
+            for (int i = 0; i < remoteUserIds.size(); i++) {
+                String targetServerId = targetServerIds.get(i);
+                if (targetServerId != null && !serverId.equals(targetServerId)) {
+                    String userId = remoteUserIds.get(i);
+                    byServer.computeIfAbsent(targetServerId, k -> new HashMap<>()).put(userId, payloads.get(userId).toString(CharsetUtil.UTF_8));
+                }
+            }
+            for (Map.Entry<String, Map<String, String>> entry : byServer.entrySet()) {
+                WebSocketMessage envelope = new WebSocketMessage(ENVELOPE_DIRECT_BATCH,
+                        objectMapper.writeValueAsString(entry.getValue()), serverId, null);
+                long receivers = messageBroker.publish(getNodeTopic(entry.getKey()), objectMapper.writeValueAsString(envelope));
+                if (receivers > 0) {
+                    sent += entry.getValue().size();
+                } else {
+                    logger.warn("服务器 {} 没有订阅节点主题，{} 条消息未送达", entry.getKey(), entry.getValue().size());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("批量发送消息失败，用户数: {}", remoteUserIds.size(), e);
+        } finally {
+            for (String userId : remoteUserIds) {
+                payloads.get(userId).release();
+            }
+        }
+        return sent;
+    }
+
+    @Override
+    public void broadcast(ByteBuf payload) {
+        try {
+            // 先向本地所有连接广播
+            fanOut(localConnections.values(), payload, "broadcast");
+
+            // 通过Redis向其他服务器实例广播，每条广播只发布一次
+            WebSocketMessage envelope = new WebSocketMessage(ENVELOPE_BROADCAST, payload.toString(CharsetUtil.UTF_8), serverId, null);
+            messageBroker.publish(BROADCAST_TOPIC, objectMapper.writeValueAsString(envelope));
         } catch (Exception e) {
             logger.error("Redis广播消息失败", e);
+        } finally {
+            payload.release();
         }
     }
     
@@ -241,6 +473,16 @@ public class RedisWebSocketConnectionManager implements WebSocketConnectionManag
         if (channel != null) {
             ChannelGroup group = getGroup(groupId);
             group.add(channel);
+            // 记录通道所在群组，断开连接时只需处理这些群组
+            Set<String> groupIds = channel.attr(GROUP_IDS_ATTR).get();
+            if (groupIds == null) {
+                Set<String> newGroupIds = ConcurrentHashMap.newKeySet();
+                groupIds = channel.attr(GROUP_IDS_ATTR).setIfAbsent(newGroupIds);
+                if (groupIds == null) {
+                    groupIds = newGroupIds;
+                }
+            }
+            groupIds.add(groupId);
         }
     }
     
@@ -251,25 +493,120 @@ public class RedisWebSocketConnectionManager implements WebSocketConnectionManag
             Channel channel = localConnections.get(userId);
             if (channel != null) {
                 group.remove(channel);
+                Set<String> groupIds = channel.attr(GROUP_IDS_ATTR).get();
+                if (groupIds != null) {
+                    groupIds.remove(groupId);
+                }
             }
         }
     }
     
     @Override
-    public void sendToGroup(String groupId, String message) {
-        ChannelGroup group = localChannelGroups.get(groupId);
-        if (group != null) {
-            group.writeAndFlush(new TextWebSocketFrame(message));
-        }
-        
-        // 通过Redis向其他服务器实例的同一群组发送消息
+    public void sendToGroup(String groupId, ByteBuf payload) {
         try {
-            WebSocketMessage wsMessage = new WebSocketMessage("GROUP", message, null, groupId);
-            // 注意：这里需要额外的Redis发布订阅实现，暂时保留原逻辑
-            logger.info("需要实现跨服务器群组消息发送");
+            ChannelGroup group = localChannelGroups.get(groupId);
+            if (group != null) {
+                fanOut(group, payload, "group");
+            }
+
+            // 通过Redis向其他服务器实例的同一群组发送消息
+            WebSocketMessage envelope = new WebSocketMessage(ENVELOPE_GROUP, payload.toString(CharsetUtil.UTF_8), serverId, groupId);
+            messageBroker.publish(GROUP_TOPIC_PREFIX + groupId, objectMapper.writeValueAsString(envelope));
         } catch (Exception e) {
             logger.error("发送群组消息失败", e);
+        } finally {
+            payload.release();
+        }
+    }
+    
+    /**
+     * 获取当前服务器实例ID
+     * @return 服务器ID
+     */
+    public String getServerId() {
+        return serverId;
+    }
+    
+    @Override
+    public void startDraining() {
+        draining = true;
+        logger.info("服务器 {} 进入排空状态", serverId);
+    }
+    
+    @Override
+    public boolean isDraining() {
+        return draining;
+    }
+    
+    @Override
+    public long clearServerPresence() {
+        return clearServerPresence(serverId);
+    }
+    
+    /**
+     * 分批删除指定服务器登记的在线状态
+     * @param targetServerId 服务器ID
+     * @return 删除在线状态的用户数
+     */
+    private long clearServerPresence(String targetServerId) {
+        String serverUsersKey = SERVER_USER_KEY + targetServerId;
+        Set<String> users = redisUtil.getSetMembers(serverUsersKey, String.class);
+        if (users == null) {
+            // Redis不可用，只清理本地存储
+            Set<String> serverUsers = localServerUsersMap.remove(targetServerId);
+            if (serverUsers == null) {
+                return 0;
+            }
+            for (String userId : serverUsers) {
+                localUserServerMap.remove(userId, targetServerId);
+                localOnlineUsers.remove(userId);
+            }
+            return serverUsers.size();
         }
+        
+        // 分批调用脚本，避免单次脚本执行时间过长阻塞Redis
+        List<String> keys = Arrays.asList(serverUsersKey, ONLINE_USER_KEY, USER_SERVER_KEY);
+        long removed = 0;
+        // 每批至少一个用户
+        int batchSize = Math.max(1, drainPresenceBatchSize);
+        List<Object> args = new ArrayList<>(batchSize + 1);
+        for (String userId : users) {
+            if (args.isEmpty()) {
+                args.add(targetServerId);
+            }
+            args.add(userId);
+            if (args.size() > batchSize) {
+                removed += clearPresenceBatch(keys, args);
+                args.clear();
+            }
+        }
+        if (!args.isEmpty()) {
+            removed += clearPresenceBatch(keys, args);
+        }
+        logger.info("已删除服务器 {} 上 {} 个用户的在线状态（共登记 {} 个）", targetServerId, removed, users.size());
+        return removed;
+    }
+    
+    private long clearPresenceBatch(List<String> keys, List<Object> args) {
+        Long removed = redisUtil.executeScript(CLEAR_SERVER_PRESENCE_SCRIPT, keys, args.toArray());
+        return removed != null ? removed : 0;
+    }
+    
+    /**
+     * 获取当前服务器的节点主题
+     * @return 节点主题
+     */
+    public String getNodeTopic() {
+        return getNodeTopic(serverId);
+    }
+    
+    /**
+     * 获取指定服务器的节点主题
+     * @param targetServerId 服务器ID
+     * @return 节点主题
+     */
+    public static String getNodeTopic(String targetServerId) {
+        return NODE_TOPIC_PREFIX + targetServerId;
     }
     
     /**
@@ -277,11 +614,7 @@ public class RedisWebSocketConnectionManager implements WebSocketConnectionManag
      * @param message 消息内容
      */
     public void handleRedisBroadcast(String message) {
-        for (Channel channel : localConnections.values()) {
-            if (channel.isActive()) {
-                channel.writeAndFlush(new TextWebSocketFrame(message));
-            }
-        }
+        fanOut(localConnections.values(), message, "broadcast");
     }
     
     /**
@@ -291,11 +624,36 @@ public class RedisWebSocketConnectionManager implements WebSocketConnectionManag
      */
     public void handleRedisUserMessage(String userId, String message) {
         Channel channel = localConnections.get(userId);
-        if (channel != null && channel.isActive()) {
-            channel.writeAndFlush(new TextWebSocketFrame(message));
+        Object outbound = channel != null && channel.isActive()
+                ? toOutbound(channel, ByteBufUtil.writeUtf8(channel.alloc(), message)) : null;
+        if (outbound != null) {
+            channel.writeAndFlush(outbound);
+        } else {
+            logger.debug("用户 {} 已不在当前服务器，丢弃转发消息", userId);
         }
     }
     
+    /**
+     * 处理来自Redis的批量用户定向消息
+     * @param messages 用户ID -> 消息内容
+     */
+    public void handleRedisUserMessages(Map<String, String> messages) {
+        List<Channel> channels = new ArrayList<>(messages.size());
+        List<Object> outbound = new ArrayList<>(messages.size());
+        for (Map.Entry<String, String> entry : messages.entrySet()) {
+            Channel channel = localConnections.get(entry.getKey());
+            Object msg = channel != null && channel.isActive()
+                    ? toOutbound(channel, ByteBufUtil.writeUtf8(channel.alloc(), entry.getValue())) : null;
+            if (msg != null) {
+                channels.add(channel);
+                outbound.add(msg);
+            } else {
+                logger.debug("用户 {} 已不在当前服务器，丢弃转发消息", entry.getKey());
+            }
+        }
+        writeLocal(channels, outbound);
+    }
+
     /**
      * 处理来自Redis的群组消息
      * @param groupId 群组ID
@@ -304,7 +662,209 @@ public class RedisWebSocketConnectionManager implements WebSocketConnectionManag
     public void handleRedisGroupMessage(String groupId, String message) {
         ChannelGroup group = localChannelGroups.get(groupId);
         if (group != null) {
-            group.writeAndFlush(new TextWebSocketFrame(message));
+            fanOut(group, message, "group");
+        }
+    }
+    
+    /**
+     * 写入一批用户的在线状态
+     * 每个用户的用户-服务器映射单独SET/DEL，服务器在线用户和全局在线用户集合各合并为一条SADD/SREM，
+     * 全部命令通过一个管道发送；Redis不可用或写入失败时记录到本地存储
+     * @param presence 用户ID -> true（上线）/ false（下线）
+     */
+    private void writePresence(Map<String, Boolean> presence) {
+        long start = System.nanoTime();
+        RedisBatch batch = new RedisBatch();
+        for (Map.Entry<String, Boolean> entry : presence.entrySet()) {
+            String userId = entry.getKey();
+            if (entry.getValue()) {
+                // 用户与服务器的映射关系、当前服务器的在线用户、在线用户集合
+                batch.set(USER_SERVER_KEY + userId, serverId, 24, TimeUnit.HOURS)
+                        .addToSet(SERVER_USER_KEY + serverId, userId)
+                        .addToSet(ONLINE_USER_KEY, userId);
+            } else {
+                batch.delete(USER_SERVER_KEY + userId)
+                        .removeFromSet(SERVER_USER_KEY + serverId, userId)
+                        .removeFromSet(ONLINE_USER_KEY, userId);
+            }
+        }
+        
+        if (redisUtil.executeBatch(batch)) {
+            logger.debug("已写入 {} 个用户的在线状态，当前服务器：{}", presence.size(), serverId);
+        } else {
+            logger.warn("Redis不可用，使用本地存储记录 {} 个用户的在线状态", presence.size());
+            // Redis失败时，使用本地内存存储
+            Set<String> serverUsers = localServerUsersMap.computeIfAbsent(serverId, k -> ConcurrentHashMap.newKeySet());
+            for (Map.Entry<String, Boolean> entry : presence.entrySet()) {
+                String userId = entry.getKey();
+                if (entry.getValue()) {
+                    localUserServerMap.put(userId, serverId);
+                    serverUsers.add(userId);
+                    localOnlineUsers.add(userId);
+                } else {
+                    localUserServerMap.remove(userId);
+                    serverUsers.remove(userId);
+                    localOnlineUsers.remove(userId);
+                }
+            }
+        }
+        metrics.increment(METRIC_PRESENCE_PREFIX + "writes", presence.size());
+        metrics.recordTime(METRIC_PRESENCE_PREFIX + "flush.duration", System.nanoTime() - start);
+    }
+    
+    /**
+     * 向一批通道发送同一条文本消息
+     * 调用线程只按EventLoop对通道分片，每个EventLoop提交一个任务，在自己的线程上写入并flush所属通道，
+     * 跨线程任务提交次数从连接数降为EventLoop数。消息只按UTF-8编码一次到池化ByteBuf，
+     * 每个文本通道写入共享内容的retainedDuplicate，二进制协议的通道共享只解码一次的WebSocketMessage
+     * @param channels 目标通道
+     * @param message 消息内容
+     * @param kind 扇出类型，用于区分指标（broadcast、group）
+     */
+    private void fanOut(Iterable<Channel> channels, String message, String kind) {
+        ByteBuf payload = ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, message);
+        try {
+            fanOut(channels, payload, kind);
+        } finally {
+            payload.release();
+        }
+    }
+
+    /**
+     * 向一批通道发送同一条已编码的消息，每个通道写入共享内容的retainedDuplicate
+     * @param channels 目标通道
+     * @param payload UTF-8编码的消息内容，由调用方释放
+     * @param kind 扇出类型，用于区分指标（broadcast、group）
+     */
+    private void fanOut(Iterable<Channel> channels, ByteBuf payload, String kind) {
+        long start = System.nanoTime();
+        Map<EventLoop, List<Channel>> shards = new HashMap<>();
+        int recipients = 0;
+        boolean hasBinary = false;
+        for (Channel channel : channels) {
+            if (channel.isActive()) {
+                shards.computeIfAbsent(channel.eventLoop(), k -> new ArrayList<>()).add(channel);
+                recipients++;
+                hasBinary |= BinaryProtocolEncoder.isBinary(channel);
+            }
+        }
+        metrics.increment(METRIC_FANOUT_PREFIX + kind + ".recipients", recipients);
+        if (shards.isEmpty()) {
+            metrics.recordTime(METRIC_FANOUT_PREFIX + kind + ".duration", System.nanoTime() - start);
+            return;
+        }
+        
+        // 有二进制协议的接收者时只解码一次，所有分片共享（编码器只读取）
+        WebSocketMessage binaryMessage = hasBinary ? decodeForBinary(payload) : null;
+        // 最后一个分片完成时记录整个扇出的耗时
+        AtomicInteger remainingShards = new AtomicInteger(shards.size());
+        for (Map.Entry<EventLoop, List<Channel>> entry : shards.entrySet()) {
+            List<Channel> shardChannels = entry.getValue();
+            ByteBuf shardPayload = payload.retainedDuplicate();
+            Runnable task = () -> {
+                long shardStart = System.nanoTime();
+                try {
+                    // 先写入全部通道，再逐个刷新，写入期间不触发系统调用
+                    List<Channel> written = new ArrayList<>(shardChannels.size());
+                    for (Channel channel : shardChannels) {
+                        if (!channel.isActive()) {
+                            continue;
+                        }
+                        if (!BinaryProtocolEncoder.isBinary(channel)) {
+                            channel.write(new TextWebSocketFrame(shardPayload.retainedDuplicate()), channel.voidPromise());
+                            written.add(channel);
+                        } else if (binaryMessage != null) {
+                            channel.write(binaryMessage, channel.voidPromise());
+                            written.add(channel);
+                        }
+                    }
+                    for (Channel channel : written) {
+                        channel.flush();
+                    }
+                } finally {
+                    shardPayload.release();
+                    long now = System.nanoTime();
+                    metrics.recordTime(METRIC_FANOUT_PREFIX + kind + ".shard.duration", now - shardStart);
+                    if (remainingShards.decrementAndGet() == 0) {
+                        metrics.recordTime(METRIC_FANOUT_PREFIX + kind + ".duration", now - start);
+                    }
+                }
+            };
+            try {
+                entry.getKey().execute(task);
+            } catch (RejectedExecutionException e) {
+                // EventLoop已关闭，其上的通道也随之关闭
+                shardPayload.release();
+                remainingShards.decrementAndGet();
+                logger.warn("EventLoop拒绝扇出任务，跳过{}个连接", shardChannels.size());
+            }
+        }
+    }
+
+    /**
+     * 生成写入本地通道的消息，payload的所有权转移给返回值：
+     * 协商了二进制协议的通道写入解码后的WebSocketMessage，由BinaryProtocolEncoder编码为二进制帧，其他通道写入JSON文本帧
+     * @param channel 目标通道
+     * @param payload UTF-8编码的JSON内容
+     * @return 要写入的消息，二进制协议的通道上内容无法解码时返回null
+     */
+    private Object toOutbound(Channel channel, ByteBuf payload) {
+        if (!BinaryProtocolEncoder.isBinary(channel)) {
+            return new TextWebSocketFrame(payload);
+        }
+        try {
+            return decodeForBinary(payload);
+        } finally {
+            payload.release();
+        }
+    }
+
+    /**
+     * 把JSON内容解码为WebSocketMessage供二进制协议的通道发送，不改变payload的读索引
+     * @return 解码后的消息，内容不是WebSocketMessage时记录错误并返回null，不会以文本帧发给二进制客户端
+     */
+    private WebSocketMessage decodeForBinary(ByteBuf payload) {
+        try {
+            return messageCodec.decode(payload);
+        } catch (IOException e) {
+            logger.error("消息不是WebSocketMessage，无法发送给二进制协议连接", e);
+            return null;
+        }
+    }
+
+    /**
+     * 向本地连接写入一批消息：按EventLoop分片，每个分片在其EventLoop上先写入全部消息，再逐个刷新写入过的通道，
+     * 同一通道的多条消息按顺序写入且只刷新一次
+     * @param channels 目标通道，与messages一一对应
+     * @param messages 要写入的文本帧或WebSocketMessage，写出后由编码器释放
+     */
+    private void writeLocal(List<Channel> channels, List<Object> messages) {
+        Map<EventLoop, List<Integer>> shards = new HashMap<>();
+        for (int i = 0; i < channels.size(); i++) {
+            shards.computeIfAbsent(channels.get(i).eventLoop(), k -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<EventLoop, List<Integer>> entry : shards.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            Runnable task = () -> {
+                Set<Channel> written = new LinkedHashSet<>();
+                for (int i : indexes) {
+                    Channel channel = channels.get(i);
+                    channel.write(messages.get(i), channel.voidPromise());
+                    written.add(channel);
+                }
+                for (Channel channel : written) {
+                    channel.flush();
+                }
+            };
+            try {
+                entry.getKey().execute(task);
+            } catch (RejectedExecutionException e) {
+                // EventLoop已关闭，其上的通道也随之关闭
+                for (int i : indexes) {
+                    ReferenceCountUtil.release(messages.get(i));
+                }
+                logger.warn("EventLoop拒绝写入任务，跳过{}条消息", indexes.size());
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,12 @@
 package com.example.nettywebsocket.manager;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.group.ChannelGroup;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -43,19 +47,64 @@ public interface WebSocketConnectionManager {
      */
     boolean isOnline(String userId);
     
+    /**
+     * 向指定用户发送已编码的消息
+     * @param userId 用户ID
+     * @param payload UTF-8编码的消息内容，调用后由连接管理器负责释放
+     * @return 是否发送成功
+     */
+    boolean sendMessage(String userId, ByteBuf payload);
+
     /**
      * 向指定用户发送消息
      * @param userId 用户ID
      * @param message 消息内容
      * @return 是否发送成功
+     * @deprecated 使用 {@link #sendMessage(String, ByteBuf)}，由调用方直接编码到ByteBuf
+     */
+    @Deprecated
+    default boolean sendMessage(String userId, String message) {
+        return sendMessage(userId, ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, message));
+    }
+
+    /**
+     * 批量向多个用户发送已编码的消息，其他服务器上的用户一次查询所在服务器，并按服务器合并转发
+     * （与 {@link #sendMessages(Map)} 的参数擦除后相同，因此使用不同的方法名）
+     * @param payloads 用户ID -> UTF-8编码的消息内容，调用后由连接管理器负责释放
+     * @return 成功发送或转发的用户数
+     */
+    int sendEncodedMessages(Map<String, ByteBuf> payloads);
+    
+    /**
+     * 批量向多个用户发送消息
+     * @param messages 用户ID -> 消息内容
+     * @return 成功发送或转发的用户数
+     * @deprecated 使用 {@link #sendEncodedMessages(Map)}，由调用方直接编码到ByteBuf
      */
-    boolean sendMessage(String userId, String message);
+    @Deprecated
+    default int sendMessages(Map<String, String> messages) {
+        Map<String, ByteBuf> payloads = new HashMap<>(messages.size() * 2);
+        for (Map.Entry<String, String> entry : messages.entrySet()) {
+            payloads.put(entry.getKey(), ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, entry.getValue()));
+        }
+        return sendEncodedMessages(payloads);
+    }
     
+    /**
+     * 广播已编码的消息给所有在线用户
+     * @param payload UTF-8编码的消息内容，调用后由连接管理器负责释放
+     */
+    void broadcast(ByteBuf payload);
+
     /**
      * 广播消息给所有在线用户
      * @param message 消息内容
+     * @deprecated 使用 {@link #broadcast(ByteBuf)}，由调用方直接编码到ByteBuf
      */
-    void broadcast(String message);
+    @Deprecated
+    default void broadcast(String message) {
+        broadcast(ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, message));
+    }
     
     /**
      * 获取在线用户数量
@@ -84,10 +133,38 @@ public interface WebSocketConnectionManager {
      */
     void removeFromGroup(String userId, String groupId);
     
+    /**
+     * 向指定组发送已编码的消息
+     * @param groupId 群组ID
+     * @param payload UTF-8编码的消息内容，调用后由连接管理器负责释放
+     */
+    void sendToGroup(String groupId, ByteBuf payload);
+
     /**
      * 向指定组发送消息
      * @param groupId 群组ID
      * @param message 消息内容
+     * @deprecated 使用 {@link #sendToGroup(String, ByteBuf)}，由调用方直接编码到ByteBuf
+     */
+    @Deprecated
+    default void sendToGroup(String groupId, String message) {
+        sendToGroup(groupId, ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, message));
+    }
+    
+    /**
+     * 进入排空状态：当前服务器之后不再接受新的握手
+     */
+    void startDraining();
+    
+    /**
+     * 当前服务器是否正在排空
+     * @return 是否正在排空
+     */
+    boolean isDraining();
+    
+    /**
+     * 批量删除当前服务器登记的全部在线状态，已重连到其他服务器的用户不受影响
+     * @return 删除在线状态的用户数
      */
-    void sendToGroup(String groupId, String message);
-}
\ No newline at end of file
+    long clearServerPresence();
+}
@@ -0,0 +1,121 @@
+package com.example.nettywebsocket.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * WebSocket服务运行指标
+ * 计数器和计时器在热点路径上只做LongAdder累加，通过MetricsController以快照形式对外暴露
+ */
+@Component
+public class WebSocketMetrics {
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * 计数器加1
+     * @param name 指标名称
+     */
+    public void increment(String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * 计数器增加指定值
+     * @param name 指标名称
+     * @param delta 增量
+     */
+    public void increment(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * 记录一次耗时
+     * @param name 指标名称
+     * @param nanos 耗时（纳秒）
+     */
+    public void recordTime(String name, long nanos) {
+        timers.computeIfAbsent(name, k -> new Timer()).record(nanos);
+    }
+
+    /**
+     * 注册一个按需读取的瞬时值
+     * @param name 指标名称
+     * @param supplier 读取函数
+     */
+    public void gauge(String name, Supplier<? extends Number> supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * 获取计数器当前值
+     * @param name 指标名称
+     * @return 计数器不存在时返回0
+     */
+    public long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : 0L;
+    }
+
+    /**
+     * 获取计时器的记录次数
+     * @param name 指标名称
+     * @return 计时器不存在时返回0
+     */
+    public long getTimerCount(String name) {
+        Timer timer = timers.get(name);
+        return timer != null ? timer.count.sum() : 0L;
+    }
+
+    /**
+     * 获取全部指标的快照
+     * 计时器输出count、平均值和最大值（毫秒），最大值在每次快照后重置
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        gauges.forEach((name, supplier) -> result.put(name, supplier.get()));
+        timers.forEach((name, timer) -> result.put(name, timer.snapshot()));
+        return result;
+    }
+
+    /**
+     * 简单计时器：累计次数、总耗时和区间最大值
+     */
+    private static class Timer {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Map<String, Object> snapshot() {
+            long n = count.sum();
+            long total = totalNanos.sum();
+            Map<String, Object> result = new TreeMap<>();
+            result.put("count", n);
+            result.put("avgMs", n > 0 ? toMillis(total / n) : 0.0);
+            result.put("maxMs", toMillis(maxNanos.getAndSet(0)));
+            result.put("totalMs", toMillis(total));
+            return result;
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
@@ -18,6 +18,10 @@ public class WebSocketMessage implements Serializable {
     public static final String TYPE_CS_STATUS = "CS_STATUS"; // 客服状态消息
     public static final String TYPE_USER_JOIN = "USER_JOIN"; // 用户加入消息
     public static final String TYPE_USER_LEAVE = "USER_LEAVE"; // 用户离开消息
+    
+    // 服务端回复消息类型
+    public static final String TYPE_CONFIRM = "CONFIRM";     // 发送确认消息
+    public static final String TYPE_ERROR = "ERROR";         // 错误消息
     private static final long serialVersionUID = 1L;
     
     // 消息类型：聊天消息、系统消息等
@@ -0,0 +1,189 @@
+package com.example.nettywebsocket.security;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带本地缓存的Token验证服务
+ * 验证结果按token缓存：有效token缓存用户ID，无效token单独使用较短的过期时间（负缓存），
+ * 缓存有容量上限，超出时淘汰最早加入的条目；同一token的并发查询合并为一次对底层服务的调用，
+ * 重连风暴时同一批token只会访问一次外部接口或Redis；底层服务支持异步查询时，等待中的请求不占用线程
+ */
+public class CachingTokenService implements TokenService {
+
+    public static final String METRIC_CACHE_HIT = "websocket.token.cache.hit";
+    public static final String METRIC_CACHE_MISS = "websocket.token.cache.miss";
+    public static final String METRIC_CACHE_COALESCED = "websocket.token.cache.coalesced";
+    public static final String METRIC_CACHE_SIZE = "websocket.token.cache.size";
+
+    private final TokenService delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int maxSize;
+    private final WebSocketMetrics metrics;
+
+    // token -> 验证结果，按加入顺序排列，由自身加锁保护
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>();
+
+    // 正在查询的token -> 查询结果，同一token的后续请求等待该结果
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate 实际执行验证的服务
+     * @param ttlMillis 有效token的缓存时间（毫秒）
+     * @param negativeTtlMillis 无效token的缓存时间（毫秒），0表示不缓存无效token
+     * @param maxSize 最多缓存的token数
+     * @param metrics 指标，记录命中、未命中和合并的查询数
+     */
+    public CachingTokenService(TokenService delegate, long ttlMillis, long negativeTtlMillis, int maxSize, WebSocketMetrics metrics) {
+        this.delegate = delegate;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.maxSize = maxSize;
+        this.metrics = metrics;
+        metrics.gauge(METRIC_CACHE_SIZE, this::size);
+    }
+
+    @Override
+    public boolean validateToken(String token) {
+        return resolve(token) != null;
+    }
+
+    @Override
+    public String getUserIdByToken(String token) {
+        return resolve(token);
+    }
+
+    @Override
+    public String resolve(String token) {
+        try {
+            return resolveAsync(token).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> resolveAsync(String token) {
+        if (token == null || token.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Entry entry = lookup(token);
+        if (entry != null) {
+            metrics.increment(METRIC_CACHE_HIT);
+            return CompletableFuture.completedFuture(entry.userId);
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(token, future);
+        if (existing != null) {
+            metrics.increment(METRIC_CACHE_COALESCED);
+            return existing;
+        }
+
+        // 上一个查询可能刚好在本次查找缓存之后完成
+        entry = lookup(token);
+        if (entry != null) {
+            metrics.increment(METRIC_CACHE_HIT);
+            inFlight.remove(token, future);
+            future.complete(entry.userId);
+            return future;
+        }
+        metrics.increment(METRIC_CACHE_MISS);
+        CompletableFuture<String> lookup;
+        try {
+            lookup = delegate.resolveAsync(token);
+        } catch (RuntimeException e) {
+            lookup = new CompletableFuture<>();
+            lookup.completeExceptionally(e);
+        }
+        lookup.whenComplete((userId, error) -> {
+            // 查询失败不缓存，等待中的请求收到同样的异常
+            if (error == null) {
+                store(token, userId);
+            }
+            inFlight.remove(token, future);
+            if (error != null) {
+                future.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else {
+                future.complete(userId);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void releaseToken(String token) {
+        delegate.releaseToken(token);
+    }
+
+    @Override
+    public void invalidate(String token) {
+        synchronized (cache) {
+            cache.remove(token);
+        }
+        delegate.invalidate(token);
+    }
+
+    /**
+     * 当前缓存的token数（包括已过期但尚未清理的条目）
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * 查找未过期的缓存结果，已过期的条目顺便移除
+     */
+    private Entry lookup(String token) {
+        synchronized (cache) {
+            Entry entry = cache.get(token);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt - System.nanoTime() <= 0) {
+                cache.remove(token);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    private void store(String token, String userId) {
+        long ttl = userId != null ? ttlNanos : negativeTtlNanos;
+        if (ttl <= 0) {
+            return;
+        }
+        Entry entry = new Entry(userId, System.nanoTime() + ttl);
+        synchronized (cache) {
+            // 重新放入时移到末尾，保证淘汰顺序与加入时间一致
+            cache.remove(token);
+            cache.put(token, entry);
+            while (cache.size() > maxSize) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * 缓存的验证结果，userId为null表示token无效
+     */
+    private static class Entry {
+
+        private final String userId;
+        private final long expiresAt;
+
+        Entry(String userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.example.nettywebsocket.security;
 
- import com.example.nettywebsocket.util.RedisUtil;
+ import com.example.nettywebsocket.util.NettyHttpClient;
+import com.example.nettywebsocket.util.RedisUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,17 +14,28 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Token验证服务的默认实现
- * 支持通过配置调用外部系统的token验证接口
+ * 支持通过配置调用外部系统的token验证接口；握手使用的resolveAsync通过连接池化的异步HTTP客户端调用外部接口，
+ * 等待响应期间不占用业务线程，validateToken等同步方法仍使用RestTemplate
  */
 @Service
 public class DefaultTokenService implements TokenService {
@@ -44,6 +58,26 @@ public class DefaultTokenService implements TokenService {
     @Value("${websocket.security.token.external.timeout:3000}")
     private int externalRequestTimeout;
     
+    // 是否使用异步HTTP客户端调用外部接口（握手在回调中完成）
+    @Value("${websocket.security.token.external.async:true}")
+    private boolean externalAsync;
+
+    // 异步HTTP客户端到每个外部地址的最大连接数（keep-alive复用）
+    @Value("${websocket.security.token.external.max-connections:64}")
+    private int externalMaxConnections;
+
+    // 连接数达到上限时最多排队的请求数，超出时请求直接失败
+    @Value("${websocket.security.token.external.max-pending:1024}")
+    private int externalMaxPending;
+
+    // 异步HTTP客户端的I/O线程数
+    @Value("${websocket.security.token.external.io-threads:2}")
+    private int externalIoThreads;
+
+    // 异步验证中查询Redis的线程数（只配置了验证接口或回退到本地验证时使用），队列长度与max-pending相同
+    @Value("${websocket.security.token.external.redis-threads:4}")
+    private int externalRedisThreads;
+
     // 是否在外部接口失败时回退到本地验证
     @Value("${websocket.security.token.fallback-to-local:false}")
     private boolean fallbackToLocal;
@@ -57,6 +91,8 @@ public class DefaultTokenService implements TokenService {
     private static final String TOKEN_USER_KEY = REDIS_PREFIX + "user:";
     private static final String USER_TOKEN_KEY = REDIS_PREFIX + "token:";
 
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
     // Redis工具类
     @Autowired
     private RedisUtil redisUtil;
@@ -68,6 +104,12 @@ public class DefaultTokenService implements TokenService {
     // REST客户端，用于调用外部接口
     private final RestTemplate restTemplate;
 
+    // 异步HTTP客户端，启用外部接口和异步调用时创建
+    private NettyHttpClient httpClient;
+
+    // 异步验证中执行Redis查询的有界线程池，与异步HTTP客户端一起创建，不占用公共ForkJoinPool
+    private ExecutorService redisExecutor;
+
     public DefaultTokenService() {
         this.restTemplate = new RestTemplate();
     }
@@ -84,6 +126,25 @@ public class DefaultTokenService implements TokenService {
                 setReadTimeout(externalRequestTimeout);
             }
         });
+        if (enableExternalTokenValidation && externalAsync) {
+            httpClient = new NettyHttpClient(externalIoThreads, externalMaxConnections, externalMaxPending,
+                    externalRequestTimeout, externalRequestTimeout);
+            redisExecutor = new ThreadPoolExecutor(externalRedisThreads, externalRedisThreads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(externalMaxPending), new DefaultThreadFactory("token-redis", true),
+                    new ThreadPoolExecutor.AbortPolicy());
+            logger.info("外部token接口使用异步HTTP客户端，单地址最大连接数: {}，最大排队数: {}",
+                    externalMaxConnections, externalMaxPending);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (httpClient != null) {
+            httpClient.close();
+        }
+        if (redisExecutor != null) {
+            redisExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -93,7 +154,7 @@ public class DefaultTokenService implements TokenService {
         }
 
         // 如果启用了外部验证接口
-        if (enableExternalTokenValidation && externalValidateUrl != null && !externalValidateUrl.isEmpty()) {
+        if (isExternalValidateEnabled()) {
             try {
                 logger.debug("使用外部接口验证token: {}", externalValidateUrl);
                 
@@ -111,13 +172,13 @@ public class DefaultTokenService implements TokenService {
                 if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
                     return Boolean.TRUE.equals(response.getBody().get("valid"));
                 }
-            } catch (Exception e) {
-                logger.error("调用外部token验证接口失败", e);
-                // 检查是否配置了回退到本地验证
-                if (fallbackToLocal) {
-                    logger.warn("外部验证失败，回退到本地验证");
-                    return hasKeyInStorage(TOKEN_USER_KEY + token);
+            } catch (HttpClientErrorException e) {
+                if (isRejected(e.getRawStatusCode())) {
+                    return false;
                 }
+                return fallbackValidate(token, e);
+            } catch (Exception e) {
+                return fallbackValidate(token, e);
             }
             return false;
         } else {
@@ -133,39 +194,178 @@ public class DefaultTokenService implements TokenService {
         }
 
         // 如果启用了外部用户信息接口
-        if (enableExternalTokenValidation && externalUserInfoUrl != null && !externalUserInfoUrl.isEmpty()) {
+        if (isExternalUserInfoEnabled()) {
             try {
-                logger.debug("使用外部接口获取用户信息: {}", externalUserInfoUrl);
-                
-                HttpHeaders headers = new HttpHeaders();
-                headers.set("Authorization", "Bearer " + token);
-                HttpEntity<String> entity = new HttpEntity<>("", headers);
-                
-                ResponseEntity<Map> response = restTemplate.exchange(
-                        externalUserInfoUrl,
-                        HttpMethod.GET,
-                        entity,
-                        Map.class
-                );
-                
-                if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                    return (String) response.getBody().get("userId");
+                return fetchExternalUserId(token);
+            } catch (HttpClientErrorException e) {
+                if (isRejected(e.getRawStatusCode())) {
+                    return null;
                 }
+                return fallbackUserId(token, e);
             } catch (Exception e) {
-                logger.error("调用外部用户信息接口失败", e);
-                // 检查是否配置了回退到Redis验证
-                if (fallbackToLocal) {
-                    logger.warn("外部用户信息获取失败，回退到Redis验证");
-                    return redisUtil.get(TOKEN_USER_KEY + token,String.class);
-                }
+                return fallbackUserId(token, e);
             }
-            return null;
         } else {
             // 使用Redis验证（分布式环境）
             return redisUtil.get(TOKEN_USER_KEY + token,String.class);
         }
     }
 
+    /**
+     * 验证token并获取用户ID
+     * 使用Redis存储时只读取一次token->userId映射，映射存在即说明token有效；
+     * 启用外部接口时与依次调用validateToken和getUserIdByToken相同，先验证token再获取用户ID
+     */
+    @Override
+    public String resolve(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        if (!enableExternalTokenValidation) {
+            return getUserIdByToken(token);
+        }
+        return validateToken(token) ? getUserIdByToken(token) : null;
+    }
+
+    /**
+     * 异步验证token并获取用户ID，验证和获取用户ID的步骤与resolve相同
+     * 外部接口通过异步HTTP客户端调用，回调在客户端的I/O线程上执行；需要查询Redis时（未配置其中一个接口或回退到本地验证）切换到Redis查询线程池执行
+     */
+    @Override
+    public CompletableFuture<String> resolveAsync(String token) {
+        if (httpClient == null || token == null || token.isEmpty()
+                || (!isExternalValidateEnabled() && !isExternalUserInfoEnabled())) {
+            return TokenService.super.resolveAsync(token);
+        }
+        CompletableFuture<Boolean> validation;
+        if (isExternalValidateEnabled()) {
+            validation = callExternal(io.netty.handler.codec.http.HttpMethod.POST, externalValidateUrl, token)
+                    .thenApply(body -> Boolean.TRUE.equals(body.get("valid")));
+        } else {
+            // 未配置验证接口时与validateToken相同，检查存储中是否有该token
+            validation = CompletableFuture.supplyAsync(() -> hasKeyInStorage(TOKEN_USER_KEY + token), redisExecutor);
+        }
+        CompletableFuture<String> external = validation.thenCompose(valid -> {
+            if (!valid) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (isExternalUserInfoEnabled()) {
+                return callExternal(io.netty.handler.codec.http.HttpMethod.GET, externalUserInfoUrl, token)
+                        .thenApply(body -> (String) body.get("userId"));
+            }
+            return CompletableFuture.supplyAsync(() -> redisUtil.get(TOKEN_USER_KEY + token, String.class), redisExecutor);
+        });
+        return external.handle((userId, error) -> {
+            if (error == null) {
+                return CompletableFuture.completedFuture(userId);
+            }
+            logger.error("异步调用外部token接口失败", error);
+            if (!fallbackToLocal) {
+                // 以异常结束，调用方不会把接口故障当作token无效缓存
+                CompletableFuture<String> failed = new CompletableFuture<>();
+                failed.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return failed;
+            }
+            logger.warn("外部接口调用失败，回退到Redis验证");
+            return CompletableFuture.supplyAsync(() -> redisUtil.get(TOKEN_USER_KEY + token, String.class), redisExecutor);
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * 通过异步HTTP客户端调用外部接口，非2xx响应视为调用失败
+     * @return 响应体解析后的JSON对象，响应体为空时返回空Map
+     */
+    private CompletableFuture<Map<?, ?>> callExternal(io.netty.handler.codec.http.HttpMethod method, String url, String token) {
+        logger.debug("使用外部接口异步验证token: {}", url);
+        return httpClient.execute(method, url, Collections.singletonMap("Authorization", "Bearer " + token))
+                .thenApply(response -> {
+                    if (isRejected(response.getStatus())) {
+                        // 接口拒绝该token，按无效token处理
+                        return Collections.emptyMap();
+                    }
+                    if (!response.isSuccessful()) {
+                        throw new IllegalStateException("外部接口返回状态码: " + response.getStatus());
+                    }
+                    if (response.getBody().isEmpty()) {
+                        return Collections.emptyMap();
+                    }
+                    try {
+                        return OBJECT_MAPPER.readValue(response.getBody(), Map.class);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * 外部接口以401/403拒绝token时视为token无效，其他错误视为接口故障
+     */
+    private static boolean isRejected(int status) {
+        return status == 401 || status == 403;
+    }
+
+    /**
+     * 外部验证接口故障：配置了回退时使用本地存储验证，否则抛出异常，避免故障结果被当作token无效缓存
+     */
+    private boolean fallbackValidate(String token, Exception e) {
+        logger.error("调用外部token验证接口失败", e);
+        if (!fallbackToLocal) {
+            throw new IllegalStateException("外部token验证接口不可用", e);
+        }
+        logger.warn("外部验证失败，回退到本地验证");
+        return hasKeyInStorage(TOKEN_USER_KEY + token);
+    }
+
+    /**
+     * 外部用户信息接口故障：配置了回退时从Redis获取用户ID，否则抛出异常
+     */
+    private String fallbackUserId(String token, Exception e) {
+        logger.error("调用外部用户信息接口失败", e);
+        if (!fallbackToLocal) {
+            throw new IllegalStateException("外部用户信息接口不可用", e);
+        }
+        logger.warn("外部用户信息获取失败，回退到Redis验证");
+        return redisUtil.get(TOKEN_USER_KEY + token, String.class);
+    }
+
+    /**
+     * 是否通过外部接口验证token
+     */
+    private boolean isExternalValidateEnabled() {
+        return enableExternalTokenValidation && externalValidateUrl != null && !externalValidateUrl.isEmpty();
+    }
+
+    /**
+     * 是否通过外部接口获取用户信息
+     */
+    private boolean isExternalUserInfoEnabled() {
+        return enableExternalTokenValidation && externalUserInfoUrl != null && !externalUserInfoUrl.isEmpty();
+    }
+
+    /**
+     * 调用外部用户信息接口获取用户ID
+     * @return 用户ID，接口未返回用户ID时返回null
+     */
+    private String fetchExternalUserId(String token) {
+        logger.debug("使用外部接口获取用户信息: {}", externalUserInfoUrl);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", "Bearer " + token);
+        HttpEntity<String> entity = new HttpEntity<>("", headers);
+
+        ResponseEntity<Map> response = restTemplate.exchange(
+                externalUserInfoUrl,
+                HttpMethod.GET,
+                entity,
+                Map.class
+        );
+
+        if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+            return (String) response.getBody().get("userId");
+        }
+        return null;
+    }
+
     @Override
     public void releaseToken(String token) {
 
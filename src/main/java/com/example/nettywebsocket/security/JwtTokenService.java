@@ -0,0 +1,462 @@
+package com.example.nettywebsocket.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地验证JWT签名的Token验证服务
+ * 支持HS256/384/512、RS256/384/512、ES256/384/512，密钥来自 secret（HMAC）和本地JWKS文件，
+ * 启动时解析为密钥对象并缓存，JWKS文件修改后由后台线程重新加载（密钥轮换）；
+ * 验证token只做签名和声明校验，握手过程中没有任何网络I/O。用户ID取自 user-id-claim 指定的声明
+ * 通过 websocket.security.token.mode=jwt 启用
+ */
+@Service
+@ConditionalOnProperty(name = "websocket.security.token.mode", havingValue = "jwt")
+public class JwtTokenService implements TokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtTokenService.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Base64.Decoder BASE64_URL = Base64.getUrlDecoder();
+
+    // HMAC密钥，为空时只使用JWKS中的密钥
+    @Value("${websocket.security.token.jwt.secret:}")
+    private String secret = "";
+
+    // 本地JWKS文件路径
+    @Value("${websocket.security.token.jwt.jwks-file:}")
+    private String jwksFile = "";
+
+    // 检查JWKS文件是否修改的间隔（毫秒），0表示不自动重新加载
+    @Value("${websocket.security.token.jwt.jwks-refresh-interval:60000}")
+    private long jwksRefreshIntervalMillis = 60000;
+
+    // 用户ID所在的声明
+    @Value("${websocket.security.token.jwt.user-id-claim:sub}")
+    private String userIdClaim = "sub";
+
+    // 要求的签发者（iss），为空时不校验
+    @Value("${websocket.security.token.jwt.issuer:}")
+    private String issuer = "";
+
+    // 要求的受众（aud），为空时不校验
+    @Value("${websocket.security.token.jwt.audience:}")
+    private String audience = "";
+
+    // 校验exp和nbf时允许的时钟偏差（秒）
+    @Value("${websocket.security.token.jwt.clock-skew:60}")
+    private long clockSkewSeconds = 60;
+
+    // 当前使用的密钥，重新加载时整体替换
+    private volatile KeySet keys = new KeySet(Collections.emptyList());
+    private volatile long jwksLastModified;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        reloadKeys();
+        if (!jwksFile.isEmpty() && jwksRefreshIntervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("jwks-refresh", true));
+            scheduler.scheduleWithFixedDelay(this::reloadKeysIfModified, jwksRefreshIntervalMillis,
+                    jwksRefreshIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean validateToken(String token) {
+        return resolve(token) != null;
+    }
+
+    @Override
+    public String getUserIdByToken(String token) {
+        return resolve(token);
+    }
+
+    /**
+     * 验证签名、有效期、签发者和受众，返回用户ID声明
+     */
+    @Override
+    public String resolve(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            int first = token.indexOf('.');
+            int second = token.indexOf('.', first + 1);
+            if (first < 0 || second < 0 || token.indexOf('.', second + 1) >= 0) {
+                return null;
+            }
+            JsonNode header = OBJECT_MAPPER.readTree(BASE64_URL.decode(token.substring(0, first)));
+            Algorithm algorithm = Algorithm.of(header.path("alg").asText());
+            if (algorithm == null) {
+                logger.debug("不支持的JWT算法: {}", header.path("alg").asText());
+                return null;
+            }
+            VerificationKey key = keys.find(header.hasNonNull("kid") ? header.get("kid").asText() : null, algorithm);
+            if (key == null) {
+                logger.debug("没有可用于验证JWT的密钥，kid: {}", header.path("kid").asText());
+                return null;
+            }
+            byte[] signingInput = token.substring(0, second).getBytes(StandardCharsets.US_ASCII);
+            if (!algorithm.verify(key.key, signingInput, BASE64_URL.decode(token.substring(second + 1)))) {
+                logger.debug("JWT签名验证失败");
+                return null;
+            }
+            JsonNode claims = OBJECT_MAPPER.readTree(BASE64_URL.decode(token.substring(first + 1, second)));
+            if (!checkClaims(claims)) {
+                return null;
+            }
+            JsonNode userId = claims.get(userIdClaim);
+            return userId != null && userId.isValueNode() && !userId.asText().isEmpty() ? userId.asText() : null;
+        } catch (IllegalArgumentException | IOException | GeneralSecurityException e) {
+            logger.debug("JWT格式错误: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void releaseToken(String token) {
+
+    }
+
+    /**
+     * 重新加载secret和JWKS文件中的密钥，加载失败时保留原来的密钥
+     */
+    public void reloadKeys() {
+        try {
+            List<VerificationKey> loaded = new ArrayList<>();
+            if (!secret.isEmpty()) {
+                loaded.add(new VerificationKey(null, Family.HMAC,
+                        new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256")));
+            }
+            if (!jwksFile.isEmpty()) {
+                Path path = Paths.get(jwksFile);
+                long lastModified = Files.getLastModifiedTime(path).toMillis();
+                loaded.addAll(parseJwks(OBJECT_MAPPER.readTree(path.toFile())));
+                jwksLastModified = lastModified;
+            }
+            keys = new KeySet(loaded);
+            logger.info("JWT验证密钥已加载，密钥数: {}", loaded.size());
+        } catch (Exception e) {
+            logger.error("加载JWT验证密钥失败", e);
+        }
+    }
+
+    /**
+     * JWKS文件修改后重新加载
+     */
+    private void reloadKeysIfModified() {
+        try {
+            if (Files.getLastModifiedTime(Paths.get(jwksFile)).toMillis() != jwksLastModified) {
+                reloadKeys();
+            }
+        } catch (Exception e) {
+            logger.error("检查JWKS文件失败", e);
+        }
+    }
+
+    /**
+     * 校验exp、nbf、iss、aud声明
+     */
+    private boolean checkClaims(JsonNode claims) {
+        long now = System.currentTimeMillis() / 1000;
+        JsonNode exp = claims.get("exp");
+        if (exp != null && exp.isNumber() && now - clockSkewSeconds >= exp.asLong()) {
+            logger.debug("JWT已过期");
+            return false;
+        }
+        JsonNode nbf = claims.get("nbf");
+        if (nbf != null && nbf.isNumber() && now + clockSkewSeconds < nbf.asLong()) {
+            logger.debug("JWT尚未生效");
+            return false;
+        }
+        if (!issuer.isEmpty() && !issuer.equals(claims.path("iss").asText())) {
+            logger.debug("JWT签发者不匹配: {}", claims.path("iss").asText());
+            return false;
+        }
+        if (!audience.isEmpty()) {
+            JsonNode aud = claims.get("aud");
+            boolean matched = false;
+            if (aud != null && aud.isArray()) {
+                for (JsonNode value : aud) {
+                    matched |= audience.equals(value.asText());
+                }
+            } else if (aud != null) {
+                matched = audience.equals(aud.asText());
+            }
+            if (!matched) {
+                logger.debug("JWT受众不匹配");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析JWKS中用于签名的RSA、EC和oct密钥，无法解析的密钥跳过
+     */
+    static List<VerificationKey> parseJwks(JsonNode jwks) {
+        List<VerificationKey> result = new ArrayList<>();
+        for (JsonNode jwk : jwks.path("keys")) {
+            String kid = jwk.hasNonNull("kid") ? jwk.get("kid").asText() : null;
+            if (jwk.hasNonNull("use") && !"sig".equals(jwk.get("use").asText())) {
+                continue;
+            }
+            try {
+                switch (jwk.path("kty").asText()) {
+                    case "RSA":
+                        result.add(new VerificationKey(kid, Family.RSA, KeyFactory.getInstance("RSA").generatePublic(
+                                new RSAPublicKeySpec(unsigned(jwk, "n"), unsigned(jwk, "e")))));
+                        break;
+                    case "EC":
+                        result.add(new VerificationKey(kid, Family.EC, ecPublicKey(jwk)));
+                        break;
+                    case "oct":
+                        result.add(new VerificationKey(kid, Family.HMAC,
+                                new SecretKeySpec(BASE64_URL.decode(jwk.path("k").asText()), "HmacSHA256")));
+                        break;
+                    default:
+                        logger.warn("不支持的JWK类型: {}，kid: {}", jwk.path("kty").asText(), kid);
+                }
+            } catch (Exception e) {
+                logger.warn("解析JWK失败，kid: {}", kid, e);
+            }
+        }
+        return result;
+    }
+
+    private static PublicKey ecPublicKey(JsonNode jwk) throws GeneralSecurityException {
+        String curve;
+        switch (jwk.path("crv").asText()) {
+            case "P-256":
+                curve = "secp256r1";
+                break;
+            case "P-384":
+                curve = "secp384r1";
+                break;
+            case "P-521":
+                curve = "secp521r1";
+                break;
+            default:
+                throw new GeneralSecurityException("不支持的EC曲线: " + jwk.path("crv").asText());
+        }
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec(curve));
+        ECParameterSpec spec = parameters.getParameterSpec(ECParameterSpec.class);
+        ECPoint point = new ECPoint(unsigned(jwk, "x"), unsigned(jwk, "y"));
+        return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(point, spec));
+    }
+
+    private static BigInteger unsigned(JsonNode jwk, String field) {
+        return new BigInteger(1, BASE64_URL.decode(jwk.path(field).asText()));
+    }
+
+    /**
+     * 密钥类型
+     */
+    enum Family {
+        HMAC, RSA, EC
+    }
+
+    /**
+     * 支持的签名算法
+     */
+    enum Algorithm {
+        HS256(Family.HMAC, "HmacSHA256", 0),
+        HS384(Family.HMAC, "HmacSHA384", 0),
+        HS512(Family.HMAC, "HmacSHA512", 0),
+        RS256(Family.RSA, "SHA256withRSA", 0),
+        RS384(Family.RSA, "SHA384withRSA", 0),
+        RS512(Family.RSA, "SHA512withRSA", 0),
+        ES256(Family.EC, "SHA256withECDSA", 64),
+        ES384(Family.EC, "SHA384withECDSA", 96),
+        ES512(Family.EC, "SHA512withECDSA", 132);
+
+        private final Family family;
+        private final String jcaName;
+        // ECDSA签名（R||S）的字节数
+        private final int ecSignatureLength;
+
+        // 每个线程复用Mac或Signature实例，避免每次验证都查找算法提供者
+        private final ThreadLocal<Object> engine;
+
+        Algorithm(Family family, String jcaName, int ecSignatureLength) {
+            this.family = family;
+            this.jcaName = jcaName;
+            this.ecSignatureLength = ecSignatureLength;
+            this.engine = ThreadLocal.withInitial(() -> {
+                try {
+                    return family == Family.HMAC ? Mac.getInstance(jcaName) : Signature.getInstance(jcaName);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("不支持的签名算法: " + jcaName, e);
+                }
+            });
+        }
+
+        /**
+         * 按JWT头部的alg查找算法，none和不支持的算法返回null
+         */
+        static Algorithm of(String alg) {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.name().equals(alg)) {
+                    return algorithm;
+                }
+            }
+            return null;
+        }
+
+        boolean verify(Key key, byte[] signingInput, byte[] signature) throws GeneralSecurityException {
+            if (family == Family.HMAC) {
+                Mac mac = (Mac) engine.get();
+                mac.init(new SecretKeySpec(key.getEncoded(), jcaName));
+                return MessageDigest.isEqual(mac.doFinal(signingInput), signature);
+            }
+            if (family == Family.EC) {
+                if (signature.length != ecSignatureLength) {
+                    return false;
+                }
+                signature = toDer(signature);
+            }
+            Signature verifier = (Signature) engine.get();
+            verifier.initVerify((PublicKey) key);
+            verifier.update(signingInput);
+            return verifier.verify(signature);
+        }
+
+        /**
+         * JWS的ECDSA签名为定长的R||S，JCA需要DER编码的SEQUENCE { INTEGER r, INTEGER s }
+         */
+        static byte[] toDer(byte[] raw) {
+            int half = raw.length / 2;
+            byte[] r = derInteger(Arrays.copyOfRange(raw, 0, half));
+            byte[] s = derInteger(Arrays.copyOfRange(raw, half, raw.length));
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length + 9);
+            out.write(0x30);
+            writeLength(out, r.length + s.length);
+            out.write(r, 0, r.length);
+            out.write(s, 0, s.length);
+            return out.toByteArray();
+        }
+
+        private static byte[] derInteger(byte[] value) {
+            int start = 0;
+            while (start < value.length - 1 && value[start] == 0) {
+                start++;
+            }
+            boolean pad = (value[start] & 0x80) != 0;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(value.length + 3);
+            out.write(0x02);
+            writeLength(out, value.length - start + (pad ? 1 : 0));
+            if (pad) {
+                out.write(0);
+            }
+            out.write(value, start, value.length - start);
+            return out.toByteArray();
+        }
+
+        private static void writeLength(ByteArrayOutputStream out, int length) {
+            if (length >= 0x80) {
+                out.write(0x81);
+            }
+            out.write(length);
+        }
+    }
+
+    /**
+     * 解析后的验证密钥，kid为null表示没有指定kid（secret或JWKS中未设置kid的密钥）
+     */
+    static class VerificationKey {
+
+        private final String kid;
+        private final Family family;
+        private final Key key;
+
+        VerificationKey(String kid, Family family, Key key) {
+            this.kid = kid;
+            this.family = family;
+            this.key = key;
+        }
+    }
+
+    /**
+     * 一次加载的全部密钥，按kid索引
+     */
+    static class KeySet {
+
+        private final List<VerificationKey> keys;
+        private final Map<String, VerificationKey> byKid = new HashMap<>();
+
+        KeySet(List<VerificationKey> keys) {
+            this.keys = keys;
+            for (VerificationKey key : keys) {
+                if (key.kid != null) {
+                    byKid.put(key.kid, key);
+                }
+            }
+        }
+
+        /**
+         * token指定kid时只使用该密钥，否则使用第一个类型匹配的密钥
+         */
+        VerificationKey find(String kid, Algorithm algorithm) {
+            if (kid != null) {
+                VerificationKey key = byKid.get(kid);
+                return key != null && key.family == algorithm.family ? key : null;
+            }
+            for (VerificationKey key : keys) {
+                if (key.family == algorithm.family) {
+                    return key;
+                }
+            }
+            return null;
+        }
+    }
+}
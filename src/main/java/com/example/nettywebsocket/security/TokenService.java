@@ -1,5 +1,7 @@
 package com.example.nettywebsocket.security;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Token验证服务接口
  * 用于校验用户token的有效性，可配置为调用外部业务系统的接口
@@ -22,6 +24,43 @@ public interface TokenService {
      */
     String getUserIdByToken(String token);
 
+    /**
+     * 验证token并获取用户ID，握手时只需调用一次
+     * 默认依次调用validateToken和getUserIdByToken，实现类可以合并为一次查询
+     *
+     * @param token 用户token
+     * @return 用户ID，token无效时返回null
+     * @throws RuntimeException 验证服务不可用，无法判断token是否有效
+     */
+    default String resolve(String token) {
+        return validateToken(token) ? getUserIdByToken(token) : null;
+    }
+
+    /**
+     * 异步验证token并获取用户ID，握手在结果回调中完成
+     * 默认在调用线程中同步执行resolve，支持非阻塞调用的实现可以覆盖该方法；回调可能在实现的I/O线程上执行，不能阻塞
+     *
+     * @param token 用户token
+     * @return 用户ID，token无效时为null；验证服务不可用时异常完成
+     */
+    default CompletableFuture<String> resolveAsync(String token) {
+        try {
+            return CompletableFuture.completedFuture(resolve(token));
+        } catch (RuntimeException e) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * 使token已缓存的验证结果失效，token被添加或移除后调用
+     *
+     * @param token 用户token
+     */
+    default void invalidate(String token) {
+    }
+
     /**
      * 释放已使用的token，允许重复验证
      *
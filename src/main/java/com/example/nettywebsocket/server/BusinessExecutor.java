@@ -0,0 +1,217 @@
+package com.example.nettywebsocket.server;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 业务线程池
+ * 握手鉴权、客服分配、连接注册和消息持久化等会阻塞在Redis或HTTP调用上的操作在这里执行，
+ * Netty的I/O线程只负责读写。线程池和每个连接的待处理任务数都有上限，超出时拒绝任务
+ */
+@Component
+public class BusinessExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(BusinessExecutor.class);
+
+    // 业务线程数
+    @Value("${netty.websocket.business.threads:32}")
+    private int threads;
+
+    // 线程池共享队列长度
+    @Value("${netty.websocket.business.queueCapacity:10000}")
+    private int queueCapacity;
+
+    // 单个连接最多排队的任务数
+    @Value("${netty.websocket.business.maxPendingPerConnection:256}")
+    private int maxPendingPerConnection;
+
+    @Autowired
+    private WebSocketMetrics metrics;
+
+    private ThreadPoolExecutor executor;
+
+    // 后备线程：线程池拒绝时执行必须完成的任务（连接清理、已接收但失去调度的任务），不占用I/O线程
+    private ExecutorService fallbackExecutor;
+
+    @PostConstruct
+    public void start() {
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new DefaultThreadFactory("websocket-business"),
+                new ThreadPoolExecutor.AbortPolicy());
+        fallbackExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("websocket-business-fallback"));
+        metrics.gauge("websocket.business.queue.size", () -> executor.getQueue().size());
+        metrics.gauge("websocket.business.active", executor::getActiveCount);
+        logger.info("业务线程池已启动，线程数: {}，队列长度: {}，单连接待处理上限: {}",
+                threads, queueCapacity, maxPendingPerConnection);
+    }
+
+    @PreDestroy
+    public void stop() {
+        // 先关闭线程池，线程池中的任务仍可能转交给后备线程
+        shutdown(executor);
+        shutdown(fallbackExecutor);
+    }
+
+    private static void shutdown(ExecutorService executorService) {
+        if (executorService != null) {
+            executorService.shutdown();
+            try {
+                if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executorService.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executorService.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 为一个连接创建串行执行器
+     * 同一连接的任务按提交顺序依次执行，不同连接的任务在线程池中并行
+     */
+    public SerialExecutor newSerialExecutor() {
+        return new SerialExecutor();
+    }
+
+    /**
+     * 按提交顺序串行执行任务的执行器，每次最多连续执行一批任务后让出线程
+     */
+    public class SerialExecutor implements Executor {
+
+        // 每次调度最多连续执行的任务数，避免单个连接长期占用业务线程
+        private static final int MAX_TASKS_PER_RUN = 16;
+
+        private final Queue<TimedTask> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+
+        @Override
+        public void execute(Runnable command) {
+            submit(command, false);
+        }
+
+        /**
+         * 提交必须执行的任务（如连接断开后的清理），排在该连接已提交的任务之后执行，
+         * 不受单连接待处理任务数上限限制；线程池拒绝时交给后备线程，不会在调用线程上执行
+         */
+        public void executeGuaranteed(Runnable command) {
+            submit(command, true);
+        }
+
+        private void submit(Runnable command, boolean guaranteed) {
+            TimedTask added = new TimedTask(command);
+            synchronized (this) {
+                if (!guaranteed && tasks.size() >= maxPendingPerConnection) {
+                    metrics.increment("websocket.business.rejected");
+                    throw new RejectedExecutionException("连接待处理任务数已达上限: " + maxPendingPerConnection);
+                }
+                tasks.add(added);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                boolean remaining;
+                synchronized (this) {
+                    // 只撤回本次提交的任务：调度期间其他调用方可能已提交任务，并因scheduled为true直接返回
+                    if (!guaranteed) {
+                        tasks.remove(added);
+                    }
+                    remaining = !tasks.isEmpty();
+                    if (!remaining) {
+                        scheduled = false;
+                    }
+                }
+                if (remaining) {
+                    // 已接收的任务不能丢失，由后备线程继续执行
+                    drainOnFallback();
+                }
+                if (!guaranteed) {
+                    metrics.increment("websocket.business.rejected");
+                    throw e;
+                }
+            }
+        }
+
+        private void drainOnFallback() {
+            try {
+                fallbackExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // 只在关闭过程中发生
+                synchronized (this) {
+                    logger.warn("业务线程池已关闭，丢弃连接的 {} 个待处理任务", tasks.size());
+                    tasks.clear();
+                    scheduled = false;
+                }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+                    TimedTask task;
+                    synchronized (this) {
+                        task = tasks.poll();
+                        if (task == null) {
+                            scheduled = false;
+                            return;
+                        }
+                    }
+                    task.run();
+                }
+                try {
+                    executor.execute(this::drain);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // 线程池已满或正在关闭，在当前线程继续执行下一批，保证已接收的任务不丢失
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录排队耗时的任务
+     */
+    private class TimedTask implements Runnable {
+
+        private final Runnable delegate;
+        private final long submitTime = System.nanoTime();
+
+        TimedTask(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            metrics.recordTime("websocket.business.wait", start - submitTime);
+            try {
+                delegate.run();
+            } catch (Throwable t) {
+                logger.error("业务任务执行失败", t);
+            } finally {
+                metrics.recordTime("websocket.business.duration", System.nanoTime() - start);
+            }
+        }
+    }
+}
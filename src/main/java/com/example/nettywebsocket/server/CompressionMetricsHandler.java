@@ -0,0 +1,114 @@
+package com.example.nettywebsocket.server;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+
+/**
+ * 出站数据帧的压缩统计
+ * 同一连接上装两个实例：raw一侧位于permessage-deflate编码器之前（靠近业务handler），统计压缩前的字节数，
+ * wire一侧位于编码器之后（靠近网络），统计实际发送的字节数。控制帧不计入。
+ * 每个连接的统计保存在通道属性中，全局累计值写入WebSocketMetrics
+ */
+public class CompressionMetricsHandler extends ChannelOutboundHandlerAdapter {
+
+    public static final String METRIC_RAW_BYTES = "websocket.compression.bytes.raw";
+    public static final String METRIC_WIRE_BYTES = "websocket.compression.bytes.wire";
+    public static final String METRIC_COMPRESSED_FRAMES = "websocket.compression.frames.compressed";
+    public static final String METRIC_RATIO = "websocket.compression.ratio";
+
+    private static final AttributeKey<Stats> STATS_ATTR = AttributeKey.valueOf("websocket.compressionStats");
+
+    private final WebSocketMetrics metrics;
+    private final boolean wire;
+
+    private CompressionMetricsHandler(WebSocketMetrics metrics, boolean wire) {
+        this.metrics = metrics;
+        this.wire = wire;
+    }
+
+    /**
+     * 统计压缩前字节数的实例
+     */
+    public static CompressionMetricsHandler raw(WebSocketMetrics metrics) {
+        return new CompressionMetricsHandler(metrics, false);
+    }
+
+    /**
+     * 统计实际发送字节数的实例
+     */
+    public static CompressionMetricsHandler wire(WebSocketMetrics metrics) {
+        return new CompressionMetricsHandler(metrics, true);
+    }
+
+    /**
+     * 获取连接的压缩统计，没有安装统计handler的连接返回null
+     */
+    public static Stats stats(Channel channel) {
+        return channel.attr(STATS_ATTR).get();
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        ctx.channel().attr(STATS_ATTR).setIfAbsent(new Stats());
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame || msg instanceof ContinuationWebSocketFrame) {
+            WebSocketFrame frame = (WebSocketFrame) msg;
+            int bytes = frame.content().readableBytes();
+            Stats stats = ctx.channel().attr(STATS_ATTR).get();
+            if (wire) {
+                stats.wireBytes += bytes;
+                metrics.increment(METRIC_WIRE_BYTES, bytes);
+                // permessage-deflate用RSV1标记压缩过的消息
+                if ((frame.rsv() & 0x4) != 0) {
+                    stats.compressedFrames++;
+                    metrics.increment(METRIC_COMPRESSED_FRAMES);
+                }
+            } else {
+                stats.rawBytes += bytes;
+                metrics.increment(METRIC_RAW_BYTES, bytes);
+            }
+        }
+        ctx.write(msg, promise);
+    }
+
+    /**
+     * 单个连接的压缩统计，只在连接的I/O线程上更新
+     */
+    public static class Stats {
+
+        private volatile long rawBytes;
+        private volatile long wireBytes;
+        private volatile long compressedFrames;
+
+        public long getRawBytes() {
+            return rawBytes;
+        }
+
+        public long getWireBytes() {
+            return wireBytes;
+        }
+
+        public long getCompressedFrames() {
+            return compressedFrames;
+        }
+
+        /**
+         * 实际发送字节数与压缩前字节数之比，越小压缩效果越好，尚未发送数据时为1
+         */
+        public double getRatio() {
+            long raw = rawBytes;
+            return raw > 0 ? (double) wireBytes / raw : 1.0;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.nettywebsocket.server;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EventLoop延迟监控
+ * 在每个I/O线程上周期性调度一个探测任务，实际执行时间与预期时间之差即为该线程被阻塞或积压的时长，
+ * I/O线程上出现阻塞调用时该延迟会明显升高
+ */
+@Component
+public class EventLoopLatencyMonitor {
+
+    public static final String METRIC_LAG = "websocket.eventloop.lag";
+    public static final String METRIC_PENDING_TASKS = "websocket.eventloop.pendingTasks";
+
+    // 探测间隔（毫秒）
+    @Value("${netty.websocket.eventLoopProbeInterval:100}")
+    private long probeIntervalMillis;
+
+    @Autowired
+    private WebSocketMetrics metrics;
+
+    /**
+     * 开始监控一个EventLoopGroup，EventLoop关闭后探测自动停止
+     * @param group 要监控的EventLoopGroup
+     */
+    public void monitor(EventLoopGroup group) {
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(probeIntervalMillis);
+        for (EventExecutor executor : group) {
+            scheduleProbe(executor, intervalNanos);
+        }
+        metrics.gauge(METRIC_PENDING_TASKS, () -> {
+            long pending = 0;
+            for (EventExecutor executor : group) {
+                if (executor instanceof SingleThreadEventExecutor) {
+                    pending += ((SingleThreadEventExecutor) executor).pendingTasks();
+                }
+            }
+            return pending;
+        });
+    }
+
+    private void scheduleProbe(EventExecutor executor, long intervalNanos) {
+        if (executor.isShuttingDown()) {
+            return;
+        }
+        long expected = System.nanoTime() + intervalNanos;
+        executor.schedule(() -> {
+            metrics.recordTime(METRIC_LAG, Math.max(0, System.nanoTime() - expected));
+            scheduleProbe(executor, intervalNanos);
+        }, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -1,22 +1,35 @@
 package com.example.nettywebsocket.server;
 
 import com.example.nettywebsocket.handler.WebSocketHandler;
+import com.example.nettywebsocket.handler.WebSocketMessageCodec;
 import com.example.nettywebsocket.manager.WebSocketConnectionManager;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
 import com.example.nettywebsocket.security.TokenService;
 import com.example.nettywebsocket.service.CustomerService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Netty服务器初始化器，用于配置ChannelPipeline
  */
@@ -29,12 +42,21 @@ public class NettyServerInitializer extends ChannelInitializer<SocketChannel> {
     @Autowired
     private ObjectMapper objectMapper;
     
+    @Autowired
+    private WebSocketMessageCodec messageCodec;
+    
     @Autowired
     private TokenService tokenService;
     
     @Autowired
     private CustomerService customerService;
     
+    @Autowired
+    private BusinessExecutor businessExecutor;
+    
+    @Autowired
+    private WebSocketMetrics metrics;
+    
     @Value("${netty.websocket.maxFramePayloadLength:65536}")
     private int maxFramePayloadLength;
     
@@ -42,12 +64,102 @@ public class NettyServerInitializer extends ChannelInitializer<SocketChannel> {
     @Value("${netty.websocket.idleTimeout:180}")
     private int idleTimeout;
     
+    // permessage-deflate压缩
+    @Value("${netty.websocket.compression.enabled:true}")
+    private boolean compressionEnabled;
+    
+    // 小于该字节数的消息不压缩
+    @Value("${netty.websocket.compression.min-size:1024}")
+    private int compressionMinSize;
+    
+    // 压缩级别（0-9）
+    @Value("${netty.websocket.compression.level:6}")
+    private int compressionLevel;
+    
+    // 客户端声明client_max_window_bits时要求客户端使用的窗口大小（8-15）
+    @Value("${netty.websocket.compression.client-window-bits:15}")
+    private int clientWindowBits;
+    
+    // 是否接受客户端通过server_max_window_bits要求服务端使用更小的窗口
+    @Value("${netty.websocket.compression.allow-server-window-bits:true}")
+    private boolean allowServerWindowBits;
+    
+    // 是否接受客户端要求服务端不保留压缩上下文（server_no_context_takeover），每条消息单独压缩，省内存但压缩率下降
+    @Value("${netty.websocket.compression.allow-server-no-context-takeover:true}")
+    private boolean allowServerNoContextTakeover;
+    
+    // 是否要求客户端不保留压缩上下文（client_no_context_takeover）
+    @Value("${netty.websocket.compression.client-no-context-takeover:false}")
+    private boolean clientNoContextTakeover;
+    
+    // 慢消费者策略：drop-oldest、coalesce、disconnect
+    @Value("${netty.websocket.backpressure.policy:drop-oldest}")
+    private String slowConsumerPolicyName;
+    
+    // 连接不可写时单个连接最多排队的出站消息数
+    @Value("${netty.websocket.backpressure.max-queued-messages:256}")
+    private int maxQueuedMessages;
+    
+    // 合并同一连接上的连续flush，减少write系统调用
+    @Value("${netty.websocket.flush-consolidation.enabled:true}")
+    private boolean flushConsolidationEnabled;
+    
+    // 连续合并的flush数达到该值时强制刷新一次，限制合并带来的延迟
+    @Value("${netty.websocket.flush-consolidation.explicit-flush-after-flushes:256}")
+    private int explicitFlushAfterFlushes;
+    
     private static final String WEBSOCKET_PATH = "/websocket";
     
+    private SlowConsumerPolicy slowConsumerPolicy;
+    
+    // 当前不可写的连接数
+    private final AtomicInteger unwritableChannels = new AtomicInteger();
+    
+    // 完成WebSocket握手的连接，关闭时自动移除；包含已握手但尚未在连接管理器中注册的连接
+    private final ChannelGroup upgradedChannels = new DefaultChannelGroup("websocket-upgraded", GlobalEventExecutor.INSTANCE);
+    
+    private WebSocketExtensionFilterProvider compressionFilterProvider;
+    
+    @PostConstruct
+    public void init() {
+        // 只跳过小消息的压缩，入站消息按客户端的RSV1标记解压
+        WebSocketExtensionFilter encoderFilter = frame -> frame.content().readableBytes() < compressionMinSize;
+        compressionFilterProvider = new WebSocketExtensionFilterProvider() {
+            @Override
+            public WebSocketExtensionFilter encoderFilter() {
+                return encoderFilter;
+            }
+
+            @Override
+            public WebSocketExtensionFilter decoderFilter() {
+                return WebSocketExtensionFilter.NEVER_SKIP;
+            }
+        };
+        slowConsumerPolicy = SlowConsumerPolicy.resolve(slowConsumerPolicyName);
+        metrics.gauge(SlowConsumerHandler.METRIC_UNWRITABLE_CHANNELS, unwritableChannels::get);
+        metrics.gauge(CompressionMetricsHandler.METRIC_RATIO, () -> {
+            long raw = metrics.getCount(CompressionMetricsHandler.METRIC_RAW_BYTES);
+            return raw > 0 ? (double) metrics.getCount(CompressionMetricsHandler.METRIC_WIRE_BYTES) / raw : 1.0;
+        });
+    }
+    
+    /**
+     * 获取完成WebSocket握手的连接，服务器排空时使用
+     */
+    public ChannelGroup getUpgradedChannels() {
+        return upgradedChannels;
+    }
+    
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
         
+        // flush从pipeline末端传到头部，合并处理器放在最前面以拦截所有flush：
+        // 读取过程中的flush推迟到读取完成，业务线程发起的flush合并为事件循环上的一次刷新
+        if (flushConsolidationEnabled) {
+            pipeline.addLast(new FlushConsolidationHandler(explicitFlushAfterFlushes, true));
+        }
+        
         // 添加空闲状态处理器，设置3分钟（180秒）读空闲超时
         pipeline.addLast(new IdleStateHandler(idleTimeout, 0, 0));
         // HTTP编解码器
@@ -59,6 +171,16 @@ public class NettyServerInitializer extends ChannelInitializer<SocketChannel> {
         // HTTP对象聚合器，将HTTP消息的多个部分合并成一个完整的HTTP消息
         pipeline.addLast(new HttpObjectAggregator(65536));
         
+        // permessage-deflate扩展，握手响应时按客户端的请求协商，协商成功后在扩展处理器之后加入压缩编解码器；
+        // 两个统计handler分别位于编解码器的两侧，统计压缩前后的字节数
+        if (compressionEnabled) {
+            pipeline.addLast(CompressionMetricsHandler.wire(metrics));
+            pipeline.addLast(new WebSocketServerExtensionHandler(new PerMessageDeflateServerExtensionHandshaker(
+                    compressionLevel, allowServerWindowBits, clientWindowBits,
+                    allowServerNoContextTakeover, clientNoContextTakeover, compressionFilterProvider)));
+            pipeline.addLast(CompressionMetricsHandler.raw(metrics));
+        }
+        
         // WebSocket协议处理器，处理握手、ping/pong、关闭等
         // pipeline.addLast(new WebSocketServerProtocolHandler(
         //         WEBSOCKET_PATH,
@@ -72,10 +194,16 @@ public class NettyServerInitializer extends ChannelInitializer<SocketChannel> {
         WebSocketHandler webSocketHandler = new WebSocketHandler();
         webSocketHandler.setConnectionManager(connectionManager);
         webSocketHandler.setObjectMapper(objectMapper);
+        webSocketHandler.setMessageCodec(messageCodec);
         webSocketHandler.setTokenService(tokenService);
         webSocketHandler.setCustomerService(customerService);
+        webSocketHandler.setBusinessExecutor(businessExecutor.newSerialExecutor());
+        webSocketHandler.setUpgradedChannels(upgradedChannels);
         webSocketHandler.setIdleTimeout(idleTimeout);
         
         pipeline.addLast(webSocketHandler);
+        
+        // 出站写入从pipeline末端开始，慢消费者处理器放在最后，排队和丢弃发生在所有编码之前
+        pipeline.addLast(new SlowConsumerHandler(slowConsumerPolicy, maxQueuedMessages, messageCodec, metrics, unwritableChannels));
     }
 }
\ No newline at end of file
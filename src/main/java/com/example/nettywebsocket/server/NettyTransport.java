@@ -0,0 +1,171 @@
+package com.example.nettywebsocket.server;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.incubator.channel.uring.IOUring;
+import io.netty.incubator.channel.uring.IOUringChannelOption;
+import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import io.netty.incubator.channel.uring.IOUringServerSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Netty传输层类型
+ * 支持nio、epoll、io_uring三种模式，auto模式下优先使用epoll，不可用时回退到nio
+ * io_uring仍处于incubator阶段，只在显式配置时启用
+ */
+public enum NettyTransport {
+
+    /**
+     * JDK NIO，所有平台可用
+     */
+    NIO("nio") {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            return new NioEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public ChannelOption<Boolean> reusePortOption() {
+            return null;
+        }
+    },
+
+    /**
+     * Linux原生epoll（边缘触发），减少系统调用和GC压力
+     */
+    EPOLL("epoll") {
+        @Override
+        public boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            return new EpollEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public ChannelOption<Boolean> reusePortOption() {
+            return EpollChannelOption.SO_REUSEPORT;
+        }
+    },
+
+    /**
+     * Linux io_uring（需要5.9以上内核）
+     */
+    IO_URING("io_uring") {
+        @Override
+        public boolean isAvailable() {
+            try {
+                return IOUring.isAvailable();
+            } catch (Throwable t) {
+                // 缺少本地库时可能抛出LinkageError
+                return false;
+            }
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads) {
+            return new IOUringEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverChannelClass() {
+            return IOUringServerSocketChannel.class;
+        }
+
+        @Override
+        public ChannelOption<Boolean> reusePortOption() {
+            return IOUringChannelOption.SO_REUSEPORT;
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(NettyTransport.class);
+
+    // 配置中使用的名称
+    private final String configName;
+
+    NettyTransport(String configName) {
+        this.configName = configName;
+    }
+
+    public String getConfigName() {
+        return configName;
+    }
+
+    /**
+     * 当前运行环境是否支持该传输
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * 创建该传输对应的EventLoopGroup
+     * @param threads 线程数
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int threads);
+
+    /**
+     * 该传输对应的服务端Channel类型
+     */
+    public abstract Class<? extends ServerSocketChannel> serverChannelClass();
+
+    /**
+     * 该传输的SO_REUSEPORT选项
+     * @return 不支持SO_REUSEPORT时返回null
+     */
+    public abstract ChannelOption<Boolean> reusePortOption();
+
+    /**
+     * 根据配置选择传输类型，指定的传输不可用时回退到自动选择
+     * @param mode 配置值：auto、nio、epoll、io_uring
+     * @return 实际使用的传输类型
+     */
+    public static NettyTransport resolve(String mode) {
+        if (mode != null && !mode.trim().isEmpty() && !"auto".equalsIgnoreCase(mode.trim())) {
+            for (NettyTransport transport : values()) {
+                if (transport.configName.equalsIgnoreCase(mode.trim())) {
+                    if (transport.isAvailable()) {
+                        return transport;
+                    }
+                    logger.warn("传输类型 {} 在当前环境不可用，回退到自动选择", mode);
+                    return autoDetect();
+                }
+            }
+            logger.warn("未知的传输类型 {}，回退到自动选择", mode);
+        }
+        return autoDetect();
+    }
+
+    /**
+     * 自动选择：epoll可用时使用epoll，否则使用nio
+     */
+    private static NettyTransport autoDetect() {
+        if (EPOLL.isAvailable()) {
+            return EPOLL;
+        }
+        return NIO;
+    }
+}
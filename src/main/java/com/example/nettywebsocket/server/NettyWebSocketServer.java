@@ -1,11 +1,15 @@
 package com.example.nettywebsocket.server;
 
+import com.example.nettywebsocket.manager.WebSocketConnectionManager;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelGroupFuture;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,6 +18,10 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Netty WebSocket服务器
@@ -32,38 +40,113 @@ public class NettyWebSocketServer {
     @Value("${netty.websocket.workerGroupThreads:16}")
     private int workerGroupThreads;
     
+    // 传输类型：auto、nio、epoll、io_uring
+    @Value("${netty.websocket.transport:auto}")
+    private String transportMode;
+    
+    // 等待accept的连接队列长度
+    @Value("${netty.websocket.backlog:128}")
+    private int backlog;
+    
+    // 是否启用SO_REUSEPORT，为每个boss线程绑定一个监听socket，由内核在多个accept队列间分发连接
+    @Value("${netty.websocket.reusePort:false}")
+    private boolean reusePort;
+    
+    // 连接出站缓冲的高低水位（字节），超过高水位后连接不可写，降到低水位以下恢复可写
+    @Value("${netty.websocket.backpressure.high-water-mark:65536}")
+    private int highWaterMark;
+    
+    @Value("${netty.websocket.backpressure.low-water-mark:32768}")
+    private int lowWaterMark;
+    
+    // 关闭时是否先排空连接：停止accept，向客户端发送关闭帧并删除本服务器登记的在线状态
+    @Value("${netty.websocket.drain.enabled:true}")
+    private boolean drainEnabled;
+    
+    // 排空期限（毫秒），超过期限仍未关闭的连接直接断开
+    @Value("${netty.websocket.drain.timeout:30000}")
+    private long drainTimeoutMillis;
+    
+    // 每批发送关闭帧的连接数和批次间隔（毫秒）
+    @Value("${netty.websocket.drain.batch-size:500}")
+    private int drainBatchSize;
+    
+    @Value("${netty.websocket.drain.batch-interval:100}")
+    private long drainBatchIntervalMillis;
+    
+    // 关闭帧状态码：1012（服务重启）或1001（服务端离开）
+    @Value("${netty.websocket.drain.close-status:1012}")
+    private int drainCloseStatus;
+    
+    // 关闭帧中建议客户端重连等待时间的上限（毫秒），每个连接在0到该值之间随机，避免同时重连
+    @Value("${netty.websocket.drain.reconnect-jitter:10000}")
+    private long reconnectJitterMillis;
+    
     @Autowired
     private NettyServerInitializer serverInitializer;
     
+    @Autowired
+    private WebSocketConnectionManager connectionManager;
+    
+    @Autowired
+    private EventLoopLatencyMonitor latencyMonitor;
+    
+    @Autowired
+    private BusinessExecutor businessExecutor;
+    
     // Boss线程组，用于接收连接
     private EventLoopGroup bossGroup;
     
     // Worker线程组，用于处理连接的IO操作
     private EventLoopGroup workerGroup;
     
+    // 实际使用的传输类型
+    private NettyTransport transport;
+    
+    // 监听socket，启用SO_REUSEPORT时每个boss线程一个
+    private final List<Channel> serverChannels = new ArrayList<>();
+    
     /**
      * 服务器启动方法，Spring Boot启动时自动调用
      */
     @PostConstruct
     public void start() {
-        bossGroup = new NioEventLoopGroup(bossGroupThreads);
-        workerGroup = new NioEventLoopGroup(workerGroupThreads);
+        transport = NettyTransport.resolve(transportMode);
+        bossGroup = transport.newEventLoopGroup(bossGroupThreads);
+        workerGroup = transport.newEventLoopGroup(workerGroupThreads);
+        latencyMonitor.monitor(workerGroup);
         
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannelClass())
                     .childHandler(serverInitializer)
-                    .option(ChannelOption.SO_BACKLOG, 128)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true);
+                    .option(ChannelOption.SO_BACKLOG, backlog)
+                    .childOption(ChannelOption.SO_KEEPALIVE, true)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(lowWaterMark, highWaterMark));
+            
+            // 启用SO_REUSEPORT时绑定多个监听socket，否则只绑定一个
+            int acceptors = 1;
+            if (reusePort) {
+                ChannelOption<Boolean> reusePortOption = transport.reusePortOption();
+                if (reusePortOption != null) {
+                    bootstrap.option(reusePortOption, true);
+                    acceptors = Math.max(1, bossGroupThreads);
+                } else {
+                    logger.warn("传输类型 {} 不支持SO_REUSEPORT，只绑定一个监听socket", transport.getConfigName());
+                }
+            }
             
             // 绑定端口并启动服务器
-            ChannelFuture future = bootstrap.bind(port).sync();
+            for (int i = 0; i < acceptors; i++) {
+                serverChannels.add(bootstrap.bind(port).sync().channel());
+            }
             
-            logger.info("Netty WebSocket服务器已启动，监听端口: {}", port);
+            logger.info("Netty WebSocket服务器已启动，监听端口: {}，传输类型: {}（配置: {}），监听socket数: {}，backlog: {}",
+                    port, transport.getConfigName(), transportMode, acceptors, backlog);
             
             // 等待服务器关闭（通常不会执行到这里，除非显式关闭）
-            // future.channel().closeFuture().sync();
+            // serverChannels.get(0).closeFuture().sync();
         } catch (Exception e) {
             logger.error("启动Netty WebSocket服务器失败", e);
             stop();
@@ -77,8 +160,31 @@ public class NettyWebSocketServer {
     public void stop() {
         logger.info("正在关闭Netty WebSocket服务器...");
         
+        // 先停止accept，再排空已有连接
+        for (Channel serverChannel : serverChannels) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        serverChannels.clear();
+        
+        boolean draining = drainEnabled && workerGroup != null;
+        if (draining) {
+            try {
+                drain();
+            } catch (Exception e) {
+                logger.error("排空连接失败", e);
+            }
+        }
+        
         if (workerGroup != null) {
-            workerGroup.shutdownGracefully();
+            // 等待I/O线程退出，连接关闭时的清理任务此时都已提交给业务线程池
+            workerGroup.shutdownGracefully().awaitUninterruptibly();
+        }
+        
+        if (draining) {
+            // 业务线程池执行完已提交的握手注册和连接清理后再删除在线状态，之后不会再有任务写入本服务器的在线状态
+            businessExecutor.stop();
+            long cleared = connectionManager.clearServerPresence();
+            logger.info("已删除本服务器登记的在线状态 {} 个", cleared);
         }
         
         if (bossGroup != null) {
@@ -87,4 +193,57 @@ public class NettyWebSocketServer {
         
         logger.info("Netty WebSocket服务器已关闭");
     }
+    
+    /**
+     * 排空连接：标记本服务器正在排空（拒绝新的握手），分批向所有完成握手的连接（包括尚未在连接管理器中注册的）
+     * 发送带随机重连等待时间的关闭帧，等待连接关闭直到期限，超过期限的直接断开
+     */
+    private void drain() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        connectionManager.startDraining();
+        
+        // 每批至少一个连接
+        int batchSize = Math.max(1, drainBatchSize);
+        ChannelGroup upgradedChannels = serverInitializer.getUpgradedChannels();
+        List<Channel> channels = new ArrayList<>(upgradedChannels);
+        logger.info("开始排空 {} 个连接，期限: {}ms，每批: {}", channels.size(), drainTimeoutMillis, batchSize);
+        
+        for (int i = 0; i < channels.size(); i++) {
+            if (i > 0 && i % batchSize == 0 && System.nanoTime() < deadline) {
+                try {
+                    Thread.sleep(drainBatchIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            Channel channel = channels.get(i);
+            if (channel.isActive()) {
+                // 关闭原因中给出建议的重连等待时间，客户端据此错开重连
+                long reconnectAfter = ThreadLocalRandom.current().nextLong(reconnectJitterMillis + 1);
+                channel.writeAndFlush(new CloseWebSocketFrame(drainCloseStatus, "{\"reconnectAfter\":" + reconnectAfter + "}"))
+                        .addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+        
+        // 等待连接关闭，超过期限的直接断开；开始排空前刚完成握手、不在上面列表中的连接也一并断开
+        ChannelGroupFuture closed = upgradedChannels.newCloseFuture();
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0 || !closed.awaitUninterruptibly(remaining, TimeUnit.NANOSECONDS)) {
+            int forced = upgradedChannels.size();
+            upgradedChannels.close().awaitUninterruptibly();
+            if (forced > 0) {
+                logger.warn("{} 个连接在排空期限内未关闭，已直接断开", forced);
+            }
+        }
+        logger.info("连接排空完成，共 {} 个连接", channels.size());
+    }
+    
+    /**
+     * 获取当前使用的传输类型
+     * @return 传输类型，服务器未启动时为null
+     */
+    public NettyTransport getTransport() {
+        return transport;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,311 @@
+package com.example.nettywebsocket.server;
+
+import com.example.nettywebsocket.handler.WebSocketMessageCodec;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import com.example.nettywebsocket.model.WebSocketMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 慢消费者处理器
+ * 连接的出站缓冲超过高水位（不可写）后，新的数据消息不再写入Netty的出站缓冲，而是在这里排队，
+ * 恢复可写后按顺序写出；排队数超过上限时按 {@link SlowConsumerPolicy} 丢弃、合并消息或关闭连接。
+ * 队列不为空时控制帧也按顺序排队（超过上限时不会被丢弃），关闭帧一定在它之前的数据之后发出，
+ * 关闭帧之后写入的帧直接失败。HTTP响应不排队。位于pipeline最末端，排队和丢弃发生在二进制协议编码和压缩之前，
+ * 不会破坏连接上的标识表和压缩上下文。每个连接一个实例，只在连接的I/O线程上执行
+ */
+public class SlowConsumerHandler extends ChannelDuplexHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerHandler.class);
+
+    public static final String METRIC_UNWRITABLE = "websocket.backpressure.unwritable";
+    public static final String METRIC_UNWRITABLE_CHANNELS = "websocket.backpressure.unwritable.channels";
+    public static final String METRIC_QUEUED = "websocket.backpressure.queued";
+    public static final String METRIC_DROPPED = "websocket.backpressure.dropped";
+    public static final String METRIC_COALESCED = "websocket.backpressure.coalesced";
+    public static final String METRIC_DISCONNECTED = "websocket.backpressure.disconnected";
+
+    private static final IOException DROPPED = new IOException("慢消费者，消息已丢弃");
+    // 可以合并的状态类消息，聊天等消息即使超过上限也不合并
+    private static final Set<String> COALESCED_TYPES = Collections.singleton(WebSocketMessage.TYPE_CS_STATUS);
+    private static final List<ByteBuf> COALESCED_TYPE_MARKERS = new ArrayList<>();
+    static {
+        for (String type : COALESCED_TYPES) {
+            COALESCED_TYPE_MARKERS.add(Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(type, CharsetUtil.US_ASCII)));
+        }
+    }
+
+    private static final IOException CLOSE_SENT = new IOException("已发送关闭帧，不能再写入WebSocket帧");
+
+    private final SlowConsumerPolicy policy;
+    private final int maxQueuedMessages;
+    private final WebSocketMessageCodec jsonCodec;
+    private final WebSocketMetrics metrics;
+    private final AtomicInteger unwritableChannels;
+
+    // 排队的消息和控制帧，按写入顺序排列
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+
+    private boolean unwritable;
+
+    // 是否已经写入关闭帧（可能仍在队列中）
+    private boolean closeSent;
+
+    /**
+     * @param policy 排队数超过上限时的处理方式
+     * @param maxQueuedMessages 单个连接最多排队的消息数
+     * @param jsonCodec 合并策略下用于读取消息类型和收发者
+     * @param metrics 指标
+     * @param unwritableChannels 当前不可写的连接数，所有连接共享
+     */
+    public SlowConsumerHandler(SlowConsumerPolicy policy, int maxQueuedMessages, WebSocketMessageCodec jsonCodec,
+                               WebSocketMetrics metrics, AtomicInteger unwritableChannels) {
+        this.policy = policy;
+        this.maxQueuedMessages = maxQueuedMessages;
+        this.jsonCodec = jsonCodec;
+        this.metrics = metrics;
+        this.unwritableChannels = unwritableChannels;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        boolean frame = msg instanceof WebSocketFrame || msg instanceof WebSocketMessage;
+        // RFC 6455：发送关闭帧之后不能再发送任何帧
+        if (frame && closeSent) {
+            discard(msg, promise, CLOSE_SENT);
+            return;
+        }
+        if (msg instanceof CloseWebSocketFrame) {
+            closeSent = true;
+        }
+        // 已关闭的连接直接交给Netty，由其释放消息并使写入失败
+        if (!frame || !ctx.channel().isActive() || (queue.isEmpty() && ctx.channel().isWritable())) {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (isData(msg)) {
+            enqueue(ctx, msg, promise);
+        } else {
+            // 控制帧排在已排队的数据之后，保持写入顺序
+            queue.add(new Pending(msg, promise, false));
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (!queue.isEmpty() && ctx.channel().isWritable()) {
+            drain(ctx);
+        }
+        ctx.flush();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            setUnwritable(false);
+            if (!queue.isEmpty()) {
+                drain(ctx);
+                ctx.flush();
+            }
+        } else {
+            setUnwritable(true);
+            metrics.increment(METRIC_UNWRITABLE);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        discardAll();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        discardAll();
+    }
+
+    private void enqueue(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        Pending pending = new Pending(msg, promise, true);
+        queue.add(pending);
+        metrics.increment(METRIC_QUEUED);
+
+        if (queue.size() <= maxQueuedMessages) {
+            return;
+        }
+        if (policy == SlowConsumerPolicy.DISCONNECT) {
+            logger.warn("连接 {} 排队消息超过 {} 条，关闭慢消费者连接", ctx.channel().remoteAddress(), maxQueuedMessages);
+            metrics.increment(METRIC_DROPPED, discardAll());
+            metrics.increment(METRIC_DISCONNECTED);
+            ctx.close();
+            return;
+        }
+        if (policy == SlowConsumerPolicy.COALESCE && coalesce(pending)) {
+            return;
+        }
+        // 只丢弃数据消息，控制帧保留
+        Iterator<Pending> it = queue.iterator();
+        while (it.hasNext()) {
+            Pending oldest = it.next();
+            if (oldest.data) {
+                oldest.discard();
+                it.remove();
+                metrics.increment(METRIC_DROPPED);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 超过上限时，用新消息替换队列中合并键相同的较早消息
+     * @return 是否找到并丢弃了可替换的消息
+     */
+    private boolean coalesce(Pending latest) {
+        Object key = coalesceKey(latest);
+        if (key == null) {
+            return false;
+        }
+        Iterator<Pending> it = queue.iterator();
+        while (it.hasNext()) {
+            Pending pending = it.next();
+            if (pending == latest) {
+                return false;
+            }
+            if (pending.data && key.equals(coalesceKey(pending))) {
+                pending.discard();
+                it.remove();
+                metrics.increment(METRIC_COALESCED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isData(Object msg) {
+        return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame || msg instanceof WebSocketMessage;
+    }
+
+    /**
+     * 释放消息并使写入失败，voidPromise不通知
+     */
+    private static void discard(Object msg, ChannelPromise promise, Throwable cause) {
+        ReferenceCountUtil.release(msg);
+        // 扇出使用voidPromise，失败不需要通知
+        if (!promise.isVoid()) {
+            promise.tryFailure(cause);
+        }
+    }
+
+    /**
+     * 按顺序写出排队的消息，直到队列为空或连接再次不可写
+     */
+    private void drain(ChannelHandlerContext ctx) {
+        Pending pending;
+        while (ctx.channel().isWritable() && (pending = queue.poll()) != null) {
+            ctx.write(pending.msg, pending.promise);
+        }
+    }
+
+    /**
+     * 释放全部排队的消息
+     * @return 释放的消息数
+     */
+    private int discardAll() {
+        int discarded = queue.size();
+        for (Pending pending : queue) {
+            pending.discard();
+        }
+        queue.clear();
+        setUnwritable(false);
+        return discarded;
+    }
+
+    private void setUnwritable(boolean value) {
+        if (unwritable != value) {
+            unwritable = value;
+            if (value) {
+                unwritableChannels.incrementAndGet();
+            } else {
+                unwritableChannels.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 合并键：消息类型、发送者和接收者，只有状态类消息（{@link #COALESCED_TYPES}）可以合并，其余返回null。
+     * 只在超过上限时计算，结果缓存在排队项上；文本帧先按字节查找类型名，包含时才解析JSON
+     */
+    private Object coalesceKey(Pending pending) {
+        if (!pending.keyResolved) {
+            pending.keyResolved = true;
+            WebSocketMessage message = null;
+            if (pending.msg instanceof WebSocketMessage) {
+                message = (WebSocketMessage) pending.msg;
+            } else if (pending.msg instanceof TextWebSocketFrame && mayBeCoalesced(((TextWebSocketFrame) pending.msg).content())) {
+                try {
+                    message = jsonCodec.decode(((TextWebSocketFrame) pending.msg).content());
+                } catch (IOException e) {
+                    message = null;
+                }
+            }
+            if (message != null && COALESCED_TYPES.contains(message.getType())) {
+                pending.key = message.getType() + '\0' + message.getSenderId() + '\0' + message.getReceiverId();
+            }
+        }
+        return pending.key;
+    }
+
+    private static boolean mayBeCoalesced(ByteBuf content) {
+        for (ByteBuf marker : COALESCED_TYPE_MARKERS) {
+            if (ByteBufUtil.indexOf(marker, content) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 排队的消息和对应的写入结果
+     */
+    private static class Pending {
+
+        private final Object msg;
+        private final ChannelPromise promise;
+        // 数据消息（文本、二进制），控制帧为false
+        private final boolean data;
+        // 合并键，只在需要时计算
+        private boolean keyResolved;
+        private Object key;
+
+        Pending(Object msg, ChannelPromise promise, boolean data) {
+            this.msg = msg;
+            this.promise = promise;
+            this.data = data;
+        }
+
+        void discard() {
+            SlowConsumerHandler.discard(msg, promise, DROPPED);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.nettywebsocket.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 慢消费者策略：连接不可写、排队的出站消息超过上限时的处理方式
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * 丢弃最早排队的消息
+     */
+    DROP_OLDEST("drop-oldest"),
+
+    /**
+     * 超过上限时，新消息替换队列中同一类型、同一发送者和接收者的较早消息（只限客服状态等状态类消息，聊天消息不合并），
+     * 没有可替换的消息时丢弃最早排队的消息
+     */
+    COALESCE("coalesce"),
+
+    /**
+     * 关闭连接
+     */
+    DISCONNECT("disconnect");
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerPolicy.class);
+
+    // 配置中使用的名称
+    private final String configName;
+
+    SlowConsumerPolicy(String configName) {
+        this.configName = configName;
+    }
+
+    public String getConfigName() {
+        return configName;
+    }
+
+    /**
+     * 根据配置选择策略
+     * @param name 配置值：drop-oldest、coalesce、disconnect
+     * @return 对应的策略，未知的配置值使用DROP_OLDEST
+     */
+    public static SlowConsumerPolicy resolve(String name) {
+        if (name != null) {
+            for (SlowConsumerPolicy policy : values()) {
+                if (policy.configName.equalsIgnoreCase(name.trim())) {
+                    return policy;
+                }
+            }
+        }
+        logger.warn("未知的慢消费者策略 {}，使用 {}", name, DROP_OLDEST.configName);
+        return DROP_OLDEST;
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.nettywebsocket.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 客服负载索引（带位置索引的最小堆）
+ * 每个客服有各自的容量，堆按负载率（负载/容量）排序，已满的客服排在未满的客服之后，
+ * 堆顶即为负载率最低且未满的客服；选择和负载、容量变更都是O(log n)，只有添加客服时才分配对象
+ * 所有方法都是同步的，调用方需要与其他状态一起原子更新时可以对该对象加锁
+ */
+public class AgentLoadIndex {
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private Node[] heap = new Node[16];
+    private int size;
+
+    /**
+     * 添加客服，已存在时更新负载和容量
+     * @param agentId 客服ID
+     * @param load 当前负载
+     * @param capacity 最大服务人数
+     */
+    public synchronized void add(String agentId, int load, int capacity) {
+        Node node = nodes.get(agentId);
+        if (node != null) {
+            node.load = load;
+            node.capacity = capacity;
+            fix(node.index);
+            return;
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        node = new Node(agentId, load, capacity, size);
+        nodes.put(agentId, node);
+        heap[size++] = node;
+        siftUp(node.index);
+    }
+
+    /**
+     * 移除客服
+     * @param agentId 客服ID
+     * @return 是否存在
+     */
+    public synchronized boolean remove(String agentId) {
+        Node node = nodes.remove(agentId);
+        if (node == null) {
+            return false;
+        }
+        int index = node.index;
+        Node last = heap[--size];
+        heap[size] = null;
+        if (last != node) {
+            heap[index] = last;
+            last.index = index;
+            fix(index);
+        }
+        return true;
+    }
+
+    /**
+     * 选择负载率最低且未满的客服，并将其负载加1
+     * @return 客服ID，所有客服都已满时返回null
+     */
+    public synchronized String pickAndIncrement() {
+        if (size == 0 || heap[0].isFull()) {
+            return null;
+        }
+        Node node = heap[0];
+        node.load++;
+        siftDown(0);
+        return node.agentId;
+    }
+
+    /**
+     * 查看负载率最低且未满的客服，不修改负载
+     * @return 客服ID，所有客服都已满时返回null
+     */
+    public synchronized String peekAvailable() {
+        if (size == 0 || heap[0].isFull()) {
+            return null;
+        }
+        return heap[0].agentId;
+    }
+
+    /**
+     * 调整客服负载，负载不会小于0
+     * @param agentId 客服ID
+     * @param delta 增量
+     */
+    public synchronized void increment(String agentId, int delta) {
+        Node node = nodes.get(agentId);
+        if (node != null) {
+            node.load = Math.max(0, node.load + delta);
+            fix(node.index);
+        }
+    }
+
+    /**
+     * 设置客服负载
+     * @param agentId 客服ID
+     * @param load 负载
+     */
+    public synchronized void setLoad(String agentId, int load) {
+        Node node = nodes.get(agentId);
+        if (node != null && node.load != load) {
+            node.load = load;
+            fix(node.index);
+        }
+    }
+
+    /**
+     * 设置客服容量
+     * @param agentId 客服ID
+     * @param capacity 最大服务人数
+     */
+    public synchronized void setCapacity(String agentId, int capacity) {
+        Node node = nodes.get(agentId);
+        if (node != null && node.capacity != capacity) {
+            node.capacity = capacity;
+            fix(node.index);
+        }
+    }
+
+    /**
+     * 获取客服负载
+     * @param agentId 客服ID
+     * @return 负载，客服不存在时返回null
+     */
+    public synchronized Integer getLoad(String agentId) {
+        Node node = nodes.get(agentId);
+        return node != null ? node.load : null;
+    }
+
+    /**
+     * 获取客服容量
+     * @param agentId 客服ID
+     * @return 容量，客服不存在时返回null
+     */
+    public synchronized Integer getCapacity(String agentId) {
+        Node node = nodes.get(agentId);
+        return node != null ? node.capacity : null;
+    }
+
+    /**
+     * 是否包含客服
+     */
+    public synchronized boolean contains(String agentId) {
+        return nodes.containsKey(agentId);
+    }
+
+    /**
+     * 客服数量
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 节点的排序键变化后恢复堆序
+     */
+    private void fix(int index) {
+        Node node = heap[index];
+        siftUp(index);
+        if (node.index == index) {
+            siftDown(index);
+        }
+    }
+
+    private void siftUp(int index) {
+        Node node = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            Node parentNode = heap[parent];
+            if (!less(node, parentNode)) {
+                break;
+            }
+            heap[index] = parentNode;
+            parentNode.index = index;
+            index = parent;
+        }
+        heap[index] = node;
+        node.index = index;
+    }
+
+    private void siftDown(int index) {
+        Node node = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && less(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!less(heap[child], node)) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].index = index;
+            index = child;
+        }
+        heap[index] = node;
+        node.index = index;
+    }
+
+    /**
+     * a是否应排在b之前：未满的在前，同为未满或已满时负载率低的在前（交叉相乘比较，避免浮点运算）
+     */
+    private static boolean less(Node a, Node b) {
+        boolean aFull = a.isFull();
+        if (aFull != b.isFull()) {
+            return !aFull;
+        }
+        return (long) a.load * b.capacity < (long) b.load * a.capacity;
+    }
+
+    /**
+     * 堆节点，记录自身在堆数组中的位置
+     */
+    private static class Node {
+
+        private final String agentId;
+        private int load;
+        private int capacity;
+        private int index;
+
+        Node(String agentId, int load, int capacity, int index) {
+            this.agentId = agentId;
+            this.load = load;
+            this.capacity = capacity;
+            this.index = index;
+        }
+
+        boolean isFull() {
+            return load >= capacity;
+        }
+    }
+}
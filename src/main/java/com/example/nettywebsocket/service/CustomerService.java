@@ -1,20 +1,31 @@
 package com.example.nettywebsocket.service;
 
+import com.example.nettywebsocket.handler.WebSocketMessageCodec;
 import com.example.nettywebsocket.manager.WebSocketConnectionManager;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
 import com.example.nettywebsocket.model.Conversation;
 import com.example.nettywebsocket.model.MessageRecord;
 import com.example.nettywebsocket.model.WebSocketMessage;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.netty.channel.Channel;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import com.example.nettywebsocket.util.RedisUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -27,10 +38,52 @@ public class CustomerService {
 
     // Redis键前缀
     private static final String REDIS_PREFIX = "websocket:";
-    private static final String CUSTOMER_SERVICE_KEY = REDIS_PREFIX + "customer:service";
-    private static final String CUSTOMER_SERVICE_LOAD_KEY = REDIS_PREFIX + "customer:service:load:";
-    private static final String USER_CUSTOMER_SERVICE_KEY = REDIS_PREFIX + "user:customer:service:";
-    private static final String CUSTOMER_SERVICE_USERS_KEY = REDIS_PREFIX + "customer:service:users:";
+    // 客服分配相关的键都带有哈希标签 {customer:service}，使用Redis集群时位于同一个slot，可以在一个脚本中访问
+    private static final String CUSTOMER_SERVICE_KEY = REDIS_PREFIX + "{customer:service}";
+    // 客服负载有序集合：成员为客服ID，分数为当前服务人数
+    private static final String CUSTOMER_SERVICE_LOAD_INDEX_KEY = CUSTOMER_SERVICE_KEY + ":loads";
+    private static final String USER_CUSTOMER_SERVICE_KEY = CUSTOMER_SERVICE_KEY + ":user:";
+    private static final String CUSTOMER_SERVICE_USERS_KEY = CUSTOMER_SERVICE_KEY + ":users:";
+    // 客服容量哈希：客服ID -> 单独设置的最大服务人数，未设置的客服使用maxUsersPerAgent
+    private static final String CUSTOMER_SERVICE_CAPACITY_KEY = CUSTOMER_SERVICE_KEY + ":capacity";
+    // 客服技能哈希：客服ID -> 逗号分隔的技能标签
+    private static final String CUSTOMER_SERVICE_SKILLS_KEY = CUSTOMER_SERVICE_KEY + ":skills";
+    // 用户路由哈希：用户ID -> "队列|优先级"，只保存非默认路由
+    private static final String USER_ROUTING_KEY = CUSTOMER_SERVICE_KEY + ":user:routing";
+    // 等待队列有序集合：成员为暂无客服的用户ID，分数见RoutingRequest.waitingScore，按优先级和等待时间先后分配
+    // 默认队列使用该键，技能队列的键为 该键:技能
+    private static final String WAITING_USERS_KEY = CUSTOMER_SERVICE_KEY + ":waiting";
+    // 出现过等待用户的队列名称集合
+    private static final String WAITING_QUEUES_KEY = CUSTOMER_SERVICE_KEY + ":waiting-queues";
+
+    public static final String METRIC_WAITING_DEPTH = "websocket.waiting.depth";
+    public static final String METRIC_WAITING_ENQUEUED = "websocket.waiting.enqueued";
+    public static final String METRIC_WAITING_TIME = "websocket.waiting.time";
+
+    // 分配客服：原子地复核候选客服的容量、增加负载并记录映射，候选客服不可用时给出下一个候选客服
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> ASSIGN_AGENT_SCRIPT = loadScript("scripts/assign_agent.lua", List.class);
+
+    // 解除用户与客服的关联并减少客服负载
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> RELEASE_AGENT_SCRIPT = loadScript("scripts/release_agent.lua", List.class);
+
+    // 按等待时间顺序取出不超过客服剩余容量的等待用户并分配给该客服
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> ASSIGN_WAITING_SCRIPT = loadScript("scripts/assign_waiting.lua", List.class);
+
+    // 客服下线：移除客服并把它的用户批量重新分配给其他客服
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> REASSIGN_AGENT_USERS_SCRIPT = loadScript("scripts/reassign_agent_users.lua", List.class);
+
+    // 脚本要访问的键由调用方预先读取，读取后数据发生变化时脚本返回重试，最多执行的次数
+    private static final int MAX_SCRIPT_ATTEMPTS = 3;
+    // 脚本返回的需要重试的状态
+    private static final int SCRIPT_RETRY = -1;
+    // 分配脚本中候选客服不可用、给出了下一个候选客服的状态
+    private static final int ASSIGN_NEXT_CANDIDATE = 2;
+    // 候选客服不可用时，分配脚本按负载从低到高查找下一个候选客服的数量上限
+    private static final int CANDIDATE_SEARCH_LIMIT = 16;
 
     @Autowired(required = false)
     private RedisUtil redisUtil;
@@ -41,209 +94,435 @@ public class CustomerService {
     @Autowired
     private ObjectMapper objectMapper;
     
+    @Autowired
+    private WebSocketMessageCodec messageCodec;
+    
     @Autowired
     private ConversationService conversationService;
 
-    // 客服同时服务的最大用户数
+    @Autowired
+    private WebSocketMetrics metrics;
+
+    // 客服同时服务的最大用户数（未单独设置容量的客服使用该值）
     @Value("${netty.websocket.maxUsersPerAgent:20}")
     private int maxUsersPerAgent;
 
+    // 本节点负载索引与Redis负载有序集合的校准间隔（毫秒）
+    @Value("${netty.websocket.agentLoadReconcileInterval:1000}")
+    private long agentLoadReconcileIntervalMillis;
+
+    // 等待队列长度指标的刷新间隔（毫秒），使用Redis时指标读取缓存的值，不在每次采集时查询Redis
+    @Value("${netty.websocket.waitingDepthRefreshInterval:1000}")
+    private long waitingDepthRefreshIntervalMillis;
+
     // 本地缓存 - 客服在线状态
     private final Map<String, Boolean> onlineAgents = new ConcurrentHashMap<>();
     
     // 本地存储 - 客服服务相关数据（Redis降级时使用）
     private final Map<String, Set<String>> localCustomerServiceUsers = new ConcurrentHashMap<>(); // 客服-用户映射
     private final Map<String, String> localUserCustomerService = new ConcurrentHashMap<>(); // 用户-客服映射
-    private final Map<String, Integer> localCustomerServiceLoad = new ConcurrentHashMap<>(); // 客服负载
+    private final Map<String, RoutingRequest> localUserRouting = new ConcurrentHashMap<>(); // 用户路由（只保存非默认路由）
+    private final Map<String, WaitingQueue> localWaitingQueues = new HashMap<>(); // 队列名称 -> 等待队列，由routingEngine锁保护
+
+    // 路由引擎：本地存储时即为客服负载数据，Redis存储时为本节点视图，用于推荐候选客服，定期与Redis校准
+    // 注册RoutingEngine类型的Bean可以替换默认的技能路由
+    @Autowired(required = false)
+    private RoutingEngine routingEngine = new SkillRoutingEngine();
+
+    private ScheduledExecutorService reconcileScheduler;
+
+    // 最近一次刷新的等待队列长度，使用Redis时由后台定期刷新
+    private volatile long waitingDepth;
+
+    @PostConstruct
+    public void start() {
+        routingEngine.setDefaultCapacity(maxUsersPerAgent);
+        if (redisUtil != null) {
+            metrics.gauge(METRIC_WAITING_DEPTH, () -> waitingDepth);
+            reconcileScheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("agent-load-reconcile", true));
+            reconcileScheduler.scheduleWithFixedDelay(this::reconcileAgents, 0, agentLoadReconcileIntervalMillis, TimeUnit.MILLISECONDS);
+            reconcileScheduler.scheduleWithFixedDelay(this::refreshWaitingDepth, 0, waitingDepthRefreshIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            // 本地存储直接在内存中计算
+            metrics.gauge(METRIC_WAITING_DEPTH, this::getWaitingCount);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (reconcileScheduler != null) {
+            reconcileScheduler.shutdownNow();
+        }
+    }
 
     /**
-     * 注册客服
+     * 用Redis中的客服负载、技能和容量校准本节点的路由引擎，只更新发生变化的客服
+     * 其他节点的分配和释放通过校准同步到本节点，两次校准之间的偏差只影响候选客服的选择，不影响容量的正确性
+     */
+    public void reconcileAgents() {
+        try {
+            Set<ZSetOperations.TypedTuple<Object>> tuples = redisUtil.getSortedSetRangeWithScores(CUSTOMER_SERVICE_LOAD_INDEX_KEY, 0, -1);
+            Map<String, Object> skillEntries = redisUtil.getHashEntries(CUSTOMER_SERVICE_SKILLS_KEY);
+            Map<String, Object> capacityEntries = redisUtil.getHashEntries(CUSTOMER_SERVICE_CAPACITY_KEY);
+            if (tuples == null || skillEntries == null || capacityEntries == null) {
+                return;
+            }
+            Map<String, Integer> loads = new HashMap<>(tuples.size() * 2);
+            for (ZSetOperations.TypedTuple<Object> tuple : tuples) {
+                if (tuple.getValue() != null && tuple.getScore() != null) {
+                    loads.put(String.valueOf(tuple.getValue()), tuple.getScore().intValue());
+                }
+            }
+            Map<String, Set<String>> skills = new HashMap<>(skillEntries.size() * 2);
+            skillEntries.forEach((agentId, value) -> skills.put(agentId, parseSkills(String.valueOf(value))));
+            Map<String, Integer> capacities = new HashMap<>(capacityEntries.size() * 2);
+            capacityEntries.forEach((agentId, value) -> {
+                if (value instanceof Number) {
+                    capacities.put(agentId, ((Number) value).intValue());
+                }
+            });
+            int changed = routingEngine.reconcile(loads, skills, capacities);
+            if (changed > 0) {
+                logger.debug("客服路由已校准，变化客服数: {}", changed);
+            }
+        } catch (Exception e) {
+            logger.error("校准客服路由失败", e);
+        }
+    }
+
+    /**
+     * 注册客服，使用默认容量且没有技能标签
      * @param agentId 客服ID
      */
     public void registerAgent(String agentId) {
+        registerAgent(agentId, Collections.emptySet(), null);
+    }
+
+    /**
+     * 注册客服
+     * @param agentId 客服ID
+     * @param skills 技能标签，客服可以服务默认队列和同名的技能队列
+     * @param capacity 最大服务人数，null表示使用maxUsersPerAgent
+     */
+    public void registerAgent(String agentId, Set<String> skills, Integer capacity) {
         try {
             if (redisUtil != null) {
                 // Redis可用时使用Redis存储
                 // 添加到客服列表
                 redisUtil.addToSet(CUSTOMER_SERVICE_KEY, agentId);
+                // 先写入技能和容量，再加入负载有序集合，加入后才会被分配
+                if (skills.isEmpty()) {
+                    redisUtil.removeFromHash(CUSTOMER_SERVICE_SKILLS_KEY, agentId);
+                } else {
+                    redisUtil.putHash(CUSTOMER_SERVICE_SKILLS_KEY, agentId, String.join(",", skills));
+                }
+                if (capacity == null) {
+                    redisUtil.removeFromHash(CUSTOMER_SERVICE_CAPACITY_KEY, agentId);
+                } else {
+                    redisUtil.putHash(CUSTOMER_SERVICE_CAPACITY_KEY, agentId, capacity);
+                }
                 // 初始化客服负载为0
-                redisUtil.set(CUSTOMER_SERVICE_LOAD_KEY + agentId, 0);
-                logger.info("客服 {} 已注册（Redis存储）", agentId);
+                redisUtil.addToSortedSet(CUSTOMER_SERVICE_LOAD_INDEX_KEY, agentId, 0);
+                routingEngine.addAgent(agentId, skills, capacity, 0);
+                logger.info("客服 {} 已注册（Redis存储），技能: {}，容量: {}", agentId, skills, capacity != null ? capacity : maxUsersPerAgent);
             } else {
                 // Redis不可用时使用本地存储
-                // 添加到本地客服列表
-                localCustomerServiceUsers.put(agentId, new HashSet<>());
-                // 初始化客服负载为0
-                localCustomerServiceLoad.put(agentId, 0);
-                logger.info("客服 {} 已注册（本地存储）", agentId);
+                synchronized (routingEngine) {
+                    // 添加到本地客服列表
+                    localCustomerServiceUsers.put(agentId, new HashSet<>());
+                    // 初始化客服负载为0
+                    routingEngine.addAgent(agentId, skills, capacity, 0);
+                }
+                logger.info("客服 {} 已注册（本地存储），技能: {}，容量: {}", agentId, skills, capacity != null ? capacity : maxUsersPerAgent);
             }
             
             // 更新本地缓存
             onlineAgents.put(agentId, true);
             
             // 客服上线后，自动分配等待的用户
-            assignWaitingUsersToNewAgent(agentId);
+            assignWaitingUsers(agentId);
         } catch (Exception e) {
             logger.error("注册客服失败", e);
         }
     }
 
     /**
-     * 注销客服
+     * 修改客服的最大服务人数，立即生效，容量增加时会分配等待的用户
+     * @param agentId 客服ID
+     * @param capacity 最大服务人数，null表示恢复为maxUsersPerAgent
+     * @return 客服是否存在
+     */
+    public boolean setAgentCapacity(String agentId, Integer capacity) {
+        try {
+            if (!isAgent(agentId)) {
+                return false;
+            }
+            if (redisUtil != null) {
+                if (capacity == null) {
+                    redisUtil.removeFromHash(CUSTOMER_SERVICE_CAPACITY_KEY, agentId);
+                } else {
+                    redisUtil.putHash(CUSTOMER_SERVICE_CAPACITY_KEY, agentId, capacity);
+                }
+            }
+            routingEngine.setCapacity(agentId, capacity);
+            logger.info("客服 {} 容量已修改为 {}", agentId, capacity != null ? capacity : maxUsersPerAgent);
+
+            assignWaitingUsers(agentId);
+            return true;
+        } catch (Exception e) {
+            logger.error("修改客服容量失败", e);
+            return false;
+        }
+    }
+
+    /**
+     * 获取客服的最大服务人数
+     * @param agentId 客服ID
+     */
+    public int getAgentCapacity(String agentId) {
+        Integer capacity = routingEngine.getCapacity(agentId);
+        return capacity != null ? capacity : maxUsersPerAgent;
+    }
+
+    /**
+     * 获取客服的技能标签
+     * @param agentId 客服ID
+     */
+    public Set<String> getAgentSkills(String agentId) {
+        return routingEngine.getSkills(agentId);
+    }
+
+    /**
+     * 解析逗号分隔的技能标签
+     */
+    public static Set<String> parseSkills(String value) {
+        Set<String> skills = new LinkedHashSet<>();
+        if (value != null) {
+            for (String skill : value.split(",")) {
+                if (!skill.trim().isEmpty()) {
+                    skills.add(skill.trim());
+                }
+            }
+        }
+        return skills;
+    }
+
+    /**
+     * 注销客服，并将其用户批量重新分配给其他客服
      * @param agentId 客服ID
      */
     public void unregisterAgent(String agentId) {
         try {
+            // 用户ID -> 新客服ID，null表示暂无容量，进入等待队列
+            Map<String, String> reassigned = new LinkedHashMap<>();
             if (redisUtil != null) {
-                // Redis可用时使用Redis存储
-                // 从客服列表移除
-                redisUtil.removeFromSet(CUSTOMER_SERVICE_KEY, agentId);
-                // 移除负载记录
-                redisUtil.delete(CUSTOMER_SERVICE_LOAD_KEY + agentId);
-                
-                // 获取该客服的所有用户并重新分配
-                Set<String> userIds = redisUtil.getSetMembers(CUSTOMER_SERVICE_USERS_KEY + agentId, String.class);
-                if (userIds != null) {
-                    for (String userId : userIds) {
-                        // 移除用户-客服映射
-                        redisUtil.delete(USER_CUSTOMER_SERVICE_KEY + userId);
-                        
-                        // 发送客服下线通知给用户
-                        try {
-                            WebSocketMessage userMsg = new WebSocketMessage();
-                            userMsg.setType(WebSocketMessage.TYPE_SYSTEM);
-                            userMsg.setContent("您的客服已下线，正在为您重新分配...");
-                            userMsg.setSenderId("system");
-                            userMsg.setReceiverId(userId);
-                            connectionManager.sendMessage(userId, objectMapper.writeValueAsString(userMsg));
-                        } catch (Exception e) {
-                            logger.error("发送客服下线通知失败", e);
-                        }
-                        
-                        // 重新分配用户
-                        assignCustomerService(userId);
+                // 移除客服、取出其用户并按各自的队列逐个分配给负载最低的客服在一次脚本调用中完成
+                List<?> result = null;
+                for (int attempt = 1; attempt <= MAX_SCRIPT_ATTEMPTS; attempt++) {
+                    result = reassignAgentUsers(agentId);
+                    if (!isRetry(result)) {
+                        break;
+                    }
+                }
+                routingEngine.removeAgent(agentId);
+                if (isRetry(result)) {
+                    logger.warn("客服 {} 的用户在注销期间持续变化，重试 {} 次后放弃重新分配", agentId, MAX_SCRIPT_ATTEMPTS);
+                } else if (result != null) {
+                    for (int i = 0; i + 1 < result.size(); i += 2) {
+                        Object newAgentId = result.get(i + 1);
+                        reassigned.put((String) result.get(i), newAgentId instanceof String ? (String) newAgentId : null);
+                    }
+                }
+                for (String newAgentId : reassigned.values()) {
+                    if (newAgentId != null) {
+                        routingEngine.adjustLoad(newAgentId, 1);
                     }
-                    // 清除客服用户列表
-                    redisUtil.delete(CUSTOMER_SERVICE_USERS_KEY + agentId);
                 }
                 logger.info("客服 {} 已注销（Redis存储）", agentId);
             } else {
-                // Redis不可用时使用本地存储
-                // 获取该客服的所有用户并重新分配
-                Set<String> userIds = localCustomerServiceUsers.get(agentId);
-                if (userIds != null) {
-                    for (String userId : userIds) {
-                        // 移除用户-客服映射
-                        localUserCustomerService.remove(userId);
-                        
-                        // 发送客服下线通知给用户
-                        try {
-                            WebSocketMessage userMsg = new WebSocketMessage();
-                            userMsg.setType(WebSocketMessage.TYPE_SYSTEM);
-                            userMsg.setContent("您的客服已下线，正在为您重新分配...");
-                            userMsg.setSenderId("system");
-                            userMsg.setReceiverId(userId);
-                            connectionManager.sendMessage(userId, objectMapper.writeValueAsString(userMsg));
-                        } catch (Exception e) {
-                            logger.error("发送客服下线通知失败", e);
+                synchronized (routingEngine) {
+                    // 先移除负载记录，重新分配时不会再选中该客服
+                    routingEngine.removeAgent(agentId);
+                    Set<String> userIds = localCustomerServiceUsers.remove(agentId);
+                    if (userIds != null) {
+                        long now = System.currentTimeMillis();
+                        for (String userId : userIds) {
+                            if (!agentId.equals(localUserCustomerService.get(userId))) {
+                                continue;
+                            }
+                            RoutingRequest routing = localUserRouting.getOrDefault(userId, RoutingRequest.DEFAULT);
+                            String newAgentId = routingEngine.pickAndIncrement(routing.getQueue());
+                            if (newAgentId != null) {
+                                localUserCustomerService.put(userId, newAgentId);
+                                localCustomerServiceUsers.get(newAgentId).add(userId);
+                            } else {
+                                localUserCustomerService.remove(userId);
+                                localWaitingQueue(routing.getQueue()).add(userId, routing.waitingScore(now));
+                            }
+                            reassigned.put(userId, newAgentId);
                         }
-                        
-                        // 重新分配用户
-                        assignCustomerService(userId);
                     }
                 }
-                // 清除本地存储
-                localCustomerServiceUsers.remove(agentId);
-                localCustomerServiceLoad.remove(agentId);
                 logger.info("客服 {} 已注销（本地存储）", agentId);
             }
-            
+
             // 更新本地缓存
             onlineAgents.remove(agentId);
+
+            if (!reassigned.isEmpty()) {
+                sendReassignmentNotifications(reassigned);
+                for (Map.Entry<String, String> entry : reassigned.entrySet()) {
+                    if (entry.getValue() != null) {
+                        createNewConversation(entry.getKey(), entry.getValue());
+                    } else {
+                        metrics.increment(METRIC_WAITING_ENQUEUED);
+                    }
+                }
+                logger.info("客服 {} 下线，重新分配了 {} 个用户", agentId, reassigned.size());
+            }
         } catch (Exception e) {
             logger.error("注销客服失败", e);
         }
     }
 
     /**
-     * 分配客服给用户
-     * @param userId 用户ID
-     * @return 分配的客服ID
+     * 批量发送客服下线后的重新分配通知：每个用户一条通知，每个新客服一条汇总通知，合并为一次批量发送
+     * @param reassigned 用户ID -> 新客服ID，null表示进入等待队列
      */
-    public String assignCustomerService(String userId) {
+    private void sendReassignmentNotifications(Map<String, String> reassigned) {
+        Map<String, ByteBuf> messages = new HashMap<>();
         try {
-            // 检查用户是否已分配客服
-            String existingAgentId = null;
-            if (redisUtil != null) {
-                existingAgentId = redisUtil.get(USER_CUSTOMER_SERVICE_KEY + userId,String.class);
-            } else {
-                existingAgentId = localUserCustomerService.get(userId);
+            Map<String, List<String>> usersByAgent = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry : reassigned.entrySet()) {
+                String userId = entry.getKey();
+                String newAgentId = entry.getValue();
+                WebSocketMessage userMsg = new WebSocketMessage();
+                if (newAgentId != null) {
+                    userMsg.setType(WebSocketMessage.TYPE_CS_ASSIGN);
+                    userMsg.setContent("您的客服已下线，已为您重新分配客服: " + newAgentId);
+                    usersByAgent.computeIfAbsent(newAgentId, k -> new ArrayList<>()).add(userId);
+                } else {
+                    userMsg.setType(WebSocketMessage.TYPE_SYSTEM);
+                    userMsg.setContent("您的客服已下线，正在为您重新分配，请稍候...");
+                }
+                userMsg.setSenderId("system");
+                userMsg.setReceiverId(userId);
+                messages.put(userId, messageCodec.encode(userMsg));
             }
-            
-            if (existingAgentId != null) {
-                return existingAgentId;
+            for (Map.Entry<String, List<String>> entry : usersByAgent.entrySet()) {
+                WebSocketMessage agentMsg = new WebSocketMessage();
+                agentMsg.setType(WebSocketMessage.TYPE_USER_JOIN);
+                agentMsg.setContent("用户 " + String.join(", ", entry.getValue()) + " 已转接给您，等待您的服务");
+                agentMsg.setSenderId("system");
+                agentMsg.setReceiverId(entry.getKey());
+                messages.put(entry.getKey(), messageCodec.encode(agentMsg));
+            }
+        } catch (Exception e) {
+            logger.error("发送重新分配通知失败", e);
+            // 编码失败时释放已编码的消息
+            for (ByteBuf payload : messages.values()) {
+                payload.release();
             }
+            return;
+        }
+        connectionManager.sendEncodedMessages(messages);
+    }
+
+    /**
+     * 分配客服给用户，使用默认队列和默认优先级
+     * @param userId 用户ID
+     * @return 分配的客服ID
+     */
+    public String assignCustomerService(String userId) {
+        return assignCustomerService(userId, RoutingRequest.DEFAULT);
+    }
 
-            // 获取所有在线客服
-            List<String> allAgents = null;
+    /**
+     * 分配客服给用户
+     * @param userId 用户ID
+     * @param routing 用户的队列和优先级，只会分配给可以服务该队列的客服
+     * @return 分配的客服ID
+     */
+    public String assignCustomerService(String userId, RoutingRequest routing) {
+        try {
+            String selectedAgentId;
             if (redisUtil != null) {
-                Set<String> redisAgents = redisUtil.getSetMembers(CUSTOMER_SERVICE_KEY, String.class);
-                if (redisAgents != null) {
-                    allAgents = new ArrayList<>(redisAgents);
+                // 检查已有分配、复核客服容量、增加负载和记录映射在Redis脚本中原子完成，多个节点并发分配也不会超过上限
+                // 本节点路由引擎推荐的客服在脚本中复核，仍可用时直接使用；否则用脚本按负载给出的下一个候选客服重试，
+                // 最后一次不再查找，没有可用客服时进入等待队列
+                String candidate = routingEngine.peek(routing.getQueue());
+                long waitingScore = routing.waitingScore(System.currentTimeMillis());
+                List<?> result;
+                for (int attempt = 1; ; attempt++) {
+                    List<String> keys = new ArrayList<>(Arrays.asList(CUSTOMER_SERVICE_LOAD_INDEX_KEY, USER_CUSTOMER_SERVICE_KEY + userId,
+                            waitingKey(routing.getQueue()), CUSTOMER_SERVICE_CAPACITY_KEY, CUSTOMER_SERVICE_SKILLS_KEY,
+                            USER_ROUTING_KEY, WAITING_QUEUES_KEY));
+                    if (candidate != null) {
+                        keys.add(CUSTOMER_SERVICE_USERS_KEY + candidate);
+                    }
+                    result = redisUtil.executeScript(ASSIGN_AGENT_SCRIPT, keys,
+                            maxUsersPerAgent, userId, candidate != null ? candidate : "", waitingScore,
+                            routing.getQueue(), routing.isDefault() ? "" : routing.format(),
+                            attempt < MAX_SCRIPT_ATTEMPTS ? CANDIDATE_SEARCH_LIMIT : 0);
+                    if (result == null || result.size() < 3 || ((Number) result.get(1)).intValue() != ASSIGN_NEXT_CANDIDATE) {
+                        break;
+                    }
+                    // 候选客服已满或已下线：用脚本返回的实际负载更新本节点路由引擎
+                    int load = ((Number) result.get(2)).intValue();
+                    if (candidate != null) {
+                        if (load < 0) {
+                            routingEngine.removeAgent(candidate);
+                        } else {
+                            routingEngine.setLoad(candidate, load);
+                        }
+                    }
+                    candidate = (String) result.get(0);
                 }
-            } else {
-                allAgents = new ArrayList<>(localCustomerServiceUsers.keySet());
-            }
-            
-            if (allAgents == null || allAgents.isEmpty()) {
-                logger.warn("暂无可用客服");
-                return null;
-            }
-
-            // 按负载从小到大排序客服
-            List<Map.Entry<String, Integer>> agentsWithLoad = new ArrayList<>();
-            for (String agentId : allAgents) {
-                Integer load = null;
-                if (redisUtil != null) {
-                    load = redisUtil.get(CUSTOMER_SERVICE_LOAD_KEY + agentId, Integer.class);
-                } else {
-                    load = localCustomerServiceLoad.get(agentId);
+                if (result == null || result.size() < 2) {
+                    // 脚本已将用户加入等待队列
+                    metrics.increment(METRIC_WAITING_ENQUEUED);
+                    logger.warn("暂无可用客服或所有客服负载已满，用户 {} 进入等待队列 {}", userId, routing);
+                    return null;
                 }
-                if (load == null) {
-                    load = 0;
+                selectedAgentId = (String) result.get(0);
+                // 用户已分配客服
+                if (((Number) result.get(1)).intValue() == 0) {
+                    return selectedAgentId;
                 }
-                // 只考虑负载未达到上限的客服
-                if (load < maxUsersPerAgent) {
-                    agentsWithLoad.add(new AbstractMap.SimpleEntry<>(agentId, load));
+                // 用脚本返回的实际负载更新本节点路由引擎
+                if (result.size() > 2) {
+                    routingEngine.setLoad(selectedAgentId, ((Number) result.get(2)).intValue());
                 }
-            }
-
-            // 按负载排序
-            agentsWithLoad.sort(Map.Entry.comparingByValue());
+            } else {
+                synchronized (routingEngine) {
+                    // 检查用户是否已分配客服
+                    String existingAgentId = localUserCustomerService.get(userId);
+                    if (existingAgentId != null) {
+                        return existingAgentId;
+                    }
 
-            if (agentsWithLoad.isEmpty()) {
-                logger.warn("所有客服负载已满");
-                return null;
-            }
+                    if (!routing.isDefault()) {
+                        localUserRouting.put(userId, routing);
+                    }
 
-            // 选择负载最小的客服
-            String selectedAgentId = agentsWithLoad.get(0).getKey();
+                    // 选择可以服务该队列、负载率最低且未满的客服并增加其负载
+                    selectedAgentId = routingEngine.pickAndIncrement(routing.getQueue());
+                    if (selectedAgentId == null) {
+                        // 加入等待队列，已在队列中的用户保留原来的位置
+                        localWaitingQueue(routing.getQueue()).add(userId, routing.waitingScore(System.currentTimeMillis()));
+                        metrics.increment(METRIC_WAITING_ENQUEUED);
+                        logger.warn("暂无可用客服或所有客服负载已满，用户 {} 进入等待队列 {}", userId, routing);
+                        return null;
+                    }
+                    localWaitingQueue(routing.getQueue()).remove(userId);
 
-            // 更新映射关系
-            if (redisUtil != null) {
-                redisUtil.set(USER_CUSTOMER_SERVICE_KEY + userId, selectedAgentId);
-                redisUtil.addToSet(CUSTOMER_SERVICE_USERS_KEY + selectedAgentId, userId);
-                // 增加客服负载
-                redisUtil.increment(CUSTOMER_SERVICE_LOAD_KEY + selectedAgentId);
-            } else {
-                localUserCustomerService.put(userId, selectedAgentId);
-                Set<String> users = localCustomerServiceUsers.get(selectedAgentId);
-                if (users != null) {
-                    users.add(userId);
+                    // 更新映射关系
+                    localUserCustomerService.put(userId, selectedAgentId);
+                    Set<String> users = localCustomerServiceUsers.get(selectedAgentId);
+                    if (users != null) {
+                        users.add(userId);
+                    }
                 }
-                // 增加客服负载
-                Integer currentLoad = localCustomerServiceLoad.get(selectedAgentId);
-                localCustomerServiceLoad.put(selectedAgentId, currentLoad != null ? currentLoad + 1 : 1);
             }
 
             // 发送通知消息
@@ -364,7 +643,7 @@ public class CustomerService {
             userMsg.setContent("您已分配给客服: " + agentId);
             userMsg.setSenderId("system");
             userMsg.setReceiverId(userId);
-            connectionManager.sendMessage(userId, objectMapper.writeValueAsString(userMsg));
+            connectionManager.sendMessage(userId, messageCodec.encode(userMsg));
 
             // 发送给客服的通知
             WebSocketMessage agentMsg = new WebSocketMessage();
@@ -372,7 +651,7 @@ public class CustomerService {
             agentMsg.setContent("用户 " + userId + " 已连接，等待您的服务");
             agentMsg.setSenderId("system");
             agentMsg.setReceiverId(agentId);
-            connectionManager.sendMessage(agentId, objectMapper.writeValueAsString(agentMsg));
+            connectionManager.sendMessage(agentId, messageCodec.encode(agentMsg));
         } catch (Exception e) {
             logger.error("发送分配通知失败", e);
         }
@@ -390,7 +669,7 @@ public class CustomerService {
             agentMsg.setContent("用户 " + userId + " 已离开");
             agentMsg.setSenderId("system");
             agentMsg.setReceiverId(agentId);
-            connectionManager.sendMessage(agentId, objectMapper.writeValueAsString(agentMsg));
+            connectionManager.sendMessage(agentId, messageCodec.encode(agentMsg));
         } catch (Exception e) {
             logger.error("发送用户离开通知失败", e);
         }
@@ -481,34 +760,43 @@ public class CustomerService {
         try {
             String agentId = null;
             if (redisUtil != null) {
-                agentId = redisUtil.get(USER_CUSTOMER_SERVICE_KEY + userId, String.class);
+                // 移除用户-客服映射、从客服用户列表中移除并减少客服负载
+                // 尚未分配客服的用户在脚本中从其等待队列中移除
+                for (int attempt = 1; attempt <= MAX_SCRIPT_ATTEMPTS; attempt++) {
+                    List<?> result = releaseAgent(userId);
+                    if (!isRetry(result)) {
+                        if (result != null && result.size() > 1) {
+                            agentId = (String) result.get(1);
+                        }
+                        break;
+                    }
+                    if (attempt == MAX_SCRIPT_ATTEMPTS) {
+                        logger.warn("用户 {} 的客服分配在断开期间持续变化，重试 {} 次后放弃解除关联", userId, MAX_SCRIPT_ATTEMPTS);
+                    }
+                }
+                if (agentId != null) {
+                    routingEngine.adjustLoad(agentId, -1);
+                }
             } else {
-                agentId = localUserCustomerService.get(userId);
-            }
-            
-            if (agentId != null) {
-                if (redisUtil != null) {
-                    // 移除用户-客服映射
-                    redisUtil.delete(USER_CUSTOMER_SERVICE_KEY + userId);
-                    // 从客服用户列表中移除
-                    redisUtil.removeFromSet(CUSTOMER_SERVICE_USERS_KEY + agentId, userId);
-                    // 减少客服负载
-                    redisUtil.decrement(CUSTOMER_SERVICE_LOAD_KEY + agentId);
-                } else {
+                synchronized (routingEngine) {
+                    RoutingRequest routing = localUserRouting.remove(userId);
                     // 移除用户-客服映射
-                    localUserCustomerService.remove(userId);
-                    // 从客服用户列表中移除
-                    Set<String> users = localCustomerServiceUsers.get(agentId);
-                    if (users != null) {
-                        users.remove(userId);
-                    }
-                    // 减少客服负载
-                    Integer currentLoad = localCustomerServiceLoad.get(agentId);
-                    if (currentLoad != null && currentLoad > 0) {
-                        localCustomerServiceLoad.put(agentId, currentLoad - 1);
+                    agentId = localUserCustomerService.remove(userId);
+                    if (agentId != null) {
+                        // 从客服用户列表中移除
+                        Set<String> users = localCustomerServiceUsers.get(agentId);
+                        if (users != null) {
+                            users.remove(userId);
+                        }
+                        // 减少客服负载
+                        routingEngine.adjustLoad(agentId, -1);
+                    } else {
+                        localWaitingQueue(routing != null ? routing.getQueue() : RoutingRequest.DEFAULT_QUEUE).remove(userId);
                     }
                 }
-                
+            }
+            
+            if (agentId != null) {
                 // 发送用户离开通知给客服
                 sendUserLeaveNotification(userId, agentId);
                 
@@ -524,6 +812,9 @@ public class CustomerService {
                 }
                 
                 logger.info("用户 {} 已从客服 {} 服务列表中移除", userId, agentId);
+
+                // 客服空出了位置，分配等待的用户
+                assignWaitingUsers(agentId);
             }
         } catch (Exception e) {
             logger.error("移除用户客服关联失败", e);
@@ -556,10 +847,10 @@ public class CustomerService {
     public int getAgentLoad(String agentId) {
         try {
             if (redisUtil != null) {
-                Integer load = redisUtil.get(CUSTOMER_SERVICE_LOAD_KEY + agentId, Integer.class);
-                return load != null ? load : 0;
+                Double load = redisUtil.getSortedSetScore(CUSTOMER_SERVICE_LOAD_INDEX_KEY, agentId);
+                return load != null ? load.intValue() : 0;
             } else {
-                Integer load = localCustomerServiceLoad.get(agentId);
+                Integer load = routingEngine.getLoad(agentId);
                 return load != null ? load : 0;
             }
         } catch (Exception e) {
@@ -569,11 +860,12 @@ public class CustomerService {
     }
 
     /**
-     * 设置客服最大服务人数
+     * 设置客服默认最大服务人数，未单独设置容量的客服使用该值
      * @param maxUsersPerAgent 最大服务人数
      */
     public void setMaxUsersPerAgent(int maxUsersPerAgent) {
         this.maxUsersPerAgent = maxUsersPerAgent;
+        routingEngine.setDefaultCapacity(maxUsersPerAgent);
     }
     
     /**
@@ -601,114 +893,251 @@ public class CustomerService {
     }
     
     /**
-     * 客服上线后，自动分配等待的用户给新客服
-     * @param newAgentId 新上线的客服ID
+     * 刷新等待队列长度指标（后台线程执行）
      */
-    private void assignWaitingUsersToNewAgent(String newAgentId) {
+    private void refreshWaitingDepth() {
         try {
-            // 获取所有在线用户
-            Map<String, Channel> allConnections = connectionManager.getAllConnections();
-            if (allConnections == null || allConnections.isEmpty()) {
-                return;
+            waitingDepth = getWaitingCount();
+        } catch (Exception e) {
+            logger.error("刷新等待队列长度失败", e);
+        }
+    }
+
+    /**
+     * 获取所有等待队列中的用户数，使用Redis时先读取队列名称，再以管道方式一次读取所有队列的长度
+     */
+    public long getWaitingCount() {
+        if (redisUtil != null) {
+            Set<String> queues = redisUtil.getSetMembers(WAITING_QUEUES_KEY, String.class);
+            if (queues == null || queues.isEmpty()) {
+                return 0;
             }
-            
-            // 查找没有分配客服的在线用户（等待中的用户）
-            List<String> waitingUsers = new ArrayList<>();
-            for (Map.Entry<String, Channel> entry : allConnections.entrySet()) {
-                String userId = entry.getKey();
-                
-                // 检查用户是否已分配客服
-                String assignedAgentId = getAgentForUser(userId);
-                if (assignedAgentId == null) {
-                    // 检查用户是否为普通用户（不是客服）
-                    if (!isAgent(userId)) {
-                        waitingUsers.add(userId);
-                    }
-                }
+            List<String> keys = new ArrayList<>(queues.size());
+            for (String queue : queues) {
+                keys.add(waitingKey(queue));
             }
-            
-            if (waitingUsers.isEmpty()) {
-                logger.info("客服 {} 上线，当前没有等待的用户", newAgentId);
-                return;
+            List<Long> sizes = redisUtil.getSortedSetSizes(keys);
+            if (sizes == null) {
+                return 0;
             }
-            
-            logger.info("客服 {} 上线，发现 {} 个等待的用户，开始分配", newAgentId, waitingUsers.size());
-            
-            // 按顺序分配用户给新客服，但不超过客服的最大负载
-            int assignedCount = 0;
-            int currentLoad = getAgentLoad(newAgentId);
-            
-            for (String userId : waitingUsers) {
-                // 检查客服是否还有容量
-                if (currentLoad >= maxUsersPerAgent) {
-                    logger.info("客服 {} 负载已满（{}/{}），停止分配", newAgentId, currentLoad, maxUsersPerAgent);
-                    break;
-                }
-                
-                // 分配用户给新客服
-                assignUserToAgent(userId, newAgentId);
-                assignedCount++;
-                currentLoad++;
-                
-                logger.info("将等待用户 {} 分配给新上线客服 {}", userId, newAgentId);
+            long count = 0;
+            for (Long size : sizes) {
+                count += size;
             }
-            
-            logger.info("客服 {} 上线后，成功分配了 {} 个等待用户", newAgentId, assignedCount);
-            
-        } catch (Exception e) {
-            logger.error("分配等待用户给新客服失败", e);
+            return count;
+        }
+        synchronized (routingEngine) {
+            long count = 0;
+            for (WaitingQueue queue : localWaitingQueues.values()) {
+                count += queue.size();
+            }
+            return count;
         }
     }
-    
+
     /**
-     * 直接将用户分配给指定客服（不进行负载均衡）
-     * @param userId 用户ID
-     * @param agentId 客服ID
+     * 从客服可以服务的等待队列（默认队列和其技能队列）中按优先级和等待时间顺序分配用户，一次取出不超过客服剩余容量的用户
+     * @param agentId 有空余容量的客服ID（新上线、刚有用户离开或容量增加）
      */
-    private void assignUserToAgent(String userId, String agentId) {
+    private void assignWaitingUsers(String agentId) {
         try {
-            // 检查用户是否已分配客服
-            String existingAgentId = null;
+            // 用户ID -> 等待队列分数，保持分配顺序
+            Map<String, Long> assigned = new LinkedHashMap<>();
+            Set<String> skills = routingEngine.getSkills(agentId);
             if (redisUtil != null) {
-                existingAgentId = redisUtil.get(USER_CUSTOMER_SERVICE_KEY + userId,String.class);
+                List<String> queueKeys = new ArrayList<>(skills.size() + 1);
+                queueKeys.add(waitingKey(RoutingRequest.DEFAULT_QUEUE));
+                for (String skill : skills) {
+                    queueKeys.add(waitingKey(skill));
+                }
+                List<String> keys = new ArrayList<>();
+                keys.add(CUSTOMER_SERVICE_LOAD_INDEX_KEY);
+                keys.add(CUSTOMER_SERVICE_USERS_KEY + agentId);
+                keys.add(CUSTOMER_SERVICE_CAPACITY_KEY);
+                keys.addAll(queueKeys);
+                List<Object> args = new ArrayList<>();
+                args.add(agentId);
+                args.add(maxUsersPerAgent);
+                args.add(queueKeys.size());
+                // 先读取各队列中不超过客服容量的队首用户作为候选，脚本只访问由此确定的键，并按分数和实际剩余容量完成分配
+                int capacity = getAgentCapacity(agentId);
+                for (int i = 0; i < queueKeys.size() && capacity > 0; i++) {
+                    Set<Object> head = redisUtil.getSortedSetRange(queueKeys.get(i), 0, capacity - 1);
+                    if (head != null) {
+                        for (Object user : head) {
+                            keys.add(USER_CUSTOMER_SERVICE_KEY + user);
+                            args.add(user);
+                            args.add(i + 1);
+                        }
+                    }
+                }
+                List<?> result = keys.size() > 3 + queueKeys.size()
+                        ? redisUtil.executeScript(ASSIGN_WAITING_SCRIPT, keys, args.toArray()) : null;
+                if (result != null) {
+                    for (int i = 0; i + 1 < result.size(); i += 2) {
+                        assigned.put((String) result.get(i), ((Number) result.get(i + 1)).longValue());
+                    }
+                }
+                if (!assigned.isEmpty()) {
+                    routingEngine.adjustLoad(agentId, assigned.size());
+                }
             } else {
-                existingAgentId = localUserCustomerService.get(userId);
+                synchronized (routingEngine) {
+                    Integer load = routingEngine.getLoad(agentId);
+                    Integer capacity = routingEngine.getCapacity(agentId);
+                    Set<String> users = localCustomerServiceUsers.get(agentId);
+                    if (load == null || capacity == null || users == null) {
+                        return;
+                    }
+                    List<WaitingQueue> queues = new ArrayList<>(skills.size() + 1);
+                    addIfPresent(queues, localWaitingQueues.get(RoutingRequest.DEFAULT_QUEUE));
+                    for (String skill : skills) {
+                        addIfPresent(queues, localWaitingQueues.get(skill));
+                    }
+                    while (assigned.size() < capacity - load) {
+                        // 在各队列的队首中选出分数最小的用户
+                        WaitingQueue head = null;
+                        for (WaitingQueue queue : queues) {
+                            Long score = queue.peekScore();
+                            if (score != null && (head == null || score < head.peekScore())) {
+                                head = queue;
+                            }
+                        }
+                        if (head == null) {
+                            break;
+                        }
+                        WaitingQueue.Entry entry = head.poll();
+                        if (!localUserCustomerService.containsKey(entry.userId)) {
+                            localUserCustomerService.put(entry.userId, agentId);
+                            users.add(entry.userId);
+                            assigned.put(entry.userId, entry.score);
+                        }
+                    }
+                    routingEngine.adjustLoad(agentId, assigned.size());
+                }
             }
-            
-            if (existingAgentId != null) {
-                logger.warn("用户 {} 已分配给客服 {}，无需重新分配", userId, existingAgentId);
+
+            if (assigned.isEmpty()) {
+                logger.debug("客服 {} 当前没有可分配的等待用户", agentId);
                 return;
             }
-            
-            // 更新映射关系
-            if (redisUtil != null) {
-                redisUtil.set(USER_CUSTOMER_SERVICE_KEY + userId, agentId);
-                redisUtil.addToSet(CUSTOMER_SERVICE_USERS_KEY + agentId, userId);
-                
-                // 增加客服负载
-                redisUtil.increment(CUSTOMER_SERVICE_LOAD_KEY + agentId);
-            } else {
-                // 使用本地存储
-                localUserCustomerService.put(userId, agentId);
-                Set<String> users = localCustomerServiceUsers.get(agentId);
-                if (users != null) {
-                    users.add(userId);
-                }
-                // 增加客服负载
-                Integer currentLoad = localCustomerServiceLoad.get(agentId);
-                localCustomerServiceLoad.put(agentId, currentLoad != null ? currentLoad + 1 : 1);
+
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Long> entry : assigned.entrySet()) {
+                long waited = now - RoutingRequest.enqueueTime(entry.getValue());
+                metrics.recordTime(METRIC_WAITING_TIME, TimeUnit.MILLISECONDS.toNanos(Math.max(0, waited)));
+                // 发送通知消息
+                sendAssignmentNotifications(entry.getKey(), agentId);
+                // 创建会话
+                createNewConversation(entry.getKey(), agentId);
             }
-            
-            // 发送通知消息
-            sendAssignmentNotifications(userId, agentId);
-            
-            // 创建会话
-            createNewConversation(userId, agentId);
-            
-            logger.info("用户 {} 已直接分配给客服 {}", userId, agentId);
-            
+
+            logger.info("客服 {} 从等待队列中分配了 {} 个用户", agentId, assigned.size());
         } catch (Exception e) {
-            logger.error("直接分配用户给客服失败", e);
+            logger.error("分配等待用户给客服失败", e);
+        }
+    }
+
+    /**
+     * 读取用户当前的客服和路由，执行解除关联的脚本，脚本只访问由此确定的键
+     * @return 脚本结果，需要重试时为 {-1}
+     */
+    private List<?> releaseAgent(String userId) {
+        String currentAgentId = redisUtil.get(USER_CUSTOMER_SERVICE_KEY + userId, String.class);
+        List<String> routings = redisUtil.getHashValues(USER_ROUTING_KEY, Collections.singletonList(userId), String.class);
+        String routing = routings != null ? routings.get(0) : null;
+        List<String> keys = new ArrayList<>(Arrays.asList(USER_CUSTOMER_SERVICE_KEY + userId, CUSTOMER_SERVICE_LOAD_INDEX_KEY,
+                USER_ROUTING_KEY, waitingKey(routing != null ? RoutingRequest.parse(routing).getQueue() : RoutingRequest.DEFAULT_QUEUE)));
+        if (currentAgentId != null) {
+            keys.add(CUSTOMER_SERVICE_USERS_KEY + currentAgentId);
         }
+        return redisUtil.executeScript(RELEASE_AGENT_SCRIPT, keys,
+                userId, currentAgentId != null ? currentAgentId : "", routing != null ? routing : "");
+    }
+
+    /**
+     * 读取下线客服的用户、用户的队列和其他客服，执行重新分配的脚本，脚本只访问由此确定的键
+     * @return 脚本结果，需要重试时为 {-1}
+     */
+    private List<?> reassignAgentUsers(String agentId) {
+        Set<String> userSet = redisUtil.getSetMembers(CUSTOMER_SERVICE_USERS_KEY + agentId, String.class);
+        Set<String> agentSet = redisUtil.getSetMembers(CUSTOMER_SERVICE_KEY, String.class);
+        if (userSet == null || agentSet == null) {
+            return null;
+        }
+        List<String> users = new ArrayList<>(userSet);
+        List<String> routings = users.isEmpty() ? Collections.emptyList() : redisUtil.getHashValues(USER_ROUTING_KEY, users, String.class);
+        if (routings == null) {
+            return null;
+        }
+        List<String> agents = new ArrayList<>(agentSet);
+        agents.remove(agentId);
+
+        // 队列名称 -> 序号（从1开始），每个用户记录所在队列的序号
+        Map<String, Integer> queues = new LinkedHashMap<>();
+        List<Object> userArgs = new ArrayList<>(users.size() * 2);
+        for (int i = 0; i < users.size(); i++) {
+            String routing = routings.get(i);
+            String queue = routing != null ? RoutingRequest.parse(routing).getQueue() : RoutingRequest.DEFAULT_QUEUE;
+            userArgs.add(users.get(i));
+            userArgs.add(queues.computeIfAbsent(queue, k -> queues.size() + 1));
+        }
+
+        List<String> keys = new ArrayList<>(7 + agents.size() + queues.size() + users.size());
+        keys.addAll(Arrays.asList(CUSTOMER_SERVICE_KEY, CUSTOMER_SERVICE_LOAD_INDEX_KEY, CUSTOMER_SERVICE_USERS_KEY + agentId,
+                CUSTOMER_SERVICE_CAPACITY_KEY, CUSTOMER_SERVICE_SKILLS_KEY, USER_ROUTING_KEY, WAITING_QUEUES_KEY));
+        List<Object> args = new ArrayList<>(5 + agents.size() + queues.size() + userArgs.size());
+        args.addAll(Arrays.asList(agentId, maxUsersPerAgent, System.currentTimeMillis(), agents.size(), queues.size()));
+        for (String agent : agents) {
+            keys.add(CUSTOMER_SERVICE_USERS_KEY + agent);
+            args.add(agent);
+        }
+        for (String queue : queues.keySet()) {
+            keys.add(waitingKey(queue));
+            args.add(queue);
+        }
+        for (String user : users) {
+            keys.add(USER_CUSTOMER_SERVICE_KEY + user);
+        }
+        args.addAll(userArgs);
+        return redisUtil.executeScript(REASSIGN_AGENT_USERS_SCRIPT, keys, args.toArray());
+    }
+
+    /**
+     * 脚本是否因读取后数据发生变化而要求重试
+     */
+    private static boolean isRetry(List<?> result) {
+        return result != null && result.size() == 1 && result.get(0) instanceof Number
+                && ((Number) result.get(0)).intValue() == SCRIPT_RETRY;
+    }
+
+    /**
+     * 队列对应的Redis等待队列键
+     */
+    private static String waitingKey(String queue) {
+        return queue.isEmpty() ? WAITING_USERS_KEY : WAITING_USERS_KEY + ":" + queue;
+    }
+
+    /**
+     * 队列对应的本地等待队列，调用方需持有routingEngine锁
+     */
+    private WaitingQueue localWaitingQueue(String queue) {
+        return localWaitingQueues.computeIfAbsent(queue, k -> new WaitingQueue());
+    }
+
+    private static void addIfPresent(List<WaitingQueue> queues, WaitingQueue queue) {
+        if (queue != null) {
+            queues.add(queue);
+        }
+    }
+
+    /**
+     * 加载classpath中的Lua脚本
+     */
+    private static <T> DefaultRedisScript<T> loadScript(String path, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(resultType);
+        return script;
     }
-}
\ No newline at end of file
+}
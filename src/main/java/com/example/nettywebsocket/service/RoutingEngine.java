@@ -0,0 +1,85 @@
+package com.example.nettywebsocket.service;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 客服路由引擎，维护本节点的客服技能、容量和负载，为用户选择客服
+ * 默认实现为SkillRoutingEngine；注册该接口的Spring Bean即可替换路由策略
+ * 本地存储时引擎即为负载数据；Redis存储时引擎是本节点的视图，选出的客服由Redis脚本复核，并定期校准
+ */
+public interface RoutingEngine {
+
+    /**
+     * 设置默认容量，未单独设置容量的客服使用该值
+     */
+    void setDefaultCapacity(int capacity);
+
+    /**
+     * 添加客服，已存在时覆盖技能、容量和负载
+     * @param agentId 客服ID
+     * @param skills 技能标签
+     * @param capacity 单独设置的容量，null表示使用默认容量
+     * @param load 当前负载
+     */
+    void addAgent(String agentId, Set<String> skills, Integer capacity, int load);
+
+    /**
+     * 移除客服
+     * @return 是否存在
+     */
+    boolean removeAgent(String agentId);
+
+    /**
+     * 修改客服容量
+     * @param capacity 新容量，null表示恢复默认容量
+     * @return 客服是否存在
+     */
+    boolean setCapacity(String agentId, Integer capacity);
+
+    /**
+     * 查看可以服务该队列、负载率最低且未满的客服，不修改负载
+     * @return 客服ID，没有可用客服时返回null
+     */
+    String peek(String queue);
+
+    /**
+     * 选择可以服务该队列、负载率最低且未满的客服，并将其负载加1
+     * @return 客服ID，没有可用客服时返回null
+     */
+    String pickAndIncrement(String queue);
+
+    /**
+     * 调整客服负载
+     */
+    void adjustLoad(String agentId, int delta);
+
+    /**
+     * 设置客服负载
+     */
+    void setLoad(String agentId, int load);
+
+    /**
+     * 获取客服负载，客服不存在时返回null
+     */
+    Integer getLoad(String agentId);
+
+    /**
+     * 获取客服的实际容量，客服不存在时返回null
+     */
+    Integer getCapacity(String agentId);
+
+    /**
+     * 获取客服技能，客服不存在时返回空集合
+     */
+    Set<String> getSkills(String agentId);
+
+    /**
+     * 用一份完整的客服数据校准引擎，只更新发生变化的客服，移除已不存在的客服
+     * @param loads 客服ID -> 负载，决定客服集合
+     * @param skills 客服ID -> 技能
+     * @param capacities 客服ID -> 单独设置的容量
+     * @return 发生变化的客服数量
+     */
+    int reconcile(Map<String, Integer> loads, Map<String, Set<String>> skills, Map<String, Integer> capacities);
+}
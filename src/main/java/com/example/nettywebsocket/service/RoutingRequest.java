@@ -0,0 +1,94 @@
+package com.example.nettywebsocket.service;
+
+/**
+ * 用户的路由要求：要进入的技能队列和优先级，由握手URI中的 queue=、priority= 参数指定
+ * 默认队列可由任意客服服务，技能队列只能由具有同名技能的客服服务；
+ * 等待时优先级高的用户先分配，同一优先级按进入队列的先后分配
+ */
+public class RoutingRequest {
+
+    public static final String DEFAULT_QUEUE = "";
+    public static final int MAX_PRIORITY = 9;
+
+    public static final RoutingRequest DEFAULT = new RoutingRequest(DEFAULT_QUEUE, 0);
+
+    // 等待队列分数中时间戳占用的位数，2^41毫秒约69年，高位为优先级
+    private static final int TIME_BITS = 41;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+    private final String queue;
+    private final int priority;
+
+    /**
+     * @param queue 技能队列，null或空表示默认队列
+     * @param priority 优先级，超出0~MAX_PRIORITY的值会被截断
+     */
+    public RoutingRequest(String queue, int priority) {
+        this.queue = queue != null ? queue.trim() : DEFAULT_QUEUE;
+        this.priority = Math.max(0, Math.min(MAX_PRIORITY, priority));
+    }
+
+    /**
+     * 从 "队列|优先级" 格式解析，格式错误时返回默认路由
+     */
+    public static RoutingRequest parse(String value) {
+        if (value == null) {
+            return DEFAULT;
+        }
+        int separator = value.lastIndexOf('|');
+        if (separator < 0) {
+            return new RoutingRequest(value, 0);
+        }
+        try {
+            return new RoutingRequest(value.substring(0, separator), Integer.parseInt(value.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            return DEFAULT;
+        }
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public boolean isDefaultQueue() {
+        return DEFAULT_QUEUE.equals(queue);
+    }
+
+    /**
+     * 是否为默认路由（默认队列且优先级为0），默认路由不需要单独保存
+     */
+    public boolean isDefault() {
+        return isDefaultQueue() && priority == 0;
+    }
+
+    /**
+     * 转为 "队列|优先级" 格式
+     */
+    public String format() {
+        return queue + "|" + priority;
+    }
+
+    /**
+     * 等待队列中的排序分数：优先级高的分数小，同一优先级按进入队列的时间排序
+     * @param enqueueMillis 进入队列的时间戳（毫秒）
+     */
+    public long waitingScore(long enqueueMillis) {
+        return ((long) (MAX_PRIORITY - priority) << TIME_BITS) | (enqueueMillis & TIME_MASK);
+    }
+
+    /**
+     * 从等待队列分数中取出进入队列的时间戳
+     */
+    public static long enqueueTime(long waitingScore) {
+        return waitingScore & TIME_MASK;
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
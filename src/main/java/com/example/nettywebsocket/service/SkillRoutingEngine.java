@@ -0,0 +1,199 @@
+package com.example.nettywebsocket.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 基于技能和负载率的路由引擎
+ * 预先为每个技能维护一个负载索引，默认队列使用包含全部客服的索引，
+ * 选择客服只访问对应队列的索引堆顶，与客服总数无关；客服负载变化时同步更新其所在的每个索引
+ */
+public class SkillRoutingEngine implements RoutingEngine {
+
+    private final AgentLoadIndex allAgents = new AgentLoadIndex();
+    private final Map<String, AgentLoadIndex> skillIndexes = new HashMap<>();
+    private final Map<String, Agent> agents = new HashMap<>();
+    private int defaultCapacity;
+
+    public SkillRoutingEngine() {
+        this(20);
+    }
+
+    public SkillRoutingEngine(int defaultCapacity) {
+        this.defaultCapacity = defaultCapacity;
+    }
+
+    @Override
+    public synchronized void setDefaultCapacity(int capacity) {
+        this.defaultCapacity = capacity;
+        for (Map.Entry<String, Agent> entry : agents.entrySet()) {
+            if (entry.getValue().capacity == null) {
+                applyCapacity(entry.getKey(), entry.getValue(), capacity);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void addAgent(String agentId, Set<String> skills, Integer capacity, int load) {
+        removeAgent(agentId);
+        Agent agent = new Agent(skills != null ? new LinkedHashSet<>(skills) : Collections.emptySet(), capacity);
+        agents.put(agentId, agent);
+        int effectiveCapacity = capacity != null ? capacity : defaultCapacity;
+        allAgents.add(agentId, load, effectiveCapacity);
+        for (String skill : agent.skills) {
+            skillIndexes.computeIfAbsent(skill, k -> new AgentLoadIndex()).add(agentId, load, effectiveCapacity);
+        }
+    }
+
+    @Override
+    public synchronized boolean removeAgent(String agentId) {
+        Agent agent = agents.remove(agentId);
+        if (agent == null) {
+            return false;
+        }
+        allAgents.remove(agentId);
+        for (String skill : agent.skills) {
+            AgentLoadIndex index = skillIndexes.get(skill);
+            if (index != null) {
+                index.remove(agentId);
+                if (index.size() == 0) {
+                    skillIndexes.remove(skill);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean setCapacity(String agentId, Integer capacity) {
+        Agent agent = agents.get(agentId);
+        if (agent == null) {
+            return false;
+        }
+        agent.capacity = capacity;
+        applyCapacity(agentId, agent, capacity != null ? capacity : defaultCapacity);
+        return true;
+    }
+
+    @Override
+    public synchronized String peek(String queue) {
+        AgentLoadIndex index = indexFor(queue);
+        return index != null ? index.peekAvailable() : null;
+    }
+
+    @Override
+    public synchronized String pickAndIncrement(String queue) {
+        AgentLoadIndex index = indexFor(queue);
+        String agentId = index != null ? index.peekAvailable() : null;
+        if (agentId != null) {
+            adjustLoad(agentId, 1);
+        }
+        return agentId;
+    }
+
+    @Override
+    public synchronized void adjustLoad(String agentId, int delta) {
+        Integer load = allAgents.getLoad(agentId);
+        if (load != null) {
+            setLoad(agentId, Math.max(0, load + delta));
+        }
+    }
+
+    @Override
+    public synchronized void setLoad(String agentId, int load) {
+        Agent agent = agents.get(agentId);
+        if (agent == null) {
+            return;
+        }
+        allAgents.setLoad(agentId, load);
+        for (String skill : agent.skills) {
+            skillIndexes.get(skill).setLoad(agentId, load);
+        }
+    }
+
+    @Override
+    public synchronized Integer getLoad(String agentId) {
+        return allAgents.getLoad(agentId);
+    }
+
+    @Override
+    public synchronized Integer getCapacity(String agentId) {
+        return allAgents.getCapacity(agentId);
+    }
+
+    @Override
+    public synchronized Set<String> getSkills(String agentId) {
+        Agent agent = agents.get(agentId);
+        return agent != null ? Collections.unmodifiableSet(agent.skills) : Collections.emptySet();
+    }
+
+    @Override
+    public synchronized int reconcile(Map<String, Integer> loads, Map<String, Set<String>> skills, Map<String, Integer> capacities) {
+        int changed = 0;
+        for (String agentId : agents.keySet().toArray(new String[0])) {
+            if (!loads.containsKey(agentId)) {
+                removeAgent(agentId);
+                changed++;
+            }
+        }
+        for (Map.Entry<String, Integer> entry : loads.entrySet()) {
+            String agentId = entry.getKey();
+            Set<String> agentSkills = skills.getOrDefault(agentId, Collections.emptySet());
+            Integer capacity = capacities.get(agentId);
+            Agent agent = agents.get(agentId);
+            if (agent == null || !agent.skills.equals(agentSkills)) {
+                addAgent(agentId, agentSkills, capacity, entry.getValue());
+                changed++;
+                continue;
+            }
+            boolean agentChanged = false;
+            if (!Objects.equals(agent.capacity, capacity)) {
+                setCapacity(agentId, capacity);
+                agentChanged = true;
+            }
+            if (!entry.getValue().equals(allAgents.getLoad(agentId))) {
+                setLoad(agentId, entry.getValue());
+                agentChanged = true;
+            }
+            if (agentChanged) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 队列对应的索引，默认队列使用全部客服的索引，没有客服具有该技能时返回null
+     */
+    private AgentLoadIndex indexFor(String queue) {
+        if (queue == null || queue.isEmpty()) {
+            return allAgents;
+        }
+        return skillIndexes.get(queue);
+    }
+
+    private void applyCapacity(String agentId, Agent agent, int capacity) {
+        allAgents.setCapacity(agentId, capacity);
+        for (String skill : agent.skills) {
+            skillIndexes.get(skill).setCapacity(agentId, capacity);
+        }
+    }
+
+    /**
+     * 客服的技能和单独设置的容量
+     */
+    private static class Agent {
+
+        private final Set<String> skills;
+        private Integer capacity;
+
+        Agent(Set<String> skills, Integer capacity) {
+            this.skills = skills;
+            this.capacity = capacity;
+        }
+    }
+}
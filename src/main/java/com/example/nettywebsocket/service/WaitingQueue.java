@@ -0,0 +1,80 @@
+package com.example.nettywebsocket.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 本地存储时使用的等待队列，按RoutingRequest.waitingScore排序，分数相同时按加入顺序
+ * 与Redis中的等待队列有序集合语义一致，非线程安全，由调用方加锁
+ */
+class WaitingQueue {
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> ordered = new TreeSet<>((a, b) -> {
+        int result = Long.compare(a.score, b.score);
+        return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+    });
+    private long sequence;
+
+    /**
+     * 加入队列，已在队列中的用户保留原来的位置
+     * @return 是否新加入
+     */
+    boolean add(String userId, long score) {
+        if (entries.containsKey(userId)) {
+            return false;
+        }
+        Entry entry = new Entry(userId, score, sequence++);
+        entries.put(userId, entry);
+        ordered.add(entry);
+        return true;
+    }
+
+    boolean remove(String userId) {
+        Entry entry = entries.remove(userId);
+        if (entry == null) {
+            return false;
+        }
+        ordered.remove(entry);
+        return true;
+    }
+
+    /**
+     * 队首的分数，队列为空时返回null
+     */
+    Long peekScore() {
+        return ordered.isEmpty() ? null : ordered.first().score;
+    }
+
+    /**
+     * 取出队首
+     */
+    Entry poll() {
+        Entry entry = ordered.pollFirst();
+        if (entry != null) {
+            entries.remove(entry.userId);
+        }
+        return entry;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * 队列中的用户及其分数
+     */
+    static class Entry {
+
+        final String userId;
+        final long score;
+        private final long sequence;
+
+        Entry(String userId, long score, long sequence) {
+            this.userId = userId;
+            this.score = score;
+            this.sequence = sequence;
+        }
+    }
+}
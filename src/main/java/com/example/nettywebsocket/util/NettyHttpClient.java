@@ -0,0 +1,333 @@
+package com.example.nettywebsocket.util;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 基于Netty的异步HTTP客户端
+ * 每个目标地址一个固定大小的连接池，连接使用keep-alive复用，连接数达到上限时请求排队等待空闲连接，
+ * 排队数也有上限；请求结果通过CompletableFuture返回，回调在客户端的I/O线程上执行，不能在回调中阻塞
+ */
+public class NettyHttpClient implements AutoCloseable {
+
+    // 响应体最大长度
+    private static final int MAX_CONTENT_LENGTH = 1024 * 1024;
+
+    // 连接上正在等待响应的请求
+    private static final AttributeKey<CompletableFuture<Response>> PENDING_RESPONSE = AttributeKey.valueOf("pendingResponse");
+
+    private final EventLoopGroup group;
+    private final AbstractChannelPoolMap<Endpoint, FixedChannelPool> pools;
+    private final long requestTimeoutMillis;
+
+    /**
+     * @param threads I/O线程数
+     * @param maxConnectionsPerHost 每个目标地址的最大连接数
+     * @param maxPendingAcquires 连接数达到上限时最多排队的请求数，超出时请求直接失败
+     * @param connectTimeoutMillis 建立连接超时时间（毫秒）
+     * @param requestTimeoutMillis 请求超时时间（毫秒），包括等待空闲连接的时间
+     */
+    public NettyHttpClient(int threads, int maxConnectionsPerHost, int maxPendingAcquires,
+                           int connectTimeoutMillis, long requestTimeoutMillis) {
+        this(threads, maxConnectionsPerHost, maxPendingAcquires, connectTimeoutMillis, requestTimeoutMillis, null);
+    }
+
+    /**
+     * @param threads I/O线程数
+     * @param maxConnectionsPerHost 每个目标地址的最大连接数
+     * @param maxPendingAcquires 连接数达到上限时最多排队的请求数，超出时请求直接失败
+     * @param connectTimeoutMillis 建立连接超时时间（毫秒）
+     * @param requestTimeoutMillis 请求超时时间（毫秒），包括等待空闲连接的时间
+     * @param sslContext https连接使用的SSL上下文，为null时使用JDK默认的信任证书
+     */
+    public NettyHttpClient(int threads, int maxConnectionsPerHost, int maxPendingAcquires,
+                           int connectTimeoutMillis, long requestTimeoutMillis, SslContext sslContext) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        SslContext clientSslContext;
+        try {
+            clientSslContext = sslContext != null ? sslContext : SslContextBuilder.forClient().build();
+        } catch (SSLException e) {
+            throw new IllegalStateException("创建SSL上下文失败", e);
+        }
+        this.group = new NioEventLoopGroup(threads, new DefaultThreadFactory("http-client", true));
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true);
+        this.pools = new AbstractChannelPoolMap<Endpoint, FixedChannelPool>() {
+            @Override
+            protected FixedChannelPool newPool(Endpoint endpoint) {
+                return new FixedChannelPool(bootstrap.clone().remoteAddress(endpoint.host, endpoint.port),
+                        new PoolHandler(endpoint, clientSslContext), ChannelHealthChecker.ACTIVE,
+                        FixedChannelPool.AcquireTimeoutAction.FAIL, requestTimeoutMillis,
+                        maxConnectionsPerHost, maxPendingAcquires);
+            }
+        };
+    }
+
+    /**
+     * 发送不带请求体的HTTP请求
+     * @param method 请求方法
+     * @param url 请求地址（http或https）
+     * @param headers 请求头
+     * @return 响应，连接失败、超时或排队数超过上限时异常完成
+     */
+    public CompletableFuture<Response> execute(HttpMethod method, String url, Map<String, String> headers) {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        boolean ssl = "https".equalsIgnoreCase(uri.getScheme());
+        Endpoint endpoint = new Endpoint(uri.getHost(), uri.getPort() != -1 ? uri.getPort() : (ssl ? 443 : 80), ssl);
+        FixedChannelPool pool = pools.get(endpoint);
+        pool.acquire().addListener((Future<Channel> future) -> {
+            if (!future.isSuccess()) {
+                result.completeExceptionally(future.cause());
+                return;
+            }
+            send(pool, future.getNow(), endpoint, uri, method, headers, result);
+        });
+        return result;
+    }
+
+    /**
+     * 在已获取的连接上发送请求，请求完成（成功、失败或超时）后把连接归还连接池
+     */
+    private void send(FixedChannelPool pool, Channel channel, Endpoint endpoint, URI uri, HttpMethod method,
+                      Map<String, String> headers, CompletableFuture<Response> result) {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path = path + "?" + uri.getRawQuery();
+        }
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path, Unpooled.EMPTY_BUFFER);
+        request.headers().set(HttpHeaderNames.HOST, endpoint.hostHeader());
+        request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        request.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        headers.forEach((name, value) -> request.headers().set(name, value));
+
+        channel.attr(PENDING_RESPONSE).set(result);
+        ScheduledFuture<?> timeout = channel.eventLoop().schedule(() -> {
+            // 超时的连接上可能还会收到响应，直接关闭
+            if (channel.attr(PENDING_RESPONSE).compareAndSet(result, null)) {
+                channel.close();
+                result.completeExceptionally(new TimeoutException("HTTP请求超时: " + uri));
+            }
+        }, requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((response, error) -> {
+            timeout.cancel(false);
+            pool.release(channel);
+        });
+        channel.writeAndFlush(request).addListener(future -> {
+            if (!future.isSuccess() && channel.attr(PENDING_RESPONSE).compareAndSet(result, null)) {
+                channel.close();
+                result.completeExceptionally(future.cause());
+            }
+        });
+    }
+
+    /**
+     * 当前已创建连接池的目标地址数
+     */
+    public int poolCount() {
+        return pools.size();
+    }
+
+    @Override
+    public void close() {
+        pools.close();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * HTTP响应
+     */
+    public static class Response {
+
+        private final int status;
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public boolean isSuccessful() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    /**
+     * 连接池的目标地址
+     */
+    private static class Endpoint {
+
+        private final String host;
+        private final int port;
+        private final boolean ssl;
+
+        Endpoint(String host, int port, boolean ssl) {
+            this.host = host;
+            this.port = port;
+            this.ssl = ssl;
+        }
+
+        String hostHeader() {
+            return (ssl ? port == 443 : port == 80) ? host : host + ":" + port;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Endpoint)) {
+                return false;
+            }
+            Endpoint other = (Endpoint) o;
+            return port == other.port && ssl == other.ssl && host.equals(other.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, ssl);
+        }
+    }
+
+    /**
+     * 为新建的连接初始化pipeline
+     */
+    private static class PoolHandler extends AbstractChannelPoolHandler {
+
+        private final Endpoint endpoint;
+        private final SslContext sslContext;
+
+        PoolHandler(Endpoint endpoint, SslContext sslContext) {
+            this.endpoint = endpoint;
+            this.sslContext = endpoint.ssl ? sslContext : null;
+        }
+
+        @Override
+        public void channelCreated(Channel channel) {
+            ChannelPipeline pipeline = channel.pipeline();
+            if (sslContext != null) {
+                // SslContext默认不校验主机名，需要显式开启，否则任意受信任CA签发的证书都会被接受
+                SslHandler sslHandler = sslContext.newHandler(channel.alloc(), endpoint.host, endpoint.port);
+                SSLEngine engine = sslHandler.engine();
+                SSLParameters parameters = engine.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                engine.setSSLParameters(parameters);
+                pipeline.addLast(sslHandler);
+            }
+            pipeline.addLast(new HttpClientCodec());
+            pipeline.addLast(new HttpObjectAggregator(MAX_CONTENT_LENGTH));
+            pipeline.addLast(new ResponseHandler());
+        }
+    }
+
+    /**
+     * 把响应交给连接上等待的请求，服务端不保持连接时关闭连接
+     */
+    private static class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+            CompletableFuture<Response> pending = ctx.channel().attr(PENDING_RESPONSE).getAndSet(null);
+            if (pending == null) {
+                ctx.close();
+                return;
+            }
+            if (!HttpUtil.isKeepAlive(response)) {
+                ctx.close();
+            }
+            pending.complete(new Response(response.status().code(), response.content().toString(CharsetUtil.UTF_8)));
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            CompletableFuture<Response> pending = ctx.channel().attr(PENDING_RESPONSE).getAndSet(null);
+            if (pending != null) {
+                pending.completeExceptionally(new ClosedChannelException());
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            // TLS握手失败（证书不受信任、主机名不匹配）时以握手异常结束请求
+            if (evt instanceof SslHandshakeCompletionEvent && !((SslHandshakeCompletionEvent) evt).isSuccess()) {
+                CompletableFuture<Response> pending = ctx.channel().attr(PENDING_RESPONSE).getAndSet(null);
+                ctx.close();
+                if (pending != null) {
+                    pending.completeExceptionally(((SslHandshakeCompletionEvent) evt).cause());
+                }
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            CompletableFuture<Response> pending = ctx.channel().attr(PENDING_RESPONSE).getAndSet(null);
+            ctx.close();
+            if (pending != null) {
+                pending.completeExceptionally(cause);
+            }
+        }
+    }
+}
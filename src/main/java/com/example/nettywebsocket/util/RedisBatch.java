@@ -0,0 +1,115 @@
+package com.example.nettywebsocket.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一批待执行的Redis写命令，由RedisUtil.executeBatch以管道方式一次发送
+ * 对同一个集合的多次SADD/SREM会合并为一条命令
+ */
+public class RedisBatch {
+
+    private final List<SetCommand> setCommands = new ArrayList<>();
+    private final Set<String> deletes = new LinkedHashSet<>();
+    private final Map<String, Set<Object>> setAdds = new LinkedHashMap<>();
+    private final Map<String, Set<Object>> setRemoves = new LinkedHashMap<>();
+
+    /**
+     * 设置值并指定过期时间
+     */
+    public RedisBatch set(String key, Object value, long timeout, TimeUnit timeUnit) {
+        setCommands.add(new SetCommand(key, value, timeout, timeUnit));
+        return this;
+    }
+
+    /**
+     * 删除键
+     */
+    public RedisBatch delete(String key) {
+        deletes.add(key);
+        return this;
+    }
+
+    /**
+     * 添加元素到集合
+     */
+    public RedisBatch addToSet(String key, Object value) {
+        setAdds.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(value);
+        return this;
+    }
+
+    /**
+     * 从集合中移除元素
+     */
+    public RedisBatch removeFromSet(String key, Object value) {
+        setRemoves.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(value);
+        return this;
+    }
+
+    public List<SetCommand> getSetCommands() {
+        return Collections.unmodifiableList(setCommands);
+    }
+
+    public Set<String> getDeletes() {
+        return Collections.unmodifiableSet(deletes);
+    }
+
+    public Map<String, Set<Object>> getSetAdds() {
+        return Collections.unmodifiableMap(setAdds);
+    }
+
+    public Map<String, Set<Object>> getSetRemoves() {
+        return Collections.unmodifiableMap(setRemoves);
+    }
+
+    /**
+     * 管道中实际发送的命令条数
+     */
+    public int size() {
+        return setCommands.size() + (deletes.isEmpty() ? 0 : 1) + setAdds.size() + setRemoves.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 带过期时间的SET命令
+     */
+    public static class SetCommand {
+
+        private final String key;
+        private final Object value;
+        private final long timeout;
+        private final TimeUnit timeUnit;
+
+        SetCommand(String key, Object value, long timeout, TimeUnit timeUnit) {
+            this.key = key;
+            this.value = value;
+            this.timeout = timeout;
+            this.timeUnit = timeUnit;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public TimeUnit getTimeUnit() {
+            return timeUnit;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.nettywebsocket.util;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Redis健康监控与熔断器
+ * 后台线程定期PING Redis，结果缓存在熔断器状态中，业务调用只读取状态，不再逐次发起网络请求：
+ * CLOSED（正常）-> 连续失败达到阈值 -> OPEN（熔断，拒绝调用）-> 熔断时长结束 -> HALF_OPEN（试探）
+ * -> PING成功回到CLOSED，失败重新OPEN
+ */
+@Component
+@ConditionalOnBean(RedisTemplate.class)
+public class RedisHealthMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisHealthMonitor.class);
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    public static final String METRIC_STATE = "websocket.redis.circuit.state";
+    public static final String METRIC_TRANSITION_PREFIX = "websocket.redis.circuit.transition.";
+
+    // 健康检查间隔（毫秒）
+    @Value("${websocket.redis.health.check-interval:1000}")
+    private long checkIntervalMillis;
+
+    // 连续失败多少次后熔断
+    @Value("${websocket.redis.health.failure-threshold:3}")
+    private int failureThreshold;
+
+    // 熔断后多久进入半开状态进行试探（毫秒）
+    @Value("${websocket.redis.health.open-duration:5000}")
+    private long openDurationMillis;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private WebSocketMetrics metrics;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        metrics.gauge(METRIC_STATE, () -> state.get().ordinal());
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("redis-health", true));
+        scheduler.scheduleWithFixedDelay(this::checkHealth, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Redis当前是否允许调用，只读取缓存的熔断器状态
+     */
+    public boolean isAvailable() {
+        return state.get() == State.CLOSED;
+    }
+
+    /**
+     * 获取熔断器当前状态
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * 执行一次健康检查，由后台线程定期调用
+     */
+    public void checkHealth() {
+        State current = state.get();
+        if (current == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDurationMillis) {
+                return;
+            }
+            transition(State.OPEN, State.HALF_OPEN);
+        }
+
+        boolean healthy = ping();
+        if (healthy) {
+            consecutiveFailures.set(0);
+            if (state.get() != State.CLOSED) {
+                transition(State.HALF_OPEN, State.CLOSED);
+            }
+        } else if (state.get() == State.HALF_OPEN) {
+            open(State.HALF_OPEN);
+        } else {
+            recordFailure();
+        }
+    }
+
+    /**
+     * 记录一次Redis调用失败，只统计连接失败和超时，连续失败达到阈值时熔断
+     * @param e 调用抛出的异常
+     */
+    public void recordFailure(Exception e) {
+        if (e instanceof DataAccessResourceFailureException || e instanceof QueryTimeoutException) {
+            recordFailure();
+        }
+    }
+
+    private void recordFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && state.get() == State.CLOSED) {
+            open(State.CLOSED);
+        }
+    }
+
+    private void open(State from) {
+        openedAt = System.currentTimeMillis();
+        transition(from, State.OPEN);
+    }
+
+    private void transition(State from, State to) {
+        if (state.compareAndSet(from, to)) {
+            consecutiveFailures.set(0);
+            metrics.increment(METRIC_TRANSITION_PREFIX + from.name().toLowerCase() + "_to_" + to.name().toLowerCase());
+            if (to == State.CLOSED) {
+                logger.info("Redis已恢复，熔断器状态: {} -> {}", from, to);
+            } else {
+                logger.warn("Redis熔断器状态: {} -> {}", from, to);
+            }
+        }
+    }
+
+    /**
+     * PING Redis，连接由RedisTemplate负责释放
+     */
+    private boolean ping() {
+        try {
+            String pong = redisTemplate.execute((RedisCallback<String>) RedisConnection::ping);
+            return pong != null;
+        } catch (Exception e) {
+            logger.debug("Redis健康检查失败: {}", e.getMessage());
+            return false;
+        }
+    }
+}
@@ -4,11 +4,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
-import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.*;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -25,33 +28,25 @@ public class RedisUtil {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
-    static {
-        
-    }
+    @Autowired(required = false)
+    private RedisHealthMonitor healthMonitor;
 
     /**
      * 判断Redis是否可用
+     * 读取后台健康监控缓存的熔断器状态，不发起网络请求
      * @return 是否可用
      */
     public boolean isRedisAvailable() {
-        try {
-            if (redisTemplate == null) {
-                logger.warn("RedisTemplate为null，Redis不可用");
-                return false;
-            }
-            
-            RedisConnectionFactory connectionFactory = redisTemplate.getConnectionFactory();
-            if (connectionFactory == null) {
-                logger.warn("Redis连接工厂为null，Redis不可用");
-                return false;
-            }
-            
-            connectionFactory.getConnection().ping();
-            logger.debug("Redis连接测试成功");
-            return true;
-        } catch (Exception e) {
-            logger.warn("Redis不可用: {}", e.getMessage());
-            return false;
+        return redisTemplate != null && healthMonitor != null && healthMonitor.isAvailable();
+    }
+    
+    /**
+     * 将调用失败上报给熔断器
+     * @param e 调用抛出的异常
+     */
+    private void recordFailure(Exception e) {
+        if (healthMonitor != null) {
+            healthMonitor.recordFailure(e);
         }
     }
     
@@ -74,11 +69,40 @@ public class RedisUtil {
             }
             return null;
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("获取Redis值失败，key: {}", key, e);
             return null;
         }
     }
     
+    /**
+     * 批量获取值（MGET），一次往返
+     * @param keys 键列表
+     * @param clazz 类型
+     * @param <T> 泛型
+     * @return 与keys顺序一致的值列表，不存在或类型不符的位置为null；Redis不可用时返回null
+     */
+    public <T> List<T> multiGet(List<String> keys, Class<T> clazz) {
+        try {
+            if (!isRedisAvailable()) {
+                return null;
+            }
+            List<Object> values = redisTemplate.opsForValue().multiGet(keys);
+            if (values == null) {
+                return null;
+            }
+            List<T> result = new ArrayList<>(values.size());
+            for (Object value : values) {
+                result.add(value != null && clazz.isInstance(value) ? clazz.cast(value) : null);
+            }
+            return result;
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("批量获取Redis值失败，keys数量: {}", keys.size(), e);
+            return null;
+        }
+    }
+
     /**
      * 设置值
      * @param key 键
@@ -92,6 +116,7 @@ public class RedisUtil {
             ValueOperations<String, Object> operations = redisTemplate.opsForValue();
             operations.set(key, value);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("设置Redis值失败，key: {}", key, e);
         }
     }
@@ -111,6 +136,7 @@ public class RedisUtil {
             ValueOperations<String, Object> operations = redisTemplate.opsForValue();
             operations.set(key, value, timeout, timeUnit);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("设置Redis值失败，key: {}", key, e);
         }
     }
@@ -126,6 +152,7 @@ public class RedisUtil {
             }
             redisTemplate.delete(key);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("删除Redis键失败，key: {}", key, e);
         }
     }
@@ -142,6 +169,7 @@ public class RedisUtil {
             }
             return Boolean.TRUE.equals(redisTemplate.hasKey(key));
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("判断Redis键是否存在失败，key: {}", key, e);
             return false;
         }
@@ -161,6 +189,7 @@ public class RedisUtil {
             }
             return Boolean.TRUE.equals(redisTemplate.expire(key, timeout, timeUnit));
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("设置Redis键过期时间失败，key: {}", key, e);
             return false;
         }
@@ -179,6 +208,7 @@ public class RedisUtil {
             SetOperations<String, Object> operations = redisTemplate.opsForSet();
             operations.add(key, value);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("添加元素到Redis集合失败，key: {}", key, e);
         }
     }
@@ -196,6 +226,7 @@ public class RedisUtil {
             SetOperations<String, Object> operations = redisTemplate.opsForSet();
             operations.remove(key, value);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("从Redis集合中移除元素失败，key: {}", key, e);
         }
     }
@@ -226,6 +257,7 @@ public class RedisUtil {
             }
             return result;
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("获取Redis集合元素失败，key: {}", key, e);
             return null;
         }
@@ -245,6 +277,7 @@ public class RedisUtil {
             SetOperations<String, Object> operations = redisTemplate.opsForSet();
             return Boolean.TRUE.equals(operations.isMember(key, value));
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("判断元素是否在Redis集合中失败，key: {}", key, e);
             return false;
         }
@@ -273,6 +306,7 @@ public class RedisUtil {
             SetOperations<String, Object> operations = redisTemplate.opsForSet();
             return operations.size(key);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("获取Redis集合大小失败，key: {}", key, e);
             return 0L;
         }
@@ -292,6 +326,7 @@ public class RedisUtil {
             ZSetOperations<String, Object> operations = redisTemplate.opsForZSet();
             operations.add(key, value, score);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("添加元素到Redis有序集合失败，key: {}", key, e);
         }
     }
@@ -311,11 +346,33 @@ public class RedisUtil {
             ZSetOperations<String, Object> operations = redisTemplate.opsForZSet();
             return operations.range(key, start, end);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("获取Redis有序集合范围失败，key: {}", key, e);
             return null;
         }
     }
-    
+
+    /**
+     * 获取有序集合指定范围的元素及分数（按分数从低到高）
+     * @param key 键
+     * @param start 开始位置
+     * @param end 结束位置
+     * @return 元素及分数集合
+     */
+    public Set<ZSetOperations.TypedTuple<Object>> getSortedSetRangeWithScores(String key, long start, long end) {
+        try {
+            if (!isRedisAvailable()) {
+                return null;
+            }
+            ZSetOperations<String, Object> operations = redisTemplate.opsForZSet();
+            return operations.rangeWithScores(key, start, end);
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("获取Redis有序集合范围及分数失败，key: {}", key, e);
+            return null;
+        }
+    }
+
     /**
      * 获取有序集合指定范围的元素（按分数从高到低）
      * @param key 键
@@ -331,6 +388,7 @@ public class RedisUtil {
             ZSetOperations<String, Object> operations = redisTemplate.opsForZSet();
             return operations.reverseRange(key, start, end);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("获取Redis有序集合反向范围失败，key: {}", key, e);
             return null;
         }
@@ -349,11 +407,45 @@ public class RedisUtil {
             ZSetOperations<String, Object> operations = redisTemplate.opsForZSet();
             return operations.size(key);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("获取Redis有序集合大小失败，key: {}", key, e);
             return 0L;
         }
     }
     
+    /**
+     * 以管道方式获取多个有序集合的大小，所有ZCARD在一次往返中发送
+     * @param keys 键
+     * @return 与keys顺序对应的大小，Redis不可用或执行失败时返回null
+     */
+    public List<Long> getSortedSetSizes(List<String> keys) {
+        try {
+            if (!isRedisAvailable()) {
+                return null;
+            }
+            List<Object> sizes = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> redisOperations) {
+                    RedisOperations<String, Object> operations = (RedisOperations<String, Object>) redisOperations;
+                    for (String key : keys) {
+                        operations.opsForZSet().size(key);
+                    }
+                    return null;
+                }
+            });
+            List<Long> result = new ArrayList<>(sizes.size());
+            for (Object size : sizes) {
+                result.add(size instanceof Number ? ((Number) size).longValue() : 0L);
+            }
+            return result;
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("批量获取Redis有序集合大小失败，keys数量: {}", keys.size(), e);
+            return null;
+        }
+    }
+    
     /**
      * 获取有序集合中的所有元素
      * @param key 键
@@ -367,11 +459,53 @@ public class RedisUtil {
             ZSetOperations<String, Object> operations = redisTemplate.opsForZSet();
             return operations.range(key, 0, -1);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("获取Redis有序集合所有元素失败，key: {}", key, e);
             return null;
         }
     }
     
+    /**
+     * 获取有序集合中元素的分数
+     * @param key 键
+     * @param value 值
+     * @return 分数，元素不存在时返回null
+     */
+    public Double getSortedSetScore(String key, Object value) {
+        try {
+            if (!isRedisAvailable()) {
+                return null;
+            }
+            ZSetOperations<String, Object> operations = redisTemplate.opsForZSet();
+            return operations.score(key, value);
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("获取Redis有序集合元素分数失败，key: {}", key, e);
+            return null;
+        }
+    }
+    
+    /**
+     * 增加有序集合中元素的分数
+     * @param key 键
+     * @param value 值
+     * @param delta 增量
+     * @return 增加后的分数
+     */
+    public Double incrementSortedSetScore(String key, Object value, double delta) {
+        try {
+            if (!isRedisAvailable()) {
+                return null;
+            }
+            ZSetOperations<String, Object> operations = redisTemplate.opsForZSet();
+            return operations.incrementScore(key, value, delta);
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("增加Redis有序集合元素分数失败，key: {}", key, e);
+            return null;
+        }
+    }
+    
     /**
      * 从有序集合中移除元素
      * @param key 键
@@ -385,10 +519,94 @@ public class RedisUtil {
             ZSetOperations<String, Object> operations = redisTemplate.opsForZSet();
             operations.remove(key, value);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("从Redis有序集合中移除元素失败，key: {}", key, e);
         }
     }
     
+    /**
+     * 设置哈希字段
+     * @param key 键
+     * @param field 字段
+     * @param value 值
+     */
+    public void putHash(String key, String field, Object value) {
+        try {
+            if (!isRedisAvailable()) {
+                return;
+            }
+            HashOperations<String, String, Object> operations = redisTemplate.opsForHash();
+            operations.put(key, field, value);
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("设置Redis哈希字段失败，key: {}", key, e);
+        }
+    }
+
+    /**
+     * 删除哈希字段
+     * @param key 键
+     * @param field 字段
+     */
+    public void removeFromHash(String key, String field) {
+        try {
+            if (!isRedisAvailable()) {
+                return;
+            }
+            HashOperations<String, String, Object> operations = redisTemplate.opsForHash();
+            operations.delete(key, field);
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("删除Redis哈希字段失败，key: {}", key, e);
+        }
+    }
+
+    /**
+     * 获取哈希的全部字段
+     * @param key 键
+     * @return 字段 -> 值，Redis不可用时返回null
+     */
+    public Map<String, Object> getHashEntries(String key) {
+        try {
+            if (!isRedisAvailable()) {
+                return null;
+            }
+            HashOperations<String, String, Object> operations = redisTemplate.opsForHash();
+            return operations.entries(key);
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("获取Redis哈希失败，key: {}", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * 批量获取哈希字段的值（HMGET），一次往返
+     * @param key 键
+     * @param fields 字段列表
+     * @param clazz 类型
+     * @param <T> 泛型
+     * @return 与fields顺序一致的值列表，不存在或类型不符的位置为null；Redis不可用时返回null
+     */
+    public <T> List<T> getHashValues(String key, List<String> fields, Class<T> clazz) {
+        try {
+            if (!isRedisAvailable()) {
+                return null;
+            }
+            HashOperations<String, String, Object> operations = redisTemplate.opsForHash();
+            List<Object> values = operations.multiGet(key, fields);
+            List<T> result = new ArrayList<>(values.size());
+            for (Object value : values) {
+                result.add(value != null && clazz.isInstance(value) ? clazz.cast(value) : null);
+            }
+            return result;
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("批量获取Redis哈希字段失败，key: {}", key, e);
+            return null;
+        }
+    }
+
     /**
      * 从列表左侧添加元素
      * @param key 键
@@ -403,6 +621,7 @@ public class RedisUtil {
             ListOperations<String, Object> operations = redisTemplate.opsForList();
             return operations.leftPush(key, value);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("从Redis列表左侧添加元素失败，key: {}", key, e);
             return 0L;
         }
@@ -423,6 +642,7 @@ public class RedisUtil {
             ListOperations<String, Object> operations = redisTemplate.opsForList();
             return operations.range(key, start, end);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("获取Redis列表范围失败，key: {}", key, e);
             return null;
         }
@@ -441,6 +661,7 @@ public class RedisUtil {
             ValueOperations<String, Object> operations = redisTemplate.opsForValue();
             return operations.increment(key);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("递增Redis键值失败，key: {}", key, e);
             return null;
         }
@@ -459,8 +680,90 @@ public class RedisUtil {
             ValueOperations<String, Object> operations = redisTemplate.opsForValue();
             return operations.increment(key, -1);
         } catch (Exception e) {
+            recordFailure(e);
             logger.error("递减Redis键值失败，key: {}", key, e);
             return null;
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * 发布消息到指定通道
+     * 消息按UTF-8原样发送，不经过RedisTemplate的值序列化器
+     * @param channel 通道
+     * @param message 消息内容
+     * @return 收到消息的订阅者数量
+     */
+    public Long publish(String channel, String message) {
+        try {
+            if (!isRedisAvailable()) {
+                return 0L;
+            }
+            return redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(
+                    channel.getBytes(StandardCharsets.UTF_8), message.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("发布Redis消息失败，channel: {}", channel, e);
+            return 0L;
+        }
+    }
+    
+    /**
+     * 以管道方式执行一批写命令，所有命令在一次往返中发送
+     * @param batch 命令批次
+     * @return 是否执行成功，Redis不可用或执行失败时返回false
+     */
+    public boolean executeBatch(RedisBatch batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        try {
+            if (!isRedisAvailable()) {
+                return false;
+            }
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> redisOperations) {
+                    RedisOperations<String, Object> operations = (RedisOperations<String, Object>) redisOperations;
+                    for (RedisBatch.SetCommand command : batch.getSetCommands()) {
+                        operations.opsForValue().set(command.getKey(), command.getValue(),
+                                command.getTimeout(), command.getTimeUnit());
+                    }
+                    if (!batch.getDeletes().isEmpty()) {
+                        operations.delete(batch.getDeletes());
+                    }
+                    batch.getSetAdds().forEach((key, members) -> operations.opsForSet().add(key, members.toArray()));
+                    batch.getSetRemoves().forEach((key, members) -> operations.opsForSet().remove(key, members.toArray()));
+                    return null;
+                }
+            });
+            return true;
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("批量执行Redis命令失败，命令数: {}", batch.size(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * 执行Lua脚本，脚本在Redis服务端原子执行
+     * 参数和返回值使用与普通值相同的序列化方式
+     * @param script 脚本
+     * @param keys 脚本中使用的键
+     * @param args 脚本参数
+     * @param <T> 返回值类型
+     * @return 脚本返回值，Redis不可用或执行失败时返回null
+     */
+    public <T> T executeScript(RedisScript<T> script, List<String> keys, Object... args) {
+        try {
+            if (!isRedisAvailable()) {
+                return null;
+            }
+            return redisTemplate.execute(script, keys, args);
+        } catch (Exception e) {
+            recordFailure(e);
+            logger.error("执行Redis脚本失败，keys: {}", keys, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+-- 为用户原子地复核候选客服：仍可以服务其队列且未满时增加负载并完成分配；
+-- 否则按负载从低到高在有限范围内选出下一个候选客服交给调用方重试，没有可用客服时把用户加入对应的等待队列
+-- 脚本访问的键全部由KEYS传入（使用Redis集群时位于同一个slot），因此只写入已传入用户集合键的候选客服
+-- KEYS[1] 客服负载有序集合（成员为客服ID，分数为当前服务人数）
+-- KEYS[2] 用户-客服映射键
+-- KEYS[3] 用户所在队列的等待队列有序集合（分数见RoutingRequest.waitingScore）
+-- KEYS[4] 客服容量哈希（只包含单独设置过容量的客服）
+-- KEYS[5] 客服技能哈希（客服ID -> 逗号分隔的技能）
+-- KEYS[6] 用户路由哈希（用户ID -> "队列|优先级"）
+-- KEYS[7] 等待队列名称集合
+-- KEYS[8] 候选客服的用户集合，没有候选客服时不传
+-- ARGV[1] 默认容量
+-- ARGV[2] 用户ID
+-- ARGV[3] 候选客服ID，空字符串表示没有候选客服
+-- ARGV[4] 进入等待队列时的分数，用户已在队列中时保留原来的分数
+-- ARGV[5] 队列名称，空字符串表示默认队列
+-- ARGV[6] 用户路由，默认路由时为空字符串
+-- ARGV[7] 候选客服不可用时按负载查找下一个候选客服的数量上限，0表示直接进入等待队列
+-- 返回 {客服ID, 1, 分配后负载}：已分配给候选客服
+--      {客服ID, 0, -1}：用户已分配客服
+--      {下一个候选客服ID, 2, 原候选客服的负载（已不存在时为-1）}：候选客服不可用，需要用新的候选客服重试
+--      空：已加入等待队列
+
+local existing = redis.call('GET', KEYS[2])
+if existing then
+    return {existing, 0, -1}
+end
+
+local queue = cjson.decode(ARGV[5])
+
+local function available(agent)
+    local load = redis.call('ZSCORE', KEYS[1], agent)
+    if not load then
+        return false
+    end
+    local id = cjson.decode(agent)
+    local capacity = tonumber(redis.call('HGET', KEYS[4], id) or ARGV[1])
+    if tonumber(load) >= capacity then
+        return false
+    end
+    if queue == '' then
+        return true
+    end
+    local skills = redis.call('HGET', KEYS[5], id)
+    return skills ~= false and string.find(',' .. cjson.decode(skills) .. ',', ',' .. queue .. ',', 1, true) ~= nil
+end
+
+local function saveRouting()
+    if cjson.decode(ARGV[6]) ~= '' then
+        redis.call('HSET', KEYS[6], cjson.decode(ARGV[2]), ARGV[6])
+    end
+end
+
+local candidate = nil
+if cjson.decode(ARGV[3]) ~= '' then
+    candidate = ARGV[3]
+end
+
+if candidate and available(candidate) then
+    saveRouting()
+    local load = redis.call('ZINCRBY', KEYS[1], 1, candidate)
+    redis.call('SET', KEYS[2], candidate)
+    redis.call('SADD', KEYS[8], ARGV[2])
+    redis.call('ZREM', KEYS[3], ARGV[2])
+    return {candidate, 1, tonumber(load)}
+end
+
+local limit = tonumber(ARGV[7])
+if limit > 0 then
+    for _, other in ipairs(redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', '+inf', 'LIMIT', 0, limit)) do
+        if other ~= candidate and available(other) then
+            local load = -1
+            if candidate then
+                load = tonumber(redis.call('ZSCORE', KEYS[1], candidate) or -1)
+            end
+            return {other, 2, load}
+        end
+    end
+end
+
+saveRouting()
+redis.call('ZADD', KEYS[3], 'NX', ARGV[4], ARGV[2])
+redis.call('SADD', KEYS[7], ARGV[5])
+return false
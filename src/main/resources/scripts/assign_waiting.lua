@@ -0,0 +1,54 @@
+-- 从调用方读取的各等待队列队首用户中按分数（优先级、等待时间）顺序取出不超过客服剩余容量的用户，并原子地分配给该客服
+-- 候选用户由调用方预先读取，脚本访问的键全部由KEYS传入；读取后已离开队列的用户跳过
+-- KEYS[1] 客服负载有序集合
+-- KEYS[2] 该客服的用户集合键
+-- KEYS[3] 客服容量哈希
+-- KEYS[4..3+n] 该客服可以服务的等待队列（默认队列和技能队列），n为ARGV[3]
+-- KEYS[4+n..] 候选用户的用户-客服映射键，与ARGV[4..]中的候选用户一一对应
+-- ARGV[1] 客服ID
+-- ARGV[2] 默认容量
+-- ARGV[3] 等待队列数n
+-- ARGV[4..] 候选用户：用户ID, 所在等待队列的序号（1..n）, 用户ID, 序号, ...
+-- 返回 {用户ID, 等待队列分数, 用户ID, 等待队列分数, ...}
+
+local load = redis.call('ZSCORE', KEYS[1], ARGV[1])
+if not load then
+    return {}
+end
+local capacity = tonumber(redis.call('HGET', KEYS[3], cjson.decode(ARGV[1])) or ARGV[2]) - tonumber(load)
+local queueCount = tonumber(ARGV[3])
+
+-- 读取候选用户当前的分数，按分数从小到大排序
+local candidates = {}
+for i = 4, #ARGV - 1, 2 do
+    local queueKey = KEYS[3 + tonumber(ARGV[i + 1])]
+    local score = redis.call('ZSCORE', queueKey, ARGV[i])
+    if score then
+        candidates[#candidates + 1] = {
+            user = ARGV[i], queueKey = queueKey, score = tonumber(score),
+            userKey = KEYS[3 + queueCount + (i - 2) / 2]
+        }
+    end
+end
+table.sort(candidates, function(a, b) return a.score < b.score end)
+
+local assigned = {}
+local count = 0
+for _, candidate in ipairs(candidates) do
+    if count >= capacity then
+        break
+    end
+    redis.call('ZREM', candidate.queueKey, candidate.user)
+    if redis.call('EXISTS', candidate.userKey) == 0 then
+        redis.call('SET', candidate.userKey, ARGV[1])
+        redis.call('SADD', KEYS[2], candidate.user)
+        assigned[#assigned + 1] = candidate.user
+        assigned[#assigned + 1] = candidate.score
+        count = count + 1
+    end
+end
+
+if count > 0 then
+    redis.call('ZINCRBY', KEYS[1], count, ARGV[1])
+end
+return assigned
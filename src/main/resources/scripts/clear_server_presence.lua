@@ -0,0 +1,22 @@
+-- 服务器排空或下线时批量删除其登记的在线状态
+-- 用户已重连到其他服务器（用户-服务器映射指向其他服务器）时只从本服务器的用户集合中移除，不影响新的登记
+-- KEYS[1] 服务器在线用户集合
+-- KEYS[2] 在线用户集合
+-- KEYS[3] 用户-服务器映射键前缀
+-- ARGV[1] 服务器ID
+-- ARGV[2..n] 本批用户ID
+-- 返回本批删除在线状态的用户数
+
+local removed = 0
+for i = 2, #ARGV do
+    local user = ARGV[i]
+    redis.call('SREM', KEYS[1], user)
+    local key = KEYS[3] .. cjson.decode(user)
+    local owner = redis.call('GET', key)
+    if not owner or owner == ARGV[1] then
+        redis.call('DEL', key)
+        redis.call('SREM', KEYS[2], user)
+        removed = removed + 1
+    end
+end
+return removed
@@ -0,0 +1,115 @@
+-- 客服下线：移除客服并在一次调用中把它的全部用户重新分配给其他可以服务该用户队列的客服，没有容量时加入对应的等待队列
+-- 每个用户都分配给负载最低的可用客服，分配后立即更新负载，使用户均匀分布
+-- 用户、候选客服和队列由调用方预先读取，脚本访问的键全部由KEYS传入；
+-- 读取后下线客服又分配了新用户时不做修改，由调用方重新读取后重试
+-- KEYS[1] 客服集合
+-- KEYS[2] 客服负载有序集合
+-- KEYS[3] 下线客服的用户集合键
+-- KEYS[4] 客服容量哈希
+-- KEYS[5] 客服技能哈希
+-- KEYS[6] 用户路由哈希
+-- KEYS[7] 等待队列名称集合
+-- KEYS[8..7+a] 候选客服的用户集合，a为ARGV[4]
+-- KEYS[8+a..7+a+q] 用户所在队列的等待队列，q为ARGV[5]
+-- KEYS[8+a+q..] 下线客服各用户的用户-客服映射键，与ARGV中的用户一一对应
+-- ARGV[1] 下线的客服ID
+-- ARGV[2] 默认容量
+-- ARGV[3] 当前时间戳（毫秒），用于计算等待队列分数
+-- ARGV[4] 候选客服数a
+-- ARGV[5] 队列数q
+-- ARGV[6..5+a] 候选客服ID
+-- ARGV[6+a..5+a+q] 队列名称
+-- ARGV[6+a+q..] 用户：用户ID, 所在队列的序号（1..q）, 用户ID, 序号, ...
+-- 返回 {用户ID, 新客服ID或0（进入等待队列）, ...}，需要重试时返回 {-1}
+
+-- 与RoutingRequest.waitingScore一致：高位为 (最大优先级 - 优先级)，低41位为时间戳
+local TIME_FACTOR = 2199023255552
+local MAX_PRIORITY = 9
+
+local agentCount = tonumber(ARGV[4])
+local queueCount = tonumber(ARGV[5])
+local userStart = 6 + agentCount + queueCount
+
+-- 下线客服的用户必须都在调用方读取的用户中
+local known = {}
+for i = userStart, #ARGV - 1, 2 do
+    known[ARGV[i]] = true
+end
+for _, user in ipairs(redis.call('SMEMBERS', KEYS[3])) do
+    if not known[user] then
+        return {-1}
+    end
+end
+
+local agentId = cjson.decode(ARGV[1])
+redis.call('SREM', KEYS[1], ARGV[1])
+redis.call('ZREM', KEYS[2], ARGV[1])
+redis.call('HDEL', KEYS[4], agentId)
+redis.call('HDEL', KEYS[5], agentId)
+redis.call('DEL', KEYS[3])
+
+-- 读取一次候选客服的负载、容量和技能，分配时在内存中选择
+local agents = {}
+for i = 1, agentCount do
+    local agent = ARGV[5 + i]
+    local load = redis.call('ZSCORE', KEYS[2], agent)
+    if load then
+        local id = cjson.decode(agent)
+        local skills = redis.call('HGET', KEYS[5], id)
+        agents[#agents + 1] = {
+            agent = agent, usersKey = KEYS[7 + i], load = tonumber(load),
+            capacity = tonumber(redis.call('HGET', KEYS[4], id) or ARGV[2]),
+            skills = skills and (',' .. cjson.decode(skills) .. ',') or nil
+        }
+    end
+end
+
+local function pick(queue)
+    local best = nil
+    for _, candidate in ipairs(agents) do
+        if candidate.load < candidate.capacity
+                and (queue == '' or (candidate.skills and string.find(candidate.skills, ',' .. queue .. ',', 1, true)))
+                and (not best or candidate.load < best.load) then
+            best = candidate
+        end
+    end
+    return best
+end
+
+local result = {}
+local userIndex = 0
+for i = userStart, #ARGV - 1, 2 do
+    userIndex = userIndex + 1
+    local user = ARGV[i]
+    local userKey = KEYS[7 + agentCount + queueCount + userIndex]
+    -- 跳过已经不属于该客服的用户
+    if redis.call('GET', userKey) == ARGV[1] then
+        local queueIndex = tonumber(ARGV[i + 1])
+        local queue = cjson.decode(ARGV[5 + agentCount + queueIndex])
+        local priority = 0
+        local routing = redis.call('HGET', KEYS[6], cjson.decode(user))
+        if routing then
+            local p = string.match(cjson.decode(routing), '|(%d+)$')
+            if p then
+                priority = tonumber(p)
+            end
+        end
+
+        local target = pick(queue)
+        if target then
+            target.load = tonumber(redis.call('ZINCRBY', KEYS[2], 1, target.agent))
+            redis.call('SET', userKey, target.agent)
+            redis.call('SADD', target.usersKey, user)
+            result[#result + 1] = user
+            result[#result + 1] = target.agent
+        else
+            redis.call('DEL', userKey)
+            redis.call('ZADD', KEYS[7 + agentCount + queueIndex], 'NX',
+                    string.format('%.0f', (MAX_PRIORITY - priority) * TIME_FACTOR + tonumber(ARGV[3])), user)
+            redis.call('SADD', KEYS[7], ARGV[5 + agentCount + queueIndex])
+            result[#result + 1] = user
+            result[#result + 1] = 0
+        end
+    end
+end
+return result
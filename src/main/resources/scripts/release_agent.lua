@@ -0,0 +1,40 @@
+-- 用户断开时原子地解除用户与客服的关联并减少客服负载，尚未分配客服的用户从其等待队列中移除
+-- 客服和队列由调用方预先读取，脚本访问的键全部由KEYS传入；读取后映射或路由发生变化时不做修改，由调用方重新读取后重试
+-- KEYS[1] 用户-客服映射键
+-- KEYS[2] 客服负载有序集合
+-- KEYS[3] 用户路由哈希（用户ID -> "队列|优先级"）
+-- KEYS[4] 用户所在队列的等待队列有序集合
+-- KEYS[5] 客服的用户集合，用户未分配客服时不传
+-- ARGV[1] 用户ID
+-- ARGV[2] 调用方读取到的客服ID，空字符串表示未分配客服
+-- ARGV[3] 调用方读取到的用户路由，空字符串表示默认路由
+-- 返回 {1, 原来的客服ID}：已解除关联
+--      {0}：用户未分配客服，已从等待队列移除
+--      {-1}：映射或路由已变化，需要重试
+
+local user = cjson.decode(ARGV[1])
+local agent = redis.call('GET', KEYS[1])
+local routing = redis.call('HGET', KEYS[3], user)
+local expectedAgent = cjson.decode(ARGV[2])
+local expectedRouting = cjson.decode(ARGV[3])
+if (expectedAgent == '' and agent) or (expectedAgent ~= '' and agent ~= ARGV[2])
+        or (routing and cjson.decode(routing) or '') ~= expectedRouting then
+    return {-1}
+end
+
+redis.call('HDEL', KEYS[3], user)
+if not agent then
+    redis.call('ZREM', KEYS[4], ARGV[1])
+    return {0}
+end
+
+redis.call('DEL', KEYS[1])
+redis.call('SREM', KEYS[5], ARGV[1])
+-- 客服已下线时不再记录负载
+if redis.call('ZSCORE', KEYS[2], agent) then
+    local load = tonumber(redis.call('ZINCRBY', KEYS[2], -1, agent))
+    if load < 0 then
+        redis.call('ZADD', KEYS[2], 0, agent)
+    end
+end
+return {1, agent}
@@ -0,0 +1,57 @@
+package com.example.nettywebsocket.broker;
+
+import com.example.nettywebsocket.listener.RedisMessageListener;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内消息代理，用于在没有Redis的情况下测试多服务器消息路由
+ * 以 "*" 结尾的主题按前缀匹配，与Redis的PatternTopic用法一致
+ */
+public class InMemoryMessageBroker implements MessageBroker {
+
+    private final Map<String, List<RedisMessageListener>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicLong publishCount = new AtomicLong();
+
+    /**
+     * 订阅主题
+     * @param topic 主题，以 "*" 结尾时按前缀匹配
+     * @param listener 消息监听器
+     */
+    public void subscribe(String topic, RedisMessageListener listener) {
+        subscriptions.computeIfAbsent(topic, k -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    @Override
+    public long publish(String topic, String payload) {
+        publishCount.incrementAndGet();
+        long receivers = 0;
+        for (Map.Entry<String, List<RedisMessageListener>> entry : subscriptions.entrySet()) {
+            if (matches(entry.getKey(), topic)) {
+                for (RedisMessageListener listener : entry.getValue()) {
+                    listener.handleMessage(topic, payload);
+                    receivers++;
+                }
+            }
+        }
+        return receivers;
+    }
+
+    /**
+     * 已发布的消息数
+     */
+    public long getPublishCount() {
+        return publishCount.get();
+    }
+
+    private static boolean matches(String subscription, String topic) {
+        if (subscription.endsWith("*")) {
+            return topic.startsWith(subscription.substring(0, subscription.length() - 1));
+        }
+        return subscription.equals(topic);
+    }
+}
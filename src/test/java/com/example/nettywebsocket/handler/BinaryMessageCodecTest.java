@@ -0,0 +1,122 @@
+package com.example.nettywebsocket.handler;
+
+import com.example.nettywebsocket.model.WebSocketMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BinaryMessageCodec与BinaryProtocolEncoder测试类
+ */
+class BinaryMessageCodecTest {
+
+    @Test
+    void testRoundTripAndIdInterning() {
+        BinaryMessageCodec encoder = new BinaryMessageCodec();
+        BinaryMessageCodec decoder = new BinaryMessageCodec();
+
+        WebSocketMessage first = new WebSocketMessage(WebSocketMessage.TYPE_CHAT, "你好", "user1", "agent1");
+        first.setMessageId(UUID.randomUUID().toString());
+        WebSocketMessage second = new WebSocketMessage(WebSocketMessage.TYPE_CHAT, "你好", "user1", "agent1");
+        second.setMessageId(first.getMessageId());
+
+        ByteBuf firstBuf = Unpooled.buffer();
+        ByteBuf secondBuf = Unpooled.buffer();
+        try {
+            encoder.encode(first, firstBuf);
+            encoder.encode(second, secondBuf);
+            // 第二条消息的发送者和接收者只传输1字节引用，不再传输长度和全文
+            assertEquals(firstBuf.readableBytes() - ("user1".length() + 1) - ("agent1".length() + 1), secondBuf.readableBytes());
+
+            assertMessageEquals(first, decoder.decode(firstBuf));
+            assertMessageEquals(second, decoder.decode(secondBuf));
+            assertEquals(0, secondBuf.readerIndex());
+        } finally {
+            firstBuf.release();
+            secondBuf.release();
+        }
+    }
+
+    @Test
+    void testCustomTypeMissingFieldsAndPlainMessageId() {
+        WebSocketMessage message = new WebSocketMessage("CUSTOM", null, null, "group1");
+        message.setMessageId("msg-1");
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            new BinaryMessageCodec().encode(message, buf);
+            assertMessageEquals(message, new BinaryMessageCodec().decode(buf));
+
+            WebSocketMessage empty = new WebSocketMessage();
+            empty.setTimestamp(0);
+            buf.clear();
+            new BinaryMessageCodec().encode(empty, buf);
+            // flags和timestamp各1字节
+            assertEquals(2, buf.readableBytes());
+            assertMessageEquals(empty, new BinaryMessageCodec().decode(buf));
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void testCorruptedFrames() {
+        BinaryMessageCodec codec = new BinaryMessageCodec();
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            WebSocketMessage message = new WebSocketMessage(WebSocketMessage.TYPE_CHAT, "hello", "user1", "agent1");
+            codec.encode(message, buf);
+            codec.encode(message, buf.clear());
+            // 没有先收到全文就引用了标识
+            assertThrows(CorruptedFrameException.class, () -> new BinaryMessageCodec().decode(buf));
+            assertThrows(CorruptedFrameException.class, () -> new BinaryMessageCodec().decode(Unpooled.EMPTY_BUFFER));
+            // 截断的内容
+            ByteBuf truncated = Unpooled.buffer();
+            new BinaryMessageCodec().encode(message, truncated);
+            truncated.writerIndex(truncated.writerIndex() - 2);
+            assertThrows(CorruptedFrameException.class, () -> new BinaryMessageCodec().decode(truncated));
+            truncated.release();
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void testEncoderEncodesMessagesAndRejectsTextFrames() {
+        EmbeddedChannel channel = new EmbeddedChannel(new BinaryProtocolEncoder());
+        BinaryMessageCodec decoder = new BinaryMessageCodec();
+
+        WebSocketMessage confirm = new WebSocketMessage(WebSocketMessage.TYPE_CONFIRM, "消息已发送", "server", "user2");
+        channel.writeOutbound(confirm);
+        BinaryWebSocketFrame frame = channel.readOutbound();
+        try {
+            assertMessageEquals(confirm, decoder.decode(frame.content()));
+        } finally {
+            frame.release();
+        }
+
+        // 文本帧不再按JSON重新解析，也不会原样混发给二进制客户端
+        TextWebSocketFrame text = new TextWebSocketFrame("{\"type\":\"CHAT\"}");
+        assertThrows(EncoderException.class, () -> channel.writeOutbound(text));
+        assertEquals(0, text.refCnt());
+        assertNull(channel.readOutbound());
+        channel.finishAndReleaseAll();
+    }
+
+    private static void assertMessageEquals(WebSocketMessage expected, WebSocketMessage actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getSenderId(), actual.getSenderId());
+        assertEquals(expected.getReceiverId(), actual.getReceiverId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getMessageId(), actual.getMessageId());
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.nettywebsocket.handler;
+
+import com.example.nettywebsocket.model.WebSocketMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入站消息解析基准测试
+ * string为原来的TextWebSocketFrame.text()后ObjectMapper.readValue(String)，bytebuf为直接从帧的池化直接内存ByteBuf解析，
+ * 负载为200B与4KB的聊天消息。配合 -prof gc 运行，gc.alloc.rate.norm即每次解析的分配字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class InboundMessageDecodeBenchmark {
+
+    @Param({"string", "bytebuf"})
+    public String mode;
+
+    // 帧负载字节数
+    @Param({"200", "4096"})
+    public int payloadSize;
+
+    private ObjectMapper objectMapper;
+    private WebSocketMessageCodec codec;
+    private ByteBuf frame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        codec = new WebSocketMessageCodec(objectMapper);
+        String prefix = "{\"type\":\"CHAT\",\"receiverId\":\"agent-0001\",\"content\":\"";
+        String suffix = "\"}";
+        // 中英文混合，中文字符按UTF-8占3字节
+        int size = prefix.length() + suffix.length();
+        StringBuilder content = new StringBuilder();
+        while (size < payloadSize) {
+            boolean cjk = content.length() % 8 == 0 && payloadSize - size >= 3;
+            content.append(cjk ? '客' : 'a');
+            size += cjk ? 3 : 1;
+        }
+        frame = PooledByteBufAllocator.DEFAULT.directBuffer(payloadSize);
+        frame.writeBytes((prefix + content + suffix).getBytes(CharsetUtil.UTF_8));
+    }
+
+    @Benchmark
+    public WebSocketMessage decode() throws Exception {
+        if ("string".equals(mode)) {
+            return objectMapper.readValue(frame.toString(CharsetUtil.UTF_8), WebSocketMessage.class);
+        }
+        return codec.decode(frame);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.nettywebsocket.handler;
+
+import com.example.nettywebsocket.model.WebSocketMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * WebSocketMessageCodec测试类
+ */
+class WebSocketMessageCodecTest {
+
+    private static final String JSON = "{\"type\":\"CHAT\",\"content\":\"你好\",\"receiverId\":\"user2\"}";
+
+    private final WebSocketMessageCodec codec = new WebSocketMessageCodec(new ObjectMapper());
+
+    @Test
+    void testDecodeFromHeapAndDirectBuffers() throws Exception {
+        ByteBuf heap = Unpooled.copiedBuffer("xx" + JSON, CharsetUtil.UTF_8);
+        heap.skipBytes(2);
+        ByteBuf direct = Unpooled.directBuffer().writeBytes(JSON.getBytes(CharsetUtil.UTF_8));
+        try {
+            for (ByteBuf content : new ByteBuf[]{heap, direct}) {
+                int readerIndex = content.readerIndex();
+                WebSocketMessage message = codec.decode(content);
+                assertEquals("CHAT", message.getType());
+                assertEquals("你好", message.getContent());
+                assertEquals("user2", message.getReceiverId());
+                // 解析后内容仍可读取（回显等场景）
+                assertEquals(readerIndex, content.readerIndex());
+                assertEquals(JSON, content.toString(CharsetUtil.UTF_8));
+            }
+        } finally {
+            heap.release();
+            direct.release();
+        }
+    }
+
+    @Test
+    void testMalformedJsonThrows() {
+        ByteBuf content = Unpooled.directBuffer().writeBytes("{\"type\":".getBytes(CharsetUtil.UTF_8));
+        try {
+            assertThrows(IOException.class, () -> codec.decode(content));
+            assertEquals(0, content.readerIndex());
+        } finally {
+            content.release();
+        }
+    }
+
+    @Test
+    void testEncodeRoundTrip() throws Exception {
+        WebSocketMessage message = new WebSocketMessage("CHAT", "你好", "user1", "user2");
+        message.setMessageId("m1");
+        ByteBuf content = codec.encode(message);
+        try {
+            WebSocketMessage decoded = codec.decode(content);
+            assertEquals("你好", decoded.getContent());
+            assertEquals("m1", decoded.getMessageId());
+            assertEquals(message.getTimestamp(), decoded.getTimestamp());
+            assertEquals(new ObjectMapper().writeValueAsString(message), content.toString(CharsetUtil.UTF_8));
+        } finally {
+            content.release();
+        }
+    }
+}
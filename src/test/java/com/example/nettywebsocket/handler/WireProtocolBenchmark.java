@@ -0,0 +1,93 @@
+package com.example.nettywebsocket.handler;
+
+import com.example.nettywebsocket.model.WebSocketMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON文本协议与二进制协议的编解码基准测试
+ * 消息为同一会话中的聊天消息（发送者和接收者已在连接上出现过），内容为20B与200B。
+ * 每种组合的编码后字节数在Setup时打印；配合 -prof gc 运行可得到每次编解码的分配字节数
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WireProtocolBenchmark {
+
+    @Param({"json", "binary"})
+    public String codec;
+
+    // 消息内容字节数
+    @Param({"20", "200"})
+    public int contentSize;
+
+    private WebSocketMessageCodec jsonCodec;
+    private BinaryMessageCodec binaryEncoder;
+    private BinaryMessageCodec binaryDecoder;
+    private WebSocketMessage message;
+    private ByteBuf encoded;
+    private ByteBuf out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        jsonCodec = new WebSocketMessageCodec(new ObjectMapper());
+        binaryEncoder = new BinaryMessageCodec();
+        binaryDecoder = new BinaryMessageCodec();
+        StringBuilder content = new StringBuilder();
+        while (content.length() < contentSize) {
+            content.append('a');
+        }
+        message = new WebSocketMessage(WebSocketMessage.TYPE_CHAT, content.toString(), "user-000123", "agent-0042");
+        message.setMessageId(UUID.randomUUID().toString());
+        out = PooledByteBufAllocator.DEFAULT.directBuffer(1024);
+
+        if ("json".equals(codec)) {
+            encoded = jsonCodec.encode(PooledByteBufAllocator.DEFAULT, message);
+        } else {
+            // 第一条消息传输标识全文，之后为稳定状态
+            ByteBuf first = PooledByteBufAllocator.DEFAULT.directBuffer();
+            binaryEncoder.encode(message, first);
+            binaryDecoder.decode(first);
+            first.release();
+            encoded = PooledByteBufAllocator.DEFAULT.directBuffer();
+            binaryEncoder.encode(message, encoded);
+        }
+        System.out.println();
+        System.out.println("[" + codec + ", content=" + contentSize + "B] encoded size: " + encoded.readableBytes() + " B");
+    }
+
+    @Benchmark
+    public int encode() throws Exception {
+        if ("json".equals(codec)) {
+            ByteBuf buf = jsonCodec.encode(PooledByteBufAllocator.DEFAULT, message);
+            int size = buf.readableBytes();
+            buf.release();
+            return size;
+        }
+        out.clear();
+        binaryEncoder.encode(message, out);
+        return out.readableBytes();
+    }
+
+    @Benchmark
+    public WebSocketMessage decode() throws Exception {
+        if ("json".equals(codec)) {
+            return jsonCodec.decode(encoded);
+        }
+        return binaryDecoder.decode(encoded);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encoded.release();
+        out.release();
+    }
+}
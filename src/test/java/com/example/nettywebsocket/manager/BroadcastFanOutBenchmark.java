@@ -0,0 +1,98 @@
+package com.example.nettywebsocket.manager;
+
+import com.example.nettywebsocket.broker.MessageBroker;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import com.example.nettywebsocket.util.RedisUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 广播扇出基准测试
+ * 对比逐个接收者创建TextWebSocketFrame(String)并writeAndFlush与单次编码、共享ByteBuf扇出的开销
+ * 配合 -prof gc 运行，每个接收者的分配字节数 = gc.alloc.rate.norm / recipients
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BroadcastFanOutBenchmark {
+
+    @Param({"10000", "100000"})
+    public int recipients;
+
+    private RedisWebSocketConnectionManager connectionManager;
+    private EmbeddedChannel[] channels;
+    private String message;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(RedisWebSocketConnectionManager.class))
+                .setLevel(ch.qos.logback.classic.Level.ERROR);
+
+        connectionManager = new RedisWebSocketConnectionManager();
+        ReflectionTestUtils.setField(connectionManager, "redisUtil", new RedisUtil() {
+            @Override
+            public boolean isRedisAvailable() {
+                return false;
+            }
+        });
+        ReflectionTestUtils.setField(connectionManager, "objectMapper", new ObjectMapper());
+        // 只测量本地扇出，跨节点发布直接丢弃
+        ReflectionTestUtils.setField(connectionManager, "messageBroker", (MessageBroker) (topic, payload) -> 0L);
+        ReflectionTestUtils.setField(connectionManager, "metrics", new WebSocketMetrics());
+
+        channels = new EmbeddedChannel[recipients];
+        for (int i = 0; i < recipients; i++) {
+            channels[i] = new EmbeddedChannel();
+            connectionManager.addConnection("user" + i, channels[i]);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 256) {
+            builder.append("{\"type\":\"BROADCAST\",\"content\":\"系统通知\"}");
+        }
+        message = builder.toString();
+    }
+
+    @Benchmark
+    public void perRecipientFrame() {
+        for (Channel channel : channels) {
+            if (channel.isActive()) {
+                channel.writeAndFlush(new TextWebSocketFrame(message));
+            }
+        }
+    }
+
+    @Benchmark
+    public void sharedBufferFanOut() {
+        connectionManager.broadcast(message);
+    }
+
+    @TearDown(Level.Invocation)
+    public void drain() {
+        for (EmbeddedChannel channel : channels) {
+            channel.runPendingTasks();
+            Object frame;
+            while ((frame = channel.readOutbound()) != null) {
+                ReferenceCountUtil.release(frame);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finishAndReleaseAll();
+        }
+    }
+}
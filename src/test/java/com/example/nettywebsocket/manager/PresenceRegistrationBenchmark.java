@@ -0,0 +1,153 @@
+package com.example.nettywebsocket.manager;
+
+import com.example.nettywebsocket.config.RedisConfig;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import com.example.nettywebsocket.util.RedisHealthMonitor;
+import com.example.nettywebsocket.util.RedisUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线状态登记负载测试
+ * 模拟重连风暴中多个业务线程同时登记大量用户，对比三种写入方式完成全部登记所需的时间：
+ * sequential为改造前的逐条命令（PING + SET + SADD + SADD），pipelined为每个连接一个管道，
+ * batched为批量写入器合并多个连接后的管道写入。连接速率 = users / 单次耗时
+ * 需要可访问的Redis，通过 -Dredis.host、-Dredis.port 指定，默认localhost:6379
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PresenceRegistrationBenchmark {
+
+    @Param({"sequential", "pipelined", "batched"})
+    public String mode;
+
+    @Param({"50000"})
+    public int users;
+
+    // 并发登记的业务线程数
+    @Param({"16"})
+    public int threads;
+
+    private LettuceConnectionFactory connectionFactory;
+    private RedisTemplate<String, Object> redisTemplate;
+    private RedisUtil redisUtil;
+    private RedisWebSocketConnectionManager connectionManager;
+    private ExecutorService registrars;
+    private Channel[] channels;
+    private String[] userIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(RedisWebSocketConnectionManager.class))
+                .setLevel(ch.qos.logback.classic.Level.WARN);
+
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379)));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new RedisConfig().redisTemplate(connectionFactory);
+
+        WebSocketMetrics metrics = new WebSocketMetrics();
+        // 熔断器保持初始的CLOSED状态，不启动后台检查
+        RedisHealthMonitor healthMonitor = new RedisHealthMonitor();
+        ReflectionTestUtils.setField(healthMonitor, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(healthMonitor, "metrics", metrics);
+        redisUtil = new RedisUtil();
+        ReflectionTestUtils.setField(redisUtil, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(redisUtil, "healthMonitor", healthMonitor);
+
+        connectionManager = new RedisWebSocketConnectionManager();
+        ReflectionTestUtils.setField(connectionManager, "redisUtil", redisUtil);
+        ReflectionTestUtils.setField(connectionManager, "metrics", metrics);
+        ReflectionTestUtils.setField(connectionManager, "presenceBatchEnabled", "batched".equals(mode));
+        ReflectionTestUtils.setField(connectionManager, "presenceFlushIntervalMillis", 10L);
+        ReflectionTestUtils.setField(connectionManager, "presenceBatchMaxSize", 1000);
+        connectionManager.init();
+
+        registrars = Executors.newFixedThreadPool(threads);
+        channels = new Channel[users];
+        userIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            channels[i] = new EmbeddedChannel();
+            userIds[i] = "bench-user" + i;
+        }
+    }
+
+    @Benchmark
+    public void registerAll() throws Exception {
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int from = t * users / threads;
+            int to = (t + 1) * users / threads;
+            futures.add(registrars.submit(() -> {
+                for (int i = from; i < to; i++) {
+                    if ("sequential".equals(mode)) {
+                        registerSequentially(userIds[i]);
+                    } else {
+                        connectionManager.addConnection(userIds[i], channels[i]);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        if ("batched".equals(mode)) {
+            // 登记全部写入Redis后才算完成
+            flushPresence();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void unregisterAll() {
+        for (int i = 0; i < users; i++) {
+            connectionManager.removeConnection(channels[i]);
+            redisUtil.delete("websocket:user:server:" + userIds[i]);
+        }
+        flushPresence();
+        redisUtil.delete("websocket:online:users");
+        redisUtil.delete("websocket:server:users:" + connectionManager.getServerId());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        registrars.shutdownNow();
+        connectionManager.destroy();
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 改造前addConnection的Redis访问方式：每次先PING，再逐条发送三条命令
+     */
+    private void registerSequentially(String userId) {
+        redisTemplate.execute((RedisCallback<String>) RedisConnection::ping);
+        redisUtil.set("websocket:user:server:" + userId, connectionManager.getServerId(), 24, TimeUnit.HOURS);
+        redisUtil.addToSet("websocket:server:users:" + connectionManager.getServerId(), userId);
+        redisUtil.addToSet("websocket:online:users", userId);
+    }
+
+    private void flushPresence() {
+        PresenceWriter presenceWriter = (PresenceWriter) ReflectionTestUtils.getField(connectionManager, "presenceWriter");
+        if (presenceWriter != null) {
+            presenceWriter.flush();
+        }
+    }
+}
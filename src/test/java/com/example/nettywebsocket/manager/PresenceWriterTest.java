@@ -0,0 +1,64 @@
+package com.example.nettywebsocket.manager;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PresenceWriter测试类
+ */
+class PresenceWriterTest {
+
+    private final List<Map<String, Boolean>> flushed = new ArrayList<>();
+
+    @Test
+    void testLastRegistrationPerUserWins() {
+        PresenceWriter writer = new PresenceWriter(flushed::add, 10, 100);
+        writer.register("user1");
+        writer.unregister("user1");
+        writer.register("user2");
+        writer.unregister("user3");
+        writer.register("user3");
+
+        writer.flush();
+
+        assertEquals(1, flushed.size());
+        Map<String, Boolean> batch = flushed.get(0);
+        assertEquals(3, batch.size());
+        assertFalse(batch.get("user1"));
+        assertTrue(batch.get("user2"));
+        assertTrue(batch.get("user3"));
+        assertEquals(0, writer.pendingCount());
+    }
+
+    @Test
+    void testFlushSplitsIntoBatchesOfMaxSize() {
+        PresenceWriter writer = new PresenceWriter(flushed::add, 10, 2);
+        for (int i = 0; i < 5; i++) {
+            writer.register("user" + i);
+        }
+
+        writer.flush();
+
+        assertEquals(3, flushed.size());
+        assertEquals(2, flushed.get(0).size());
+        assertEquals(2, flushed.get(1).size());
+        assertEquals(1, flushed.get(2).size());
+    }
+
+    @Test
+    void testStopFlushesPendingRegistrations() {
+        PresenceWriter writer = new PresenceWriter(flushed::add, 60000, 100);
+        writer.start();
+        writer.register("user1");
+
+        writer.stop();
+
+        assertEquals(1, flushed.size());
+        assertTrue(flushed.get(0).get("user1"));
+    }
+}
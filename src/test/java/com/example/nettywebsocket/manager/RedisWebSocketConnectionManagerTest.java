@@ -0,0 +1,443 @@
+package com.example.nettywebsocket.manager;
+
+import com.example.nettywebsocket.broker.InMemoryMessageBroker;
+import com.example.nettywebsocket.handler.BinaryMessageCodec;
+import com.example.nettywebsocket.handler.BinaryProtocolEncoder;
+import com.example.nettywebsocket.handler.WebSocketMessageCodec;
+import com.example.nettywebsocket.listener.RedisMessageListener;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import com.example.nettywebsocket.model.WebSocketMessage;
+import com.example.nettywebsocket.util.RedisBatch;
+import com.example.nettywebsocket.util.RedisUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RedisWebSocketConnectionManager测试类
+ * 使用进程内消息代理模拟两个服务器实例之间的消息路由
+ */
+class RedisWebSocketConnectionManagerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final WebSocketMetrics metrics = new WebSocketMetrics();
+
+    // 两个服务器实例共享的Redis键值存储
+    private final Map<String, Object> sharedStore = new ConcurrentHashMap<>();
+    private final Map<String, Set<Object>> sharedSets = new ConcurrentHashMap<>();
+
+    private InMemoryMessageBroker broker;
+    private RedisWebSocketConnectionManager nodeA;
+    private RedisWebSocketConnectionManager nodeB;
+
+    @BeforeEach
+    void setUp() {
+        broker = new InMemoryMessageBroker();
+        nodeA = createNode();
+        nodeB = createNode();
+    }
+
+    @Test
+    void testSendMessageToUserOnOtherNode() {
+        EmbeddedChannel channelB = new EmbeddedChannel();
+        nodeB.addConnection("user2", channelB);
+
+        boolean sent = nodeA.sendMessage("user2", "hello");
+
+        assertTrue(sent);
+        assertEquals("hello", readText(channelB));
+        assertNull(channelB.readOutbound());
+    }
+
+    @Test
+    void testSendMessagesMergedPerNode() {
+        EmbeddedChannel channelA = new EmbeddedChannel();
+        EmbeddedChannel channelB2 = new EmbeddedChannel(DefaultChannelId.newInstance());
+        EmbeddedChannel channelB3 = new EmbeddedChannel(DefaultChannelId.newInstance());
+        nodeA.addConnection("user1", channelA);
+        nodeB.addConnection("user2", channelB2);
+        nodeB.addConnection("user3", channelB3);
+
+        Map<String, String> messages = new HashMap<>();
+        messages.put("user1", "m1");
+        messages.put("user2", "m2");
+        messages.put("user3", "m3");
+        messages.put("nobody", "m4");
+        long published = broker.getPublishCount();
+
+        assertEquals(3, nodeA.sendMessages(messages));
+
+        // 同一服务器上的两个用户合并为一次发布
+        assertEquals(published + 1, broker.getPublishCount());
+        assertEquals("m1", readText(channelA));
+        assertEquals("m2", readText(channelB2));
+        assertEquals("m3", readText(channelB3));
+    }
+
+    @Test
+    void testSendEncodedMessagesReleasesRemotePayloads() {
+        EmbeddedChannel channelA = new EmbeddedChannel();
+        EmbeddedChannel channelB = new EmbeddedChannel(DefaultChannelId.newInstance());
+        nodeA.addConnection("user1", channelA);
+        nodeB.addConnection("user2", channelB);
+
+        Map<String, ByteBuf> payloads = new HashMap<>();
+        ByteBuf local = Unpooled.copiedBuffer("m1", CharsetUtil.UTF_8);
+        ByteBuf remote = Unpooled.copiedBuffer("m2", CharsetUtil.UTF_8);
+        ByteBuf offline = Unpooled.copiedBuffer("m3", CharsetUtil.UTF_8);
+        payloads.put("user1", local);
+        payloads.put("user2", remote);
+        payloads.put("nobody", offline);
+
+        assertEquals(2, nodeA.sendEncodedMessages(payloads));
+
+        assertEquals("m1", readText(channelA));
+        assertEquals("m2", readText(channelB));
+        // 本地消息由帧写出后释放，转发和未送达的消息由连接管理器释放
+        assertEquals(0, local.refCnt());
+        assertEquals(0, remote.refCnt());
+        assertEquals(0, offline.refCnt());
+    }
+
+    @Test
+    void testSendMessageToOfflineUser() {
+        assertFalse(nodeA.sendMessage("nobody", "hello"));
+    }
+
+    @Test
+    void testSendMessageToUserOnDeadNode() {
+        // 用户映射仍指向一个已经没有订阅者的服务器
+        sharedStore.put("websocket:user:server:user3", "server:dead");
+
+        assertFalse(nodeA.sendMessage("user3", "hello"));
+    }
+
+    @Test
+    void testBroadcastDeliveredOncePerChannel() {
+        EmbeddedChannel channelA = new EmbeddedChannel();
+        EmbeddedChannel channelB = new EmbeddedChannel();
+        nodeA.addConnection("user1", channelA);
+        nodeB.addConnection("user2", channelB);
+
+        nodeA.broadcast("notice");
+
+        assertEquals("notice", readText(channelA));
+        assertNull(channelA.readOutbound());
+        assertEquals("notice", readText(channelB));
+        assertNull(channelB.readOutbound());
+    }
+
+    @Test
+    void testBinaryChannelsReceiveBinaryFrames() throws Exception {
+        WebSocketMessageCodec jsonCodec = new WebSocketMessageCodec(objectMapper);
+        EmbeddedChannel textChannel = new EmbeddedChannel(DefaultChannelId.newInstance());
+        EmbeddedChannel binaryChannel = new EmbeddedChannel(DefaultChannelId.newInstance(), new BinaryProtocolEncoder());
+        BinaryProtocolEncoder.markBinary(binaryChannel);
+        nodeA.addConnection("user1", textChannel);
+        nodeA.addConnection("user2", binaryChannel);
+        BinaryMessageCodec decoder = new BinaryMessageCodec();
+
+        WebSocketMessage notice = new WebSocketMessage(WebSocketMessage.TYPE_SYSTEM, "notice", "server", null);
+        nodeA.broadcast(jsonCodec.encode(notice));
+        WebSocketMessage chat = new WebSocketMessage(WebSocketMessage.TYPE_CHAT, "hi", "user1", "user2");
+        assertTrue(nodeA.sendMessage("user2", jsonCodec.encode(chat)));
+        textChannel.runPendingTasks();
+        binaryChannel.runPendingTasks();
+
+        TextWebSocketFrame text = textChannel.readOutbound();
+        BinaryWebSocketFrame first = binaryChannel.readOutbound();
+        BinaryWebSocketFrame second = binaryChannel.readOutbound();
+        try {
+            assertEquals("notice", jsonCodec.decode(text.content()).getContent());
+            assertEquals("notice", decoder.decode(first.content()).getContent());
+            assertEquals("hi", decoder.decode(second.content()).getContent());
+        } finally {
+            text.release();
+            first.release();
+            second.release();
+        }
+
+        // 不是WebSocketMessage的内容不会以文本帧发给二进制协议连接
+        assertFalse(nodeA.sendMessage("user2", Unpooled.copiedBuffer("not json", CharsetUtil.UTF_8)));
+        nodeA.broadcast("not json");
+        assertEquals("not json", readText(textChannel));
+        binaryChannel.runPendingTasks();
+        assertNull(binaryChannel.readOutbound());
+    }
+
+    @Test
+    void testSendToGroupAcrossNodes() {
+        EmbeddedChannel channelA = new EmbeddedChannel();
+        EmbeddedChannel channelB = new EmbeddedChannel();
+        nodeA.addConnection("user1", channelA);
+        nodeB.addConnection("user2", channelB);
+        nodeA.addToGroup("user1", "group1");
+        nodeB.addToGroup("user2", "group1");
+
+        nodeB.sendToGroup("group1", "group message");
+
+        assertEquals("group message", readText(channelA));
+        assertNull(channelA.readOutbound());
+        assertEquals("group message", readText(channelB));
+        assertNull(channelB.readOutbound());
+    }
+
+    @Test
+    void testGroupFanOutRunsOnEachEventLoop() {
+        // EmbeddedChannel默认共用同一个ChannelId，ChannelGroup中需要不同的ID
+        EmbeddedChannel channel1 = new EmbeddedChannel(DefaultChannelId.newInstance());
+        EmbeddedChannel channel2 = new EmbeddedChannel(DefaultChannelId.newInstance());
+        nodeA.addConnection("user1", channel1);
+        nodeA.addConnection("user2", channel2);
+        nodeA.addToGroup("user1", "group1");
+        nodeA.addToGroup("user2", "group1");
+
+        nodeA.sendToGroup("group1", "group message");
+
+        // 调用线程只提交分片任务，写入在各自的EventLoop上完成
+        assertNull(channel1.readOutbound());
+        assertEquals(0, metrics.getTimerCount("websocket.fanout.group.duration"));
+
+        assertEquals("group message", readText(channel1));
+        assertEquals(0, metrics.getTimerCount("websocket.fanout.group.duration"));
+        assertEquals("group message", readText(channel2));
+        assertEquals(1, metrics.getTimerCount("websocket.fanout.group.duration"));
+        assertEquals(2, metrics.getTimerCount("websocket.fanout.group.shard.duration"));
+        assertEquals(2, metrics.getCount("websocket.fanout.group.recipients"));
+    }
+
+    @Test
+    void testRemoveConnectionKeepsReconnectedChannel() {
+        EmbeddedChannel oldChannel = new EmbeddedChannel();
+        EmbeddedChannel newChannel = new EmbeddedChannel();
+        nodeA.addConnection("user1", oldChannel);
+        nodeA.addConnection("user1", newChannel);
+
+        // 旧连接晚于新连接断开，不能影响新连接
+        nodeA.removeConnection(oldChannel);
+
+        assertSame(newChannel, nodeA.getChannel("user1"));
+    }
+
+    @Test
+    void testStartDrainingIsLocalToServer() {
+        assertFalse(nodeA.isDraining());
+
+        nodeA.startDraining();
+
+        assertTrue(nodeA.isDraining());
+        assertFalse(nodeB.isDraining());
+    }
+
+    @Test
+    void testClearServerPresenceKeepsReconnectedUsers() {
+        ReflectionTestUtils.setField(nodeA, "drainPresenceBatchSize", 2);
+        for (int i = 1; i <= 5; i++) {
+            nodeA.addConnection("user" + i, new EmbeddedChannel(DefaultChannelId.newInstance()));
+        }
+        // user5已重连到另一个服务器，但旧服务器的集合中还有它
+        nodeB.addConnection("user5", new EmbeddedChannel(DefaultChannelId.newInstance()));
+
+        assertEquals(4, nodeA.clearServerPresence());
+
+        for (int i = 1; i <= 4; i++) {
+            assertNull(sharedStore.get("websocket:user:server:user" + i));
+        }
+        assertEquals(nodeB.getServerId(), sharedStore.get("websocket:user:server:user5"));
+        assertTrue(sharedSets.get("websocket:server:users:" + nodeA.getServerId()).isEmpty());
+        assertEquals(Collections.singleton("user5"), sharedSets.get("websocket:online:users"));
+    }
+
+    @Test
+    void testClearServerPresenceWithZeroBatchSize() {
+        ReflectionTestUtils.setField(nodeA, "drainPresenceBatchSize", 0);
+        nodeA.addConnection("user1", new EmbeddedChannel(DefaultChannelId.newInstance()));
+        nodeA.addConnection("user2", new EmbeddedChannel(DefaultChannelId.newInstance()));
+
+        // 配置为0时按每批一个用户处理
+        assertEquals(2, nodeA.clearServerPresence());
+        assertTrue(sharedSets.get("websocket:online:users").isEmpty());
+    }
+
+    @Test
+    void testSweepRemovesPresenceOfServerWithExpiredLease() {
+        nodeA.addConnection("user1", new EmbeddedChannel(DefaultChannelId.newInstance()));
+        nodeB.addConnection("user2", new EmbeddedChannel(DefaultChannelId.newInstance()));
+        nodeA.renewLease();
+        nodeB.renewLease();
+
+        // 租约有效时不清理
+        nodeA.sweepDeadServers();
+        assertEquals(nodeB.getServerId(), sharedStore.get("websocket:user:server:user2"));
+
+        // 服务器B宕机，租约过期
+        sharedStore.remove("websocket:server:lease:" + nodeB.getServerId());
+        nodeA.sweepDeadServers();
+
+        assertNull(sharedStore.get("websocket:user:server:user2"));
+        assertEquals(Collections.singleton("user1"), sharedSets.get("websocket:online:users"));
+        assertEquals(Collections.singleton(nodeA.getServerId()), sharedSets.get("websocket:servers"));
+        assertFalse(nodeA.sendMessage("user2", "hello"));
+        assertEquals(1, metrics.getCount("websocket.node.swept"));
+    }
+
+    @Test
+    void testRenewLeaseRegistersLocalConnectionsAgainAfterLeaseLost() {
+        nodeA.addConnection("user1", new EmbeddedChannel(DefaultChannelId.newInstance()));
+        nodeA.renewLease();
+        nodeB.renewLease();
+
+        // 服务器A长时间停顿，租约过期后被B清理
+        sharedStore.remove("websocket:server:lease:" + nodeA.getServerId());
+        nodeB.sweepDeadServers();
+        assertNull(sharedStore.get("websocket:user:server:user1"));
+
+        nodeA.renewLease();
+
+        assertEquals(nodeA.getServerId(), sharedStore.get("websocket:user:server:user1"));
+        assertTrue(sharedSets.get("websocket:online:users").contains("user1"));
+        assertTrue(sharedSets.get("websocket:servers").contains(nodeA.getServerId()));
+    }
+
+    private RedisWebSocketConnectionManager createNode() {
+        RedisWebSocketConnectionManager manager = new RedisWebSocketConnectionManager();
+        ReflectionTestUtils.setField(manager, "redisUtil", new SharedRedisUtil());
+        ReflectionTestUtils.setField(manager, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(manager, "messageCodec", new WebSocketMessageCodec(objectMapper));
+        ReflectionTestUtils.setField(manager, "messageBroker", broker);
+        ReflectionTestUtils.setField(manager, "metrics", metrics);
+
+        RedisMessageListener listener = new RedisMessageListener();
+        ReflectionTestUtils.setField(listener, "connectionManager", manager);
+        ReflectionTestUtils.setField(listener, "objectMapper", objectMapper);
+
+        broker.subscribe(RedisWebSocketConnectionManager.BROADCAST_TOPIC, listener);
+        broker.subscribe(RedisWebSocketConnectionManager.GROUP_TOPIC_PREFIX + "*", listener);
+        broker.subscribe(manager.getNodeTopic(), listener);
+        return manager;
+    }
+
+    private static String readText(EmbeddedChannel channel) {
+        // 扇出的flush以任务形式提交到EventLoop
+        channel.runPendingTasks();
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertNotNull(frame);
+        try {
+            return frame.text();
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * 基于共享内存的RedisUtil，只实现连接管理器用到的键值操作
+     */
+    private class SharedRedisUtil extends RedisUtil {
+
+        @Override
+        public boolean isRedisAvailable() {
+            return true;
+        }
+
+        @Override
+        public <T> T get(String key, Class<T> clazz) {
+            Object value = sharedStore.get(key);
+            return clazz.isInstance(value) ? clazz.cast(value) : null;
+        }
+
+        @Override
+        public void set(String key, Object value, long timeout, TimeUnit timeUnit) {
+            sharedStore.put(key, value);
+        }
+
+        @Override
+        public void delete(String key) {
+            sharedStore.remove(key);
+        }
+
+        @Override
+        public <T> List<T> multiGet(List<String> keys, Class<T> clazz) {
+            List<T> values = new ArrayList<>();
+            for (String key : keys) {
+                values.add(get(key, clazz));
+            }
+            return values;
+        }
+
+        @Override
+        public boolean hasKey(String key) {
+            return sharedStore.containsKey(key);
+        }
+
+        @Override
+        public void addToSet(String key, Object value) {
+            sharedSets.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(value);
+        }
+
+        @Override
+        public boolean executeBatch(RedisBatch batch) {
+            for (RedisBatch.SetCommand command : batch.getSetCommands()) {
+                sharedStore.put(command.getKey(), command.getValue());
+            }
+            batch.getDeletes().forEach(sharedStore::remove);
+            batch.getSetAdds().forEach((key, values) ->
+                    sharedSets.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).addAll(values));
+            batch.getSetRemoves().forEach((key, values) ->
+                    sharedSets.getOrDefault(key, Collections.emptySet()).removeAll(values));
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> Set<T> getSetMembers(String key, Class<T> clazz) {
+            return (Set<T>) new java.util.HashSet<>(sharedSets.getOrDefault(key, Collections.emptySet()));
+        }
+
+        /**
+         * 按 scripts/clear_server_presence.lua 的逻辑执行
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T executeScript(RedisScript<T> script, List<String> keys, Object... args) {
+            long removed = 0;
+            for (int i = 1; i < args.length; i++) {
+                Object user = args[i];
+                sharedSets.getOrDefault(keys.get(0), Collections.emptySet()).remove(user);
+                String key = keys.get(2) + user;
+                Object owner = sharedStore.get(key);
+                if (owner == null || owner.equals(args[0])) {
+                    sharedStore.remove(key);
+                    sharedSets.getOrDefault(keys.get(1), Collections.emptySet()).remove(user);
+                    removed++;
+                }
+            }
+            return (T) Long.valueOf(removed);
+        }
+
+        @Override
+        public void removeFromSet(String key, Object value) {
+            sharedSets.getOrDefault(key, Collections.emptySet()).remove(value);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.nettywebsocket.manager;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import com.example.nettywebsocket.util.RedisUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量断开连接基准测试
+ * 模拟节点下线或网络抖动时20万个连接同时断开，配合 -prof gc 可以查看分配量
+ * 通道和用户ID在Trial阶段创建一次，SingleShotTime模式下的分配量还包含每轮重新注册连接的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RemoveConnectionBenchmark {
+
+    @Param({"200000"})
+    public int connections;
+
+    private RedisWebSocketConnectionManager connectionManager;
+    private Channel[] channels;
+    private String[] userIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 避免逐条连接日志影响测量结果
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(RedisWebSocketConnectionManager.class))
+                .setLevel(ch.qos.logback.classic.Level.ERROR);
+
+        connectionManager = new RedisWebSocketConnectionManager();
+        // Redis不可用时RedisUtil的操作直接返回，测量结果只包含本地索引的开销
+        ReflectionTestUtils.setField(connectionManager, "redisUtil", new RedisUtil() {
+            @Override
+            public boolean isRedisAvailable() {
+                return false;
+            }
+        });
+        ReflectionTestUtils.setField(connectionManager, "metrics", new WebSocketMetrics());
+        channels = new Channel[connections];
+        userIds = new String[connections];
+        for (int i = 0; i < connections; i++) {
+            channels[i] = new EmbeddedChannel();
+            userIds[i] = "user" + i;
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void connectAll() {
+        for (int i = 0; i < connections; i++) {
+            connectionManager.addConnection(userIds[i], channels[i]);
+        }
+    }
+
+    @Benchmark
+    public void disconnectAll() {
+        for (Channel channel : channels) {
+            connectionManager.removeConnection(channel);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void verifyDrained() {
+        if (!connectionManager.getAllConnections().isEmpty()) {
+            throw new IllegalStateException("仍有未移除的连接: " + connectionManager.getAllConnections().size());
+        }
+    }
+}
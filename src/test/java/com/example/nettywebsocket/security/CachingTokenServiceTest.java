@@ -0,0 +1,168 @@
+package com.example.nettywebsocket.security;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CachingTokenService测试类
+ */
+class CachingTokenServiceTest {
+
+    private final WebSocketMetrics metrics = new WebSocketMetrics();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    // 模拟底层验证服务故障
+    private volatile boolean outage;
+
+    @Test
+    void testCachesValidAndInvalidTokens() {
+        CachingTokenService tokenService = new CachingTokenService(new CountingTokenService(null), 60000, 60000, 100, metrics);
+
+        assertEquals("user-valid", tokenService.resolve("valid"));
+        assertTrue(tokenService.validateToken("valid"));
+        assertEquals("user-valid", tokenService.getUserIdByToken("valid"));
+        assertNull(tokenService.resolve("invalid"));
+        assertFalse(tokenService.validateToken("invalid"));
+
+        assertEquals(2, calls.get());
+        assertEquals(3, metrics.getCount(CachingTokenService.METRIC_CACHE_HIT));
+
+        // 失效后重新查询
+        tokenService.invalidate("valid");
+        assertEquals("user-valid", tokenService.resolve("valid"));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void testExpiredEntriesAreReloaded() throws Exception {
+        CachingTokenService tokenService = new CachingTokenService(new CountingTokenService(null), 20, 0, 100, metrics);
+
+        tokenService.resolve("valid");
+        tokenService.resolve("valid");
+        assertEquals(1, calls.get());
+
+        // 无效token不缓存
+        tokenService.resolve("invalid");
+        tokenService.resolve("invalid");
+        assertEquals(3, calls.get());
+
+        Thread.sleep(50);
+        tokenService.resolve("valid");
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void testEvictsOldestEntriesBeyondMaxSize() {
+        CachingTokenService tokenService = new CachingTokenService(new CountingTokenService(null), 60000, 60000, 2, metrics);
+
+        tokenService.resolve("valid1");
+        tokenService.resolve("valid2");
+        tokenService.resolve("valid3");
+        assertEquals(2, tokenService.size());
+
+        // valid1最早加入，已被淘汰
+        tokenService.resolve("valid3");
+        assertEquals(3, calls.get());
+        tokenService.resolve("valid1");
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void testConcurrentLookupsOfSameTokenAreCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CachingTokenService tokenService = new CachingTokenService(new CountingTokenService(release), 60000, 60000, 100, metrics);
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> tokenService.resolve("valid")));
+            }
+            // 等待其余线程都加入第一个查询后再让它返回
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (metrics.getCount(CachingTokenService.METRIC_CACHE_COALESCED) < threads - 1 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<String> future : futures) {
+                assertEquals("user-valid", future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(threads - 1, metrics.getCount(CachingTokenService.METRIC_CACHE_COALESCED));
+    }
+
+    @Test
+    void testFailuresAreNotCachedAndRecoverImmediately() {
+        CachingTokenService tokenService = new CachingTokenService(new CountingTokenService(null), 60000, 60000, 100, metrics);
+
+        outage = true;
+        assertThrows(IllegalStateException.class, () -> tokenService.resolve("valid"));
+        assertTrue(tokenService.resolveAsync("valid").isCompletedExceptionally());
+        assertEquals(0, tokenService.size());
+
+        // 服务恢复后立即重新查询，不受无效token缓存影响
+        outage = false;
+        assertEquals("user-valid", tokenService.resolve("valid"));
+        assertEquals(3, calls.get());
+        assertEquals("user-valid", tokenService.resolve("valid"));
+        assertEquals(3, calls.get());
+    }
+
+    /**
+     * 以 valid 开头的token有效，用户ID为 user- 加token，记录调用次数；release不为null时等待其放行后才返回，
+     * outage为true时抛出异常
+     */
+    private class CountingTokenService implements TokenService {
+
+        private final CountDownLatch release;
+
+        CountingTokenService(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public boolean validateToken(String token) {
+            return resolve(token) != null;
+        }
+
+        @Override
+        public String getUserIdByToken(String token) {
+            return resolve(token);
+        }
+
+        @Override
+        public String resolve(String token) {
+            calls.incrementAndGet();
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (outage) {
+                throw new IllegalStateException("验证服务不可用");
+            }
+            return token.startsWith("valid") ? "user-" + token : null;
+        }
+
+        @Override
+        public void releaseToken(String token) {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.nettywebsocket.security;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 外部token验证吞吐量测试
+ * 本地桩HTTP服务模拟延迟均为50ms的外部验证接口和用户信息接口，每次握手先验证再获取用户ID，业务线程池（32个线程）为一批握手验证token，
+ * blocking为RestTemplate同步调用（每次验证占用一个业务线程100ms），async为异步连接池客户端（业务线程提交后立即返回）。
+ * 握手速率 = handshakes / 单次耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExternalTokenVerificationBenchmark {
+
+    private static final int AUTH_LATENCY_MILLIS = 50;
+
+    @Param({"blocking", "async"})
+    public String mode;
+
+    @Param({"2000"})
+    public int handshakes;
+
+    // 业务线程数
+    @Param({"32"})
+    public int threads;
+
+    // 异步客户端的最大连接数
+    @Param({"256"})
+    public int maxConnections;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ExecutorService businessThreads;
+    private DefaultTokenService tokenService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(serverExecutor);
+        server.createContext("/user-info", exchange -> {
+            try {
+                Thread.sleep(AUTH_LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String token = exchange.getRequestHeaders().getFirst("Authorization").substring("Bearer ".length());
+            byte[] body = ("{\"userId\":\"user-" + token + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.createContext("/validate-token", exchange -> {
+            try {
+                Thread.sleep(AUTH_LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"valid\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        tokenService = new DefaultTokenService();
+        ReflectionTestUtils.setField(tokenService, "enableExternalTokenValidation", true);
+        ReflectionTestUtils.setField(tokenService, "externalValidateUrl",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/validate-token");
+        ReflectionTestUtils.setField(tokenService, "externalUserInfoUrl",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/user-info");
+        ReflectionTestUtils.setField(tokenService, "externalRequestTimeout", 5000);
+        ReflectionTestUtils.setField(tokenService, "externalAsync", "async".equals(mode));
+        ReflectionTestUtils.setField(tokenService, "externalMaxConnections", maxConnections);
+        ReflectionTestUtils.setField(tokenService, "externalMaxPending", handshakes);
+        ReflectionTestUtils.setField(tokenService, "externalIoThreads", 2);
+        tokenService.init();
+
+        businessThreads = Executors.newFixedThreadPool(threads);
+    }
+
+    @Benchmark
+    public int verifyAll() throws Exception {
+        List<CompletableFuture<String>> results = new ArrayList<>(handshakes);
+        for (int i = 0; i < handshakes; i++) {
+            String token = "token" + i;
+            CompletableFuture<String> result = new CompletableFuture<>();
+            results.add(result);
+            businessThreads.execute(() -> {
+                if ("async".equals(mode)) {
+                    tokenService.resolveAsync(token).whenComplete((userId, error) -> result.complete(userId));
+                } else {
+                    result.complete(tokenService.resolve(token));
+                }
+            });
+        }
+        int verified = 0;
+        for (CompletableFuture<String> result : results) {
+            if (result.get() != null) {
+                verified++;
+            }
+        }
+        return verified;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        businessThreads.shutdownNow();
+        tokenService.destroy();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.nettywebsocket.security;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JwtTokenService测试类
+ */
+class JwtTokenServiceTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testVerifiesHmacTokens() throws Exception {
+        JwtTokenService tokenService = createTokenService(SECRET, null);
+        long now = System.currentTimeMillis() / 1000;
+
+        String token = hmac("HS256", "{\"sub\":\"user1\",\"exp\":" + (now + 600) + "}");
+        assertEquals("user1", tokenService.resolve(token));
+        assertTrue(tokenService.validateToken(token));
+        assertEquals("user1", tokenService.resolve(hmac("HS512", "{\"sub\":\"user1\"}")));
+
+        // 签名被篡改、已过期、alg为none、格式错误
+        assertNull(tokenService.resolve(token.substring(0, token.length() - 2) + "AA"));
+        assertNull(tokenService.resolve(hmac("HS256", "{\"sub\":\"user1\",\"exp\":" + (now - 600) + "}")));
+        assertNull(tokenService.resolve(encode("{\"alg\":\"none\"}") + "." + encode("{\"sub\":\"user1\"}") + "."));
+        assertNull(tokenService.resolve("not-a-jwt"));
+        assertNull(tokenService.resolve(null));
+    }
+
+    @Test
+    void testChecksIssuerAudienceAndUserIdClaim() throws Exception {
+        JwtTokenService tokenService = createTokenService(SECRET, null);
+        ReflectionTestUtils.setField(tokenService, "issuer", "auth-server");
+        ReflectionTestUtils.setField(tokenService, "audience", "websocket");
+        ReflectionTestUtils.setField(tokenService, "userIdClaim", "uid");
+
+        assertEquals("user2", tokenService.resolve(hmac("HS256",
+                "{\"uid\":\"user2\",\"iss\":\"auth-server\",\"aud\":[\"api\",\"websocket\"]}")));
+        assertNull(tokenService.resolve(hmac("HS256", "{\"uid\":\"user2\",\"iss\":\"other\",\"aud\":\"websocket\"}")));
+        assertNull(tokenService.resolve(hmac("HS256", "{\"uid\":\"user2\",\"iss\":\"auth-server\",\"aud\":\"api\"}")));
+        assertNull(tokenService.resolve(hmac("HS256", "{\"sub\":\"user2\",\"iss\":\"auth-server\",\"aud\":\"websocket\"}")));
+    }
+
+    @Test
+    void testVerifiesRsaAndEcTokensFromJwksAndReloadsRotatedKeys() throws Exception {
+        KeyPair rsa = generate("RSA", null);
+        KeyPair ec = generate("EC", "secp256r1");
+        KeyPair rotated = generate("EC", "secp256r1");
+        Path jwks = tempDir.resolve("jwks.json");
+        Files.write(jwks, ("{\"keys\":[" + rsaJwk("rsa1", rsa) + "," + ecJwk("ec1", ec) + "]}").getBytes(StandardCharsets.UTF_8));
+        JwtTokenService tokenService = createTokenService("", jwks);
+
+        assertEquals("user3", tokenService.resolve(sign("RS256", "rsa1", "{\"sub\":\"user3\"}", rsa.getPrivate())));
+        assertEquals("user4", tokenService.resolve(sign("ES256", "ec1", "{\"sub\":\"user4\"}", ec.getPrivate())));
+        // kid对应的密钥类型与算法不符、kid不存在
+        assertNull(tokenService.resolve(sign("ES256", "rsa1", "{\"sub\":\"user4\"}", ec.getPrivate())));
+        assertNull(tokenService.resolve(sign("ES256", "ec2", "{\"sub\":\"user5\"}", rotated.getPrivate())));
+
+        // 密钥轮换：新的JWKS只包含ec2
+        Files.write(jwks, ("{\"keys\":[" + ecJwk("ec2", rotated) + "]}").getBytes(StandardCharsets.UTF_8));
+        tokenService.reloadKeys();
+        assertEquals("user5", tokenService.resolve(sign("ES256", "ec2", "{\"sub\":\"user5\"}", rotated.getPrivate())));
+        assertNull(tokenService.resolve(sign("ES256", "ec1", "{\"sub\":\"user4\"}", ec.getPrivate())));
+    }
+
+    @Test
+    void testEcSignatureDerConversion() throws Exception {
+        // R的最高位为1时需要补0，S有前导0时需要去掉
+        byte[] raw = new byte[64];
+        raw[0] = (byte) 0x80;
+        raw[31] = 1;
+        raw[63] = 2;
+        byte[] der = JwtTokenService.Algorithm.toDer(raw);
+        assertArrayEquals(raw, toRaw(der, 64));
+    }
+
+    static JwtTokenService createTokenService(String secret, Path jwks) {
+        JwtTokenService tokenService = new JwtTokenService();
+        ReflectionTestUtils.setField(tokenService, "secret", secret);
+        ReflectionTestUtils.setField(tokenService, "jwksFile", jwks != null ? jwks.toString() : "");
+        ReflectionTestUtils.setField(tokenService, "jwksRefreshIntervalMillis", 0L);
+        tokenService.init();
+        return tokenService;
+    }
+
+    static String hmac(String alg, String claims) throws Exception {
+        String signingInput = encode("{\"alg\":\"" + alg + "\",\"typ\":\"JWT\"}") + "." + encode(claims);
+        String jcaName = "Hmac" + alg.replace("HS", "SHA");
+        Mac mac = Mac.getInstance(jcaName);
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), jcaName));
+        return signingInput + "." + encode(mac.doFinal(signingInput.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    static String sign(String alg, String kid, String claims, PrivateKey key) throws Exception {
+        String signingInput = encode("{\"alg\":\"" + alg + "\",\"kid\":\"" + kid + "\"}") + "." + encode(claims);
+        boolean ec = alg.startsWith("ES");
+        Signature signature = Signature.getInstance("SHA" + alg.substring(2) + (ec ? "withECDSA" : "withRSA"));
+        signature.initSign(key);
+        signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+        byte[] bytes = signature.sign();
+        return signingInput + "." + encode(ec ? toRaw(bytes, 64) : bytes);
+    }
+
+    static KeyPair generate(String algorithm, String curve) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        if (curve != null) {
+            generator.initialize(new ECGenParameterSpec(curve));
+        } else {
+            generator.initialize(2048);
+        }
+        return generator.generateKeyPair();
+    }
+
+    static String rsaJwk(String kid, KeyPair keyPair) {
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        return "{\"kty\":\"RSA\",\"kid\":\"" + kid + "\",\"use\":\"sig\",\"n\":\"" + encode(unsigned(key.getModulus(), 0))
+                + "\",\"e\":\"" + encode(unsigned(key.getPublicExponent(), 0)) + "\"}";
+    }
+
+    static String ecJwk(String kid, KeyPair keyPair) {
+        ECPublicKey key = (ECPublicKey) keyPair.getPublic();
+        return "{\"kty\":\"EC\",\"kid\":\"" + kid + "\",\"crv\":\"P-256\",\"x\":\"" + encode(unsigned(key.getW().getAffineX(), 32))
+                + "\",\"y\":\"" + encode(unsigned(key.getW().getAffineY(), 32)) + "\"}";
+    }
+
+    private static String encode(String json) {
+        return encode(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * 无符号大端字节，length大于0时左侧补0到固定长度
+     */
+    private static byte[] unsigned(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        if (length <= bytes.length) {
+            return bytes;
+        }
+        byte[] padded = new byte[length];
+        System.arraycopy(bytes, 0, padded, length - bytes.length, bytes.length);
+        return padded;
+    }
+
+    /**
+     * DER编码的ECDSA签名转为JWS使用的定长R||S
+     */
+    private static byte[] toRaw(byte[] der, int length) {
+        int offset = der[1] == (byte) 0x81 ? 3 : 2;
+        int rLength = der[offset + 1];
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(der, offset + 2, offset + 2 + rLength));
+        offset += 2 + rLength;
+        int sLength = der[offset + 1];
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(der, offset + 2, offset + 2 + sLength));
+        byte[] raw = new byte[length];
+        byte[] rBytes = unsigned(r, length / 2);
+        byte[] sBytes = unsigned(s, length / 2);
+        System.arraycopy(rBytes, 0, raw, 0, length / 2);
+        System.arraycopy(sBytes, 0, raw, length / 2, length / 2);
+        return raw;
+    }
+}
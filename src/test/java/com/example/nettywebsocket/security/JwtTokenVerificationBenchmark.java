@@ -0,0 +1,110 @@
+package com.example.nettywebsocket.security;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 握手token验证耗时测试
+ * jwt-*为本地验证JWT签名（密钥已解析并缓存），external为DefaultTokenService通过外部验证接口和用户信息接口验证
+ * （本地桩HTTP服务，没有额外延迟，包含两次本机HTTP往返），每次验证的token相同，不经过验证结果缓存
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtTokenVerificationBenchmark {
+
+    @Param({"jwt-hs256", "jwt-rs256", "jwt-es256", "external"})
+    public String mode;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Path jwks;
+    private TokenService tokenService;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        String claims = "{\"sub\":\"user1\",\"exp\":" + (System.currentTimeMillis() / 1000 + 3600) + "}";
+        if ("external".equals(mode)) {
+            serverExecutor = Executors.newFixedThreadPool(4);
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+            server.setExecutor(serverExecutor);
+            server.createContext("/user-info", exchange -> {
+                byte[] body = "{\"userId\":\"user1\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            });
+            server.createContext("/validate-token", exchange -> {
+                byte[] body = "{\"valid\":true}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            });
+            server.start();
+
+            DefaultTokenService defaultTokenService = new DefaultTokenService();
+            ReflectionTestUtils.setField(defaultTokenService, "enableExternalTokenValidation", true);
+            ReflectionTestUtils.setField(defaultTokenService, "externalValidateUrl",
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/validate-token");
+            ReflectionTestUtils.setField(defaultTokenService, "externalUserInfoUrl",
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/user-info");
+            ReflectionTestUtils.setField(defaultTokenService, "externalRequestTimeout", 5000);
+            ReflectionTestUtils.setField(defaultTokenService, "externalAsync", true);
+            ReflectionTestUtils.setField(defaultTokenService, "externalMaxConnections", 8);
+            ReflectionTestUtils.setField(defaultTokenService, "externalMaxPending", 1024);
+            ReflectionTestUtils.setField(defaultTokenService, "externalIoThreads", 1);
+            defaultTokenService.init();
+            tokenService = defaultTokenService;
+            token = "token1";
+            return;
+        }
+
+        if ("jwt-hs256".equals(mode)) {
+            tokenService = JwtTokenServiceTest.createTokenService("0123456789abcdef0123456789abcdef", null);
+            token = JwtTokenServiceTest.hmac("HS256", claims);
+            return;
+        }
+        boolean rsa = "jwt-rs256".equals(mode);
+        KeyPair keyPair = rsa ? JwtTokenServiceTest.generate("RSA", null) : JwtTokenServiceTest.generate("EC", "secp256r1");
+        String jwk = rsa ? JwtTokenServiceTest.rsaJwk("key1", keyPair) : JwtTokenServiceTest.ecJwk("key1", keyPair);
+        jwks = Files.createTempFile("jwks", ".json");
+        Files.write(jwks, ("{\"keys\":[" + jwk + "]}").getBytes(StandardCharsets.UTF_8));
+        tokenService = JwtTokenServiceTest.createTokenService("", jwks);
+        token = JwtTokenServiceTest.sign(rsa ? "RS256" : "ES256", "key1", claims, keyPair.getPrivate());
+    }
+
+    @Benchmark
+    public String verify() {
+        return tokenService.resolveAsync(token).join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (tokenService instanceof DefaultTokenService) {
+            ((DefaultTokenService) tokenService).destroy();
+        }
+        if (server != null) {
+            server.stop(0);
+            serverExecutor.shutdownNow();
+        }
+        if (jwks != null) {
+            Files.deleteIfExists(jwks);
+        }
+    }
+}
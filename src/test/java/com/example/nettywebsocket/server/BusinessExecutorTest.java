@@ -0,0 +1,215 @@
+package com.example.nettywebsocket.server;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BusinessExecutor测试类
+ */
+class BusinessExecutorTest {
+
+    private final WebSocketMetrics metrics = new WebSocketMetrics();
+
+    private BusinessExecutor businessExecutor;
+
+    @BeforeEach
+    void setUp() {
+        businessExecutor = new BusinessExecutor();
+        ReflectionTestUtils.setField(businessExecutor, "threads", 4);
+        ReflectionTestUtils.setField(businessExecutor, "queueCapacity", 100);
+        ReflectionTestUtils.setField(businessExecutor, "maxPendingPerConnection", 8);
+        ReflectionTestUtils.setField(businessExecutor, "metrics", metrics);
+        businessExecutor.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        businessExecutor.stop();
+    }
+
+    @Test
+    void testTasksOfOneConnectionRunInOrder() throws Exception {
+        Executor executor = businessExecutor.newSerialExecutor();
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        for (int i = 0; i < 7; i++) {
+            int index = i;
+            executor.execute(() -> executed.add(index));
+        }
+        executor.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), executed);
+    }
+
+    @Test
+    void testPendingTasksPerConnectionAreBounded() throws Exception {
+        Executor executor = businessExecutor.newSerialExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 8; i++) {
+            executor.execute(() -> { });
+        }
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+        assertEquals(1, metrics.getCount("websocket.business.rejected"));
+
+        // 其他连接不受影响
+        CountDownLatch otherDone = new CountDownLatch(1);
+        businessExecutor.newSerialExecutor().execute(otherDone::countDown);
+        assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+
+        blocked.countDown();
+    }
+
+    @Test
+    void testContinuesInCurrentThreadWhenResubmissionRejected() throws Exception {
+        // 单线程、共享队列长度为1，队列被其他连接的任务占满后，重新调度会被拒绝
+        businessExecutor.stop();
+        ReflectionTestUtils.setField(businessExecutor, "threads", 1);
+        ReflectionTestUtils.setField(businessExecutor, "queueCapacity", 1);
+        ReflectionTestUtils.setField(businessExecutor, "maxPendingPerConnection", 1000);
+        businessExecutor.start();
+
+        Executor executor = businessExecutor.newSerialExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 500; i++) {
+            int index = i;
+            executor.execute(() -> executed.add(index));
+        }
+        executor.execute(done::countDown);
+        CountDownLatch otherDone = new CountDownLatch(1);
+        businessExecutor.newSerialExecutor().execute(otherDone::countDown);
+
+        blocked.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+        assertEquals(500, executed.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, executed.get(i).intValue());
+        }
+    }
+    @Test
+    void testGuaranteedTasksBypassLimitAndNeverRunOnCallerThread() throws Exception {
+        // 单线程、共享队列长度为1
+        businessExecutor.stop();
+        ReflectionTestUtils.setField(businessExecutor, "threads", 1);
+        ReflectionTestUtils.setField(businessExecutor, "queueCapacity", 1);
+        ReflectionTestUtils.setField(businessExecutor, "maxPendingPerConnection", 2);
+        businessExecutor.start();
+
+        BusinessExecutor.SerialExecutor executor = businessExecutor.newSerialExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // 连接达到待处理上限后，普通任务被拒绝，清理任务仍然排在已提交的任务之后
+        List<String> executed = new CopyOnWriteArrayList<>();
+        executor.execute(() -> executed.add("message1"));
+        executor.execute(() -> executed.add("message2"));
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> executed.add("rejected")));
+        CountDownLatch cleanedUp = new CountDownLatch(1);
+        executor.executeGuaranteed(() -> {
+            executed.add("cleanup");
+            cleanedUp.countDown();
+        });
+
+        // 线程池已满：另一个连接的任务占满队列，其清理任务交给后备线程，不在调用线程上执行
+        businessExecutor.newSerialExecutor().execute(() -> { });
+        String caller = Thread.currentThread().getName();
+        List<String> cleanupThreads = new CopyOnWriteArrayList<>();
+        CountDownLatch otherCleanedUp = new CountDownLatch(1);
+        businessExecutor.newSerialExecutor().executeGuaranteed(() -> {
+            cleanupThreads.add(Thread.currentThread().getName());
+            otherCleanedUp.countDown();
+        });
+        assertTrue(otherCleanedUp.await(5, TimeUnit.SECONDS));
+        assertNotEquals(caller, cleanupThreads.get(0));
+        assertTrue(cleanupThreads.get(0).startsWith("websocket-business-fallback"));
+
+        blocked.countDown();
+        assertTrue(cleanedUp.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("message1", "message2", "cleanup"), executed);
+    }
+
+    @Test
+    void testRejectedSubmissionKeepsTasksAcceptedMeanwhile() throws Exception {
+        // 线程池拒绝调度时，其他调用方在此期间已提交的任务不能被丢弃
+        BusinessExecutor.SerialExecutor executor = businessExecutor.newSerialExecutor();
+        businessExecutor.stop();
+        ReflectionTestUtils.setField(businessExecutor, "threads", 1);
+        ReflectionTestUtils.setField(businessExecutor, "queueCapacity", 1);
+        businessExecutor.start();
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) ReflectionTestUtils.getField(businessExecutor, "executor");
+        CountDownLatch blocked = new CountDownLatch(1);
+        pool.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        pool.execute(() -> { });
+
+        // 模拟并发：在本次调度被拒绝之前，另一个调用方的任务已经进入队列
+        CountDownLatch accepted = new CountDownLatch(1);
+        ReflectionTestUtils.setField(businessExecutor, "executor", new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1)) {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(accepted::countDown);
+                pool.execute(command);
+            }
+        });
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+        assertTrue(accepted.await(5, TimeUnit.SECONDS));
+
+        blocked.countDown();
+        ReflectionTestUtils.setField(businessExecutor, "executor", pool);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.nettywebsocket.server;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CompressionMetricsHandler测试类
+ */
+class CompressionMetricsHandlerTest {
+
+    @Test
+    void testCountsBytesOnBothSidesOfTheDeflateEncoder() {
+        WebSocketExtensionFilter skipSmall = frame -> frame.content().readableBytes() < 1024;
+        WebSocketServerExtension extension = new PerMessageDeflateServerExtensionHandshaker(6, true, 15, true, false,
+                new WebSocketExtensionFilterProvider() {
+                    @Override
+                    public WebSocketExtensionFilter encoderFilter() {
+                        return skipSmall;
+                    }
+
+                    @Override
+                    public WebSocketExtensionFilter decoderFilter() {
+                        return WebSocketExtensionFilter.NEVER_SKIP;
+                    }
+                }).handshakeExtension(new WebSocketExtensionData("permessage-deflate", Collections.emptyMap()));
+        assertNotNull(extension);
+
+        WebSocketMetrics metrics = new WebSocketMetrics();
+        EmbeddedChannel channel = new EmbeddedChannel(CompressionMetricsHandler.wire(metrics),
+                extension.newExtensionEncoder(), CompressionMetricsHandler.raw(metrics));
+
+        StringBuilder history = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            history.append("{\"type\":\"CHAT\",\"content\":\"消息").append(i).append("\",\"senderId\":\"user1\"},");
+        }
+        String small = "{\"type\":\"CONFIRM\"}";
+        channel.writeOutbound(new TextWebSocketFrame(history.toString()));
+        channel.writeOutbound(new TextWebSocketFrame(small));
+        channel.writeOutbound(new PingWebSocketFrame());
+
+        CompressionMetricsHandler.Stats stats = CompressionMetricsHandler.stats(channel);
+        int rawBytes = history.toString().getBytes(CharsetUtil.UTF_8).length + small.length();
+        assertEquals(rawBytes, stats.getRawBytes());
+        assertEquals(1, stats.getCompressedFrames());
+        assertTrue(stats.getWireBytes() < rawBytes / 2);
+        assertTrue(stats.getRatio() < 0.5);
+        assertEquals(rawBytes, metrics.getCount(CompressionMetricsHandler.METRIC_RAW_BYTES));
+        assertEquals(stats.getWireBytes(), metrics.getCount(CompressionMetricsHandler.METRIC_WIRE_BYTES));
+        channel.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.nettywebsocket.server;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * flush合并基准测试
+ * 业务线程以每秒 rate 条的速度处理聊天消息，每条消息写给接收者一帧、回给发送者一个确认帧，对比：
+ * 逐帧writeAndFlush（原实现）与写入后统一刷新并在pipeline头部加入FlushConsolidationHandler。
+ * 到达socket的flush次数近似等于write/writev系统调用次数，结束时打印每条消息对应的刷新次数，
+ * 可用 strace -f -c -e trace=write,writev 核对
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FlushConsolidationBenchmark {
+
+    @Param({"false", "true"})
+    public boolean consolidate;
+
+    // 每秒处理的聊天消息数
+    @Param({"10000"})
+    public int rate;
+
+    // 每轮处理的聊天消息数
+    @Param({"10000"})
+    public int messages;
+
+    @Param({"200"})
+    public int connections;
+
+    private static final int BUSINESS_THREADS = 8;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private EventLoopGroup clientGroup;
+    private ExecutorService businessExecutor;
+    private Channel serverChannel;
+    private final List<Channel> serverChildren = new CopyOnWriteArrayList<>();
+    private final List<Channel> clientChannels = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong socketFlushes = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private volatile long expectedBytes;
+    private volatile CountDownLatch received;
+
+    private ByteBuf chat;
+    private ByteBuf confirm;
+    private int frameBytes;
+    // 所有轮次累计的消息数和刷新次数
+    private long totalMessages;
+    private long totalFlushes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        chat = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(
+                "{\"type\":\"CHAT\",\"content\":\"您好，请问订单什么时候发货？\",\"senderId\":\"user1\",\"receiverId\":\"agent1\"}",
+                CharsetUtil.UTF_8));
+        confirm = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(
+                "{\"type\":\"CONFIRM\",\"content\":\"消息已发送\",\"senderId\":\"server\",\"receiverId\":\"user1\"}",
+                CharsetUtil.UTF_8));
+        frameBytes = frameLength(chat) + frameLength(confirm);
+
+        ChannelHandler flushCounter = new CountingFlushHandler(socketFlushes);
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(4);
+        serverChannel = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        // 统计到达socket的flush，放在最前面
+                        ch.pipeline().addLast(flushCounter);
+                        if (consolidate) {
+                            ch.pipeline().addLast(new FlushConsolidationHandler(256, true));
+                        }
+                        ch.pipeline().addLast(new WebSocket13FrameEncoder(false));
+                        serverChildren.add(ch);
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+
+        clientGroup = new NioEventLoopGroup(2);
+        Bootstrap client = new Bootstrap()
+                .group(clientGroup)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                ByteBuf buf = (ByteBuf) msg;
+                                long total = receivedBytes.addAndGet(buf.readableBytes());
+                                buf.release();
+                                if (total >= expectedBytes) {
+                                    received.countDown();
+                                }
+                            }
+                        });
+                    }
+                });
+        for (int i = 0; i < connections; i++) {
+            clientChannels.add(client.connect(serverChannel.localAddress()).sync().channel());
+        }
+        while (serverChildren.size() < connections) {
+            Thread.sleep(10);
+        }
+
+        businessExecutor = Executors.newFixedThreadPool(BUSINESS_THREADS);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        receivedBytes.set(0);
+        expectedBytes = (long) messages * frameBytes;
+        received = new CountDownLatch(1);
+    }
+
+    @Benchmark
+    public void chatWithConfirm() throws Exception {
+        long startFlushes = socketFlushes.get();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            // 按速率放出消息
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Channel sender = serverChildren.get(i % connections);
+            Channel receiver = serverChildren.get((i + 1) % connections);
+            businessExecutor.execute(() -> handleChat(sender, receiver));
+        }
+        if (!received.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("30秒内未收到全部消息，已收到字节数: " + receivedBytes.get());
+        }
+        totalMessages += messages;
+        totalFlushes += socketFlushes.get() - startFlushes;
+    }
+
+    /**
+     * 模拟handleChatMessage：接收者一帧，发送者一个确认帧
+     */
+    private void handleChat(Channel sender, Channel receiver) {
+        // 接收者的消息由连接管理器writeAndFlush
+        receiver.writeAndFlush(new TextWebSocketFrame(chat.duplicate()));
+        if (consolidate) {
+            sender.write(new TextWebSocketFrame(confirm.duplicate()));
+            sender.flush();
+        } else {
+            sender.writeAndFlush(new TextWebSocketFrame(confirm.duplicate()));
+        }
+    }
+
+    /**
+     * 服务端发出的帧不加掩码，负载小于126字节时头部2字节，否则（小于64KB）4字节
+     */
+    private static int frameLength(ByteBuf payload) {
+        return payload.readableBytes() + (payload.readableBytes() < 126 ? 2 : 4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%nconsolidate=%s: 每条消息的socket刷新次数 %.3f（%d条消息，%d次刷新）%n",
+                consolidate, (double) totalFlushes / Math.max(1, totalMessages), totalMessages, totalFlushes);
+        businessExecutor.shutdownNow();
+        for (Channel channel : clientChannels) {
+            channel.close().syncUninterruptibly();
+        }
+        serverChannel.close().syncUninterruptibly();
+        clientGroup.shutdownGracefully().syncUninterruptibly();
+        workerGroup.shutdownGracefully().syncUninterruptibly();
+        bossGroup.shutdownGracefully().syncUninterruptibly();
+        ReferenceCountUtil.safeRelease(chat.unwrap());
+        ReferenceCountUtil.safeRelease(confirm.unwrap());
+    }
+
+    /**
+     * 统计到达socket的flush次数
+     */
+    @ChannelHandler.Sharable
+    private static class CountingFlushHandler extends ChannelOutboundHandlerAdapter {
+
+        private final AtomicLong flushes;
+
+        CountingFlushHandler(AtomicLong flushes) {
+            this.flushes = flushes;
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            flushes.incrementAndGet();
+            ctx.flush();
+        }
+    }
+}
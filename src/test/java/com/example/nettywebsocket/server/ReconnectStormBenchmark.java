@@ -0,0 +1,128 @@
+package com.example.nettywebsocket.server;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重连风暴基准测试
+ * 对比1个监听socket与多个SO_REUSEPORT监听socket时，服务端accept一批并发连接所需的时间
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReconnectStormBenchmark {
+
+    // 监听socket数量，大于1时启用SO_REUSEPORT
+    @Param({"1", "4"})
+    public int acceptors;
+
+    // 每轮风暴的并发连接数
+    @Param({"2000"})
+    public int connections;
+
+    private NettyWebSocketServer server;
+    private EventLoopGroup clientGroup;
+    private Bootstrap client;
+    private int port;
+
+    private volatile CountDownLatch accepted;
+    private final List<Channel> clientChannels = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        server = new NettyWebSocketServer();
+        ReflectionTestUtils.setField(server, "port", port);
+        ReflectionTestUtils.setField(server, "bossGroupThreads", acceptors);
+        ReflectionTestUtils.setField(server, "workerGroupThreads", 4);
+        ReflectionTestUtils.setField(server, "transportMode", "auto");
+        ReflectionTestUtils.setField(server, "backlog", 1024);
+        ReflectionTestUtils.setField(server, "reusePort", acceptors > 1);
+        // 只统计accept，不安装WebSocket处理器
+        ReflectionTestUtils.setField(server, "serverInitializer", new NettyServerInitializer() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                accepted.countDown();
+                ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                        // 客户端RST关闭属于预期行为
+                        ctx.close();
+                    }
+                });
+            }
+        });
+        EventLoopLatencyMonitor latencyMonitor = new EventLoopLatencyMonitor();
+        ReflectionTestUtils.setField(latencyMonitor, "probeIntervalMillis", 100L);
+        ReflectionTestUtils.setField(latencyMonitor, "metrics", new WebSocketMetrics());
+        ReflectionTestUtils.setField(server, "latencyMonitor", latencyMonitor);
+        server.start();
+
+        clientGroup = new NioEventLoopGroup(4);
+        client = new Bootstrap()
+                .group(clientGroup)
+                .channel(NioSocketChannel.class)
+                // 客户端关闭时直接RST，避免TIME_WAIT耗尽本地端口
+                .option(ChannelOption.SO_LINGER, 0)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        // 客户端只负责建立连接
+                    }
+                });
+    }
+
+    @Setup(Level.Invocation)
+    public void resetLatch() {
+        accepted = new CountDownLatch(connections);
+    }
+
+    @Benchmark
+    public void reconnectStorm() throws Exception {
+        for (int i = 0; i < connections; i++) {
+            ChannelFuture future = client.connect("127.0.0.1", port);
+            clientChannels.add(future.channel());
+        }
+        if (!accepted.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("连接风暴未在30秒内全部被accept，剩余: " + accepted.getCount());
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeClients() {
+        for (Channel channel : clientChannels) {
+            channel.close().syncUninterruptibly();
+        }
+        clientChannels.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        clientGroup.shutdownGracefully().syncUninterruptibly();
+        server.stop();
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.nettywebsocket.server;
+
+import com.example.nettywebsocket.handler.WebSocketMessageCodec;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SlowConsumerHandler测试类
+ */
+class SlowConsumerHandlerTest {
+
+    // 超过高水位的消息，写入（未flush）后连接即不可写
+    private static final String LARGE = "{\"type\":\"CHAT\",\"content\":\"" + repeat('a', 64) + "\"}";
+
+    private final WebSocketMetrics metrics = new WebSocketMetrics();
+    private final AtomicInteger unwritableChannels = new AtomicInteger();
+
+    @Test
+    void testQueuesWhileUnwritableAndDropsOldest() {
+        EmbeddedChannel channel = createChannel(SlowConsumerPolicy.DROP_OLDEST, 2);
+        channel.write(new TextWebSocketFrame(LARGE));
+        assertFalse(channel.isWritable());
+        assertEquals(1, unwritableChannels.get());
+
+        for (int i = 1; i <= 4; i++) {
+            channel.write(new TextWebSocketFrame("m" + i));
+        }
+        // 控制帧排在已排队的数据之后，不会被丢弃
+        channel.write(new PingWebSocketFrame());
+        assertEquals(4, metrics.getCount(SlowConsumerHandler.METRIC_QUEUED));
+        assertEquals(2, metrics.getCount(SlowConsumerHandler.METRIC_DROPPED));
+
+        channel.flush();
+        channel.runPendingTasks();
+        assertTrue(channel.isWritable());
+        assertEquals(0, unwritableChannels.get());
+        assertEquals(LARGE, readText(channel));
+        assertEquals("m3", readText(channel));
+        assertEquals("m4", readText(channel));
+        assertTrue(channel.readOutbound() instanceof PingWebSocketFrame);
+        assertNull(channel.readOutbound());
+        assertEquals(1, metrics.getCount(SlowConsumerHandler.METRIC_UNWRITABLE));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testCloseFrameFollowsQueuedDataAndRejectsLaterFrames() {
+        EmbeddedChannel channel = createChannel(SlowConsumerPolicy.DROP_OLDEST, 10);
+        channel.write(new TextWebSocketFrame(LARGE));
+        channel.write(new TextWebSocketFrame("m1"));
+        ChannelFuture close = channel.write(new CloseWebSocketFrame(1012, "restart"));
+        ChannelFuture late = channel.write(new TextWebSocketFrame("m2"));
+        assertFalse(late.isSuccess());
+        assertNotNull(late.cause());
+
+        channel.flush();
+        channel.runPendingTasks();
+        assertEquals(LARGE, readText(channel));
+        assertEquals("m1", readText(channel));
+        CloseWebSocketFrame closeFrame = channel.readOutbound();
+        assertEquals(1012, closeFrame.statusCode());
+        closeFrame.release();
+        assertNull(channel.readOutbound());
+        assertTrue(close.isSuccess());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testCoalescesStatusMessagesOnlyAfterCapExceeded() {
+        EmbeddedChannel channel = createChannel(SlowConsumerPolicy.COALESCE, 4);
+        channel.write(new TextWebSocketFrame(LARGE));
+        // 未超过上限时不合并
+        channel.write(new TextWebSocketFrame(status("agent1", "1")));
+        channel.write(new TextWebSocketFrame(status("agent1", "2")));
+        channel.write(new TextWebSocketFrame("not json"));
+        channel.write(new TextWebSocketFrame(chat("c1")));
+        assertEquals(0, metrics.getCount(SlowConsumerHandler.METRIC_COALESCED));
+
+        // 超过上限，替换同一客服最早的状态消息
+        channel.write(new TextWebSocketFrame(status("agent1", "3")));
+        assertEquals(1, metrics.getCount(SlowConsumerHandler.METRIC_COALESCED));
+        assertEquals(0, metrics.getCount(SlowConsumerHandler.METRIC_DROPPED));
+
+        channel.flush();
+        channel.runPendingTasks();
+        assertEquals(LARGE, readText(channel));
+        assertEquals(status("agent1", "2"), readText(channel));
+        assertEquals("not json", readText(channel));
+        assertEquals(chat("c1"), readText(channel));
+        assertEquals(status("agent1", "3"), readText(channel));
+        assertNull(channel.readOutbound());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testNeverCoalescesChatMessages() {
+        EmbeddedChannel channel = createChannel(SlowConsumerPolicy.COALESCE, 2);
+        channel.write(new TextWebSocketFrame(LARGE));
+        channel.write(new TextWebSocketFrame(chat("c1")));
+        channel.write(new TextWebSocketFrame(chat("c2")));
+        // 同一收发者的聊天消息不合并，超过上限时丢弃最早的消息
+        channel.write(new TextWebSocketFrame(chat("c3")));
+        assertEquals(0, metrics.getCount(SlowConsumerHandler.METRIC_COALESCED));
+        assertEquals(1, metrics.getCount(SlowConsumerHandler.METRIC_DROPPED));
+
+        channel.flush();
+        channel.runPendingTasks();
+        assertEquals(LARGE, readText(channel));
+        assertEquals(chat("c2"), readText(channel));
+        assertEquals(chat("c3"), readText(channel));
+        assertNull(channel.readOutbound());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testDisconnectsSlowConsumer() {
+        EmbeddedChannel channel = createChannel(SlowConsumerPolicy.DISCONNECT, 2);
+        channel.write(new TextWebSocketFrame(LARGE));
+        for (int i = 1; i <= 3; i++) {
+            channel.write(new TextWebSocketFrame("m" + i));
+        }
+        assertFalse(channel.isOpen());
+        assertEquals(3, metrics.getCount(SlowConsumerHandler.METRIC_DROPPED));
+        assertEquals(1, metrics.getCount(SlowConsumerHandler.METRIC_DISCONNECTED));
+        assertEquals(0, unwritableChannels.get());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testResolvePolicy() {
+        assertEquals(SlowConsumerPolicy.COALESCE, SlowConsumerPolicy.resolve("Coalesce"));
+        assertEquals(SlowConsumerPolicy.DISCONNECT, SlowConsumerPolicy.resolve("disconnect"));
+        assertEquals(SlowConsumerPolicy.DROP_OLDEST, SlowConsumerPolicy.resolve("unknown"));
+    }
+
+    private EmbeddedChannel createChannel(SlowConsumerPolicy policy, int maxQueuedMessages) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(16, 32));
+        channel.pipeline().addLast(new SlowConsumerHandler(policy, maxQueuedMessages,
+                new WebSocketMessageCodec(new ObjectMapper()), metrics, unwritableChannels));
+        return channel;
+    }
+
+    private static String status(String agentId, String content) {
+        return "{\"type\":\"CS_STATUS\",\"content\":\"" + content + "\",\"senderId\":\"" + agentId + "\"}";
+    }
+
+    private static String chat(String content) {
+        return "{\"type\":\"CHAT\",\"content\":\"" + content + "\",\"senderId\":\"user1\",\"receiverId\":\"agent1\"}";
+    }
+
+    private static String readText(EmbeddedChannel channel) {
+        TextWebSocketFrame frame = channel.readOutbound();
+        try {
+            return frame.text();
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
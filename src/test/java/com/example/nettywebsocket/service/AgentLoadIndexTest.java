@@ -0,0 +1,73 @@
+package com.example.nettywebsocket.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AgentLoadIndexTest {
+
+    @Test
+    public void testPickLeastLoadedBelowLimit() {
+        AgentLoadIndex index = new AgentLoadIndex();
+        index.add("a", 3, 3);
+        index.add("b", 1, 3);
+        index.add("c", 2, 3);
+
+        assertEquals("b", index.pickAndIncrement());
+        assertEquals(2, index.getLoad("b").intValue());
+
+        // 负载相同时选中其中之一，两次之后b和c都为3
+        index.pickAndIncrement();
+        index.pickAndIncrement();
+        assertEquals(3, index.getLoad("b").intValue());
+        assertEquals(3, index.getLoad("c").intValue());
+
+        assertNull(index.pickAndIncrement());
+        assertNull(index.peekAvailable());
+    }
+
+    @Test
+    public void testPickByLoadRatioWithPerAgentCapacity() {
+        AgentLoadIndex index = new AgentLoadIndex();
+        index.add("small", 1, 2);
+        index.add("large", 4, 10);
+
+        // 1/2 > 4/10，负载更高但容量更大的客服负载率更低
+        assertEquals("large", index.peekAvailable());
+
+        // 容量调小后已满的客服不再被选中
+        index.setCapacity("large", 4);
+        assertEquals("small", index.pickAndIncrement());
+        assertNull(index.peekAvailable());
+
+        index.setCapacity("large", 8);
+        assertEquals("large", index.peekAvailable());
+    }
+
+    @Test
+    public void testRemoveAndIncrementKeepHeapOrder() {
+        AgentLoadIndex index = new AgentLoadIndex();
+        for (int i = 0; i < 100; i++) {
+            index.add("agent" + i, i, Integer.MAX_VALUE);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            assertTrue(index.remove("agent" + i));
+        }
+        assertFalse(index.remove("agent0"));
+        assertEquals(50, index.size());
+
+        index.increment("agent1", 1000);
+        index.increment("agent99", -1000);
+        assertEquals(0, index.getLoad("agent99").intValue());
+
+        int previous = -1;
+        String agentId;
+        while ((agentId = index.peekAvailable()) != null) {
+            int load = index.getLoad(agentId);
+            assertTrue(load >= previous);
+            previous = load;
+            index.remove(agentId);
+        }
+        assertEquals(1001, previous);
+    }
+}
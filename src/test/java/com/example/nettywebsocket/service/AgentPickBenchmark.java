@@ -0,0 +1,85 @@
+package com.example.nettywebsocket.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客服选择基准测试
+ * 对比每次分配都构建列表并按负载排序的选择方式与负载索引（最小堆）的选择延迟，
+ * 以及技能路由引擎在技能队列中的选择延迟（每个客服具有 SKILLS 个技能中的两个，选择只访问对应技能的索引）
+ * 每次操作选择一个客服后立即释放，保持负载分布稳定；配合 -prof gc 运行可确认负载索引选择不分配对象
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentPickBenchmark {
+
+    private static final int MAX_USERS_PER_AGENT = 20;
+    private static final int SKILLS = 8;
+
+    @Param({"50", "500", "5000"})
+    public int agents;
+
+    private Map<String, Integer> loads;
+    private AgentLoadIndex index;
+    private SkillRoutingEngine engine;
+    private String[] queues;
+    private int nextSkill;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        loads = new HashMap<>();
+        index = new AgentLoadIndex();
+        engine = new SkillRoutingEngine(MAX_USERS_PER_AGENT);
+        queues = new String[SKILLS];
+        for (int i = 0; i < SKILLS; i++) {
+            queues[i] = "skill" + i;
+        }
+        for (int i = 0; i < agents; i++) {
+            int load = i % MAX_USERS_PER_AGENT;
+            loads.put("agent" + i, load);
+            index.add("agent" + i, load, MAX_USERS_PER_AGENT);
+            engine.addAgent("agent" + i, new HashSet<>(Arrays.asList(queues[i % SKILLS], queues[(i + 1) % SKILLS])), null, load);
+        }
+    }
+
+    @Benchmark
+    public String sortedList() {
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>(loads.entrySet());
+        candidates.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            if (candidate.getValue() < MAX_USERS_PER_AGENT) {
+                String agentId = candidate.getKey();
+                loads.put(agentId, candidate.getValue() + 1);
+                loads.put(agentId, loads.get(agentId) - 1);
+                return agentId;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public String loadIndex() {
+        String agentId = index.pickAndIncrement();
+        index.increment(agentId, -1);
+        return agentId;
+    }
+
+    @Benchmark
+    public String skillRouting() {
+        String agentId = engine.pickAndIncrement(queues[nextSkill]);
+        nextSkill = (nextSkill + 1) % SKILLS;
+        engine.adjustLoad(agentId, -1);
+        return agentId;
+    }
+}
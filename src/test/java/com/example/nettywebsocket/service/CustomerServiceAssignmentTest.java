@@ -0,0 +1,335 @@
+package com.example.nettywebsocket.service;
+
+import com.example.nettywebsocket.config.RedisConfig;
+import com.example.nettywebsocket.handler.WebSocketMessageCodec;
+import com.example.nettywebsocket.manager.WebSocketConnectionManager;
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import com.example.nettywebsocket.model.WebSocketMessage;
+import com.example.nettywebsocket.util.RedisHealthMonitor;
+import com.example.nettywebsocket.util.RedisUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 客服并发分配测试
+ * 多个线程（以及多个节点）同时为用户分配客服时，每个客服的负载都不能超过上限
+ */
+class CustomerServiceAssignmentTest {
+
+    private static final int AGENTS = 5;
+    private static final int MAX_USERS_PER_AGENT = 20;
+    private static final int USERS = 200;
+    private static final int THREADS = 16;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    @AfterEach
+    void tearDown() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    void testConcurrentAssignmentWithLocalStorage() throws Exception {
+        CustomerService customerService = createCustomerService(null);
+        for (int i = 0; i < AGENTS; i++) {
+            customerService.registerAgent("agent" + i);
+        }
+
+        Map<String, String> assignments = assignConcurrently(customerService, customerService);
+
+        assertBalanced(customerService, assignments);
+    }
+
+    @Test
+    void testConcurrentAssignmentAcrossNodesWithRedis() throws Exception {
+        RedisUtil redisUtil = connectRedis();
+        assumeTrue(redisUtil != null, "Redis不可用，跳过跨节点并发分配测试");
+        cleanRedis(redisUtil);
+
+        // 两个节点共享同一个Redis
+        CustomerService nodeA = createCustomerService(redisUtil);
+        CustomerService nodeB = createCustomerService(redisUtil);
+        for (int i = 0; i < AGENTS; i++) {
+            nodeA.registerAgent("agent" + i);
+        }
+
+        try {
+            Map<String, String> assignments = assignConcurrently(nodeA, nodeB);
+
+            assertBalanced(nodeA, assignments);
+        } finally {
+            cleanRedis(redisUtil);
+        }
+    }
+
+    @Test
+    void testWaitingUsersAssignedInArrivalOrder() {
+        CustomerService customerService = createCustomerService(null);
+        customerService.setMaxUsersPerAgent(2);
+        customerService.registerAgent("agent0");
+        for (int i = 0; i < 5; i++) {
+            customerService.assignCustomerService("user" + i);
+        }
+        assertEquals(3, customerService.getWaitingCount());
+
+        // 客服空出一个位置时分配等待最久的用户
+        customerService.removeUserFromAgent("user0");
+        assertEquals("agent0", customerService.getAgentForUser("user2"));
+        assertEquals(2, customerService.getWaitingCount());
+
+        // 等待中的用户断开后离开队列
+        customerService.removeUserFromAgent("user3");
+        assertEquals(1, customerService.getWaitingCount());
+
+        // 新客服上线后一次取出剩余的等待用户
+        customerService.registerAgent("agent1");
+        assertEquals("agent1", customerService.getAgentForUser("user4"));
+        assertNull(customerService.getAgentForUser("user3"));
+        assertEquals(0, customerService.getWaitingCount());
+        assertEquals(1, customerService.getAgentLoad("agent1"));
+
+        WebSocketMetrics metrics = (WebSocketMetrics) ReflectionTestUtils.getField(customerService, "metrics");
+        assertEquals(3, metrics.getCount(CustomerService.METRIC_WAITING_ENQUEUED));
+        assertEquals(2, metrics.getTimerCount(CustomerService.METRIC_WAITING_TIME));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testOfflineAgentUsersReassignedInOneBatch() throws Exception {
+        CustomerService customerService = createCustomerService(null);
+        customerService.setMaxUsersPerAgent(4);
+        for (int i = 0; i < 3; i++) {
+            customerService.registerAgent("agent" + i);
+        }
+        for (int i = 0; i < 9; i++) {
+            customerService.assignCustomerService("user" + i);
+        }
+        List<String> orphans = customerService.getUsersForAgent("agent0");
+        assertEquals(3, orphans.size());
+
+        WebSocketConnectionManager connectionManager =
+                (WebSocketConnectionManager) ReflectionTestUtils.getField(customerService, "connectionManager");
+        clearInvocations(connectionManager);
+
+        customerService.unregisterAgent("agent0");
+
+        // 剩余两个客服共空出2个位置，多出的1个用户进入等待队列
+        assertEquals(4, customerService.getAgentLoad("agent1"));
+        assertEquals(4, customerService.getAgentLoad("agent2"));
+        assertEquals(1, customerService.getWaitingCount());
+        int reassigned = 0;
+        for (String userId : orphans) {
+            String agentId = customerService.getAgentForUser(userId);
+            assertNotEquals("agent0", agentId);
+            if (agentId != null) {
+                reassigned++;
+            }
+        }
+        assertEquals(2, reassigned);
+
+        // 用户和新客服的通知合并为一次批量发送
+        ArgumentCaptor<Map<String, ByteBuf>> messages = ArgumentCaptor.forClass(Map.class);
+        verify(connectionManager, times(1)).sendEncodedMessages(messages.capture());
+        verify(connectionManager, never()).sendMessages(anyMap());
+        verify(connectionManager, never()).sendMessage(anyString(), anyString());
+        verify(connectionManager, never()).sendMessage(anyString(), any(ByteBuf.class));
+        assertTrue(messages.getValue().keySet().containsAll(orphans));
+        assertEquals(orphans.size() + 2, messages.getValue().size());
+        // 通知直接由消息编码器编码
+        for (Map.Entry<String, ByteBuf> entry : messages.getValue().entrySet()) {
+            WebSocketMessage message = new ObjectMapper().readValue(entry.getValue().toString(CharsetUtil.UTF_8), WebSocketMessage.class);
+            assertEquals(entry.getKey(), message.getReceiverId());
+            entry.getValue().release();
+        }
+    }
+
+    @Test
+    void testSkillAndPriorityRoutingWithLocalStorage() {
+        assertSkillAndPriorityRouting(createCustomerService(null));
+    }
+
+    @Test
+    void testSkillAndPriorityRoutingWithRedis() {
+        RedisUtil redisUtil = connectRedis();
+        assumeTrue(redisUtil != null, "Redis不可用，跳过技能路由测试");
+        cleanRedis(redisUtil);
+        try {
+            assertSkillAndPriorityRouting(createCustomerService(redisUtil));
+        } finally {
+            cleanRedis(redisUtil);
+        }
+    }
+
+    /**
+     * agent0没有技能，agent1具有billing技能：技能队列的用户只分配给agent1，
+     * 等待时优先级高的用户先分配，修改容量立即生效
+     */
+    private void assertSkillAndPriorityRouting(CustomerService customerService) {
+        customerService.setMaxUsersPerAgent(1);
+        customerService.registerAgent("agent0");
+        customerService.registerAgent("agent1", Collections.singleton("billing"), null);
+        RoutingRequest billing = new RoutingRequest("billing", 0);
+
+        assertEquals("agent1", customerService.assignCustomerService("user0", billing));
+        assertEquals("agent0", customerService.assignCustomerService("user1"));
+        assertNull(customerService.assignCustomerService("user2", billing));
+        assertNull(customerService.assignCustomerService("user3", new RoutingRequest("billing", 5)));
+        assertNull(customerService.assignCustomerService("user4"));
+        assertEquals(3, customerService.getWaitingCount());
+
+        // agent1空出位置时，在默认队列和billing队列中优先分配优先级最高的用户
+        customerService.removeUserFromAgent("user0");
+        assertEquals("agent1", customerService.getAgentForUser("user3"));
+        assertEquals(2, customerService.getWaitingCount());
+
+        // 调大容量后立即分配剩余的等待用户
+        assertTrue(customerService.setAgentCapacity("agent1", 3));
+        assertEquals(3, customerService.getAgentCapacity("agent1"));
+        assertEquals("agent1", customerService.getAgentForUser("user2"));
+        assertEquals("agent1", customerService.getAgentForUser("user4"));
+        assertEquals(3, customerService.getAgentLoad("agent1"));
+        assertEquals(0, customerService.getWaitingCount());
+        assertFalse(customerService.setAgentCapacity("agent9", 3));
+
+        // agent1下线后agent0已满，用户按各自的队列等待；agent0没有billing技能，扩容后只能分配默认队列的用户
+        customerService.unregisterAgent("agent1");
+        assertEquals(3, customerService.getWaitingCount());
+        assertTrue(customerService.setAgentCapacity("agent0", 5));
+        assertEquals("agent0", customerService.getAgentForUser("user4"));
+        assertNull(customerService.getAgentForUser("user2"));
+        assertNull(customerService.getAgentForUser("user3"));
+        assertEquals(2, customerService.getWaitingCount());
+
+        // 等待中的技能队列用户断开后离开其队列
+        customerService.removeUserFromAgent("user2");
+        assertEquals(1, customerService.getWaitingCount());
+    }
+
+    /**
+     * 一半线程通过nodeA、一半通过nodeB同时分配，返回用户到客服的分配结果
+     */
+    private Map<String, String> assignConcurrently(CustomerService nodeA, CustomerService nodeB) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        Map<String, String> assignments = new ConcurrentHashMap<>();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                CustomerService node = t % 2 == 0 ? nodeA : nodeB;
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = thread; i < USERS; i += THREADS) {
+                        String agentId = node.assignCustomerService("user" + i);
+                        if (agentId != null) {
+                            assignments.put("user" + i, agentId);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return assignments;
+    }
+
+    private void assertBalanced(CustomerService customerService, Map<String, String> assignments) {
+        // 总容量之内的用户全部分配，超出的用户不分配
+        assertEquals(AGENTS * MAX_USERS_PER_AGENT, assignments.size());
+
+        Map<String, Integer> counts = new HashMap<>();
+        assignments.values().forEach(agentId -> counts.merge(agentId, 1, Integer::sum));
+        for (int i = 0; i < AGENTS; i++) {
+            String agentId = "agent" + i;
+            assertEquals(MAX_USERS_PER_AGENT, counts.getOrDefault(agentId, 0).intValue());
+            assertEquals(MAX_USERS_PER_AGENT, customerService.getAgentLoad(agentId));
+            assertEquals(MAX_USERS_PER_AGENT, customerService.getUsersForAgent(agentId).size());
+        }
+    }
+
+    private CustomerService createCustomerService(RedisUtil redisUtil) {
+        CustomerService customerService = new CustomerService();
+        ReflectionTestUtils.setField(customerService, "redisUtil", redisUtil);
+        ReflectionTestUtils.setField(customerService, "connectionManager", mock(WebSocketConnectionManager.class));
+        ReflectionTestUtils.setField(customerService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(customerService, "messageCodec", new WebSocketMessageCodec(new ObjectMapper()));
+        ReflectionTestUtils.setField(customerService, "conversationService", mock(ConversationService.class));
+        ReflectionTestUtils.setField(customerService, "metrics", new WebSocketMetrics());
+        ReflectionTestUtils.setField(customerService, "maxUsersPerAgent", MAX_USERS_PER_AGENT);
+        return customerService;
+    }
+
+    /**
+     * 连接本地Redis（-Dredis.host、-Dredis.port），不可用时返回null
+     */
+    private RedisUtil connectRedis() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379)));
+        connectionFactory.afterPropertiesSet();
+        RedisTemplate<String, Object> redisTemplate = new RedisConfig().redisTemplate(connectionFactory);
+        try {
+            redisTemplate.execute((RedisCallback<String>) RedisConnection::ping);
+        } catch (Exception e) {
+            return null;
+        }
+
+        RedisHealthMonitor healthMonitor = new RedisHealthMonitor();
+        ReflectionTestUtils.setField(healthMonitor, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(healthMonitor, "metrics", new WebSocketMetrics());
+        RedisUtil redisUtil = new RedisUtil();
+        ReflectionTestUtils.setField(redisUtil, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(redisUtil, "healthMonitor", healthMonitor);
+        return redisUtil;
+    }
+
+    private void cleanRedis(RedisUtil redisUtil) {
+        redisUtil.delete("websocket:{customer:service}");
+        redisUtil.delete("websocket:{customer:service}:loads");
+        redisUtil.delete("websocket:{customer:service}:waiting");
+        redisUtil.delete("websocket:{customer:service}:waiting:billing");
+        redisUtil.delete("websocket:{customer:service}:waiting-queues");
+        redisUtil.delete("websocket:{customer:service}:capacity");
+        redisUtil.delete("websocket:{customer:service}:skills");
+        redisUtil.delete("websocket:{customer:service}:user:routing");
+        for (int i = 0; i < AGENTS; i++) {
+            redisUtil.delete("websocket:{customer:service}:users:agent" + i);
+        }
+        for (int i = 0; i < USERS; i++) {
+            redisUtil.delete("websocket:{customer:service}:user:user" + i);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.nettywebsocket.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SkillRoutingEngineTest {
+
+    @Test
+    public void testSkillQueueOnlyUsesAgentsWithSkill() {
+        SkillRoutingEngine engine = new SkillRoutingEngine(2);
+        engine.addAgent("general", Collections.emptySet(), null, 0);
+        engine.addAgent("billing", new HashSet<>(Arrays.asList("billing", "refund")), null, 1);
+
+        // 默认队列可由任意客服服务，选择负载率最低的
+        assertEquals("general", engine.peek(RoutingRequest.DEFAULT_QUEUE));
+        assertEquals("billing", engine.pickAndIncrement("billing"));
+        assertNull(engine.pickAndIncrement("billing"));
+        assertNull(engine.peek("unknown"));
+
+        // 在技能队列中分配也会更新默认队列中的负载
+        assertEquals(2, engine.getLoad("billing").intValue());
+        assertEquals("general", engine.pickAndIncrement(RoutingRequest.DEFAULT_QUEUE));
+        assertEquals("general", engine.pickAndIncrement(RoutingRequest.DEFAULT_QUEUE));
+        assertNull(engine.peek(RoutingRequest.DEFAULT_QUEUE));
+
+        // 单独设置的容量立即生效，未单独设置的客服跟随默认容量
+        assertTrue(engine.setCapacity("billing", 3));
+        assertEquals("billing", engine.peek("refund"));
+        engine.setDefaultCapacity(5);
+        assertEquals(3, engine.getCapacity("billing").intValue());
+        assertEquals(5, engine.getCapacity("general").intValue());
+
+        assertTrue(engine.removeAgent("billing"));
+        assertNull(engine.peek("billing"));
+        assertFalse(engine.setCapacity("billing", 1));
+    }
+
+    @Test
+    public void testReconcileAppliesOnlyDifferences() {
+        SkillRoutingEngine engine = new SkillRoutingEngine(10);
+        engine.addAgent("a", Collections.emptySet(), null, 1);
+        engine.addAgent("b", Collections.singleton("vip"), null, 2);
+        engine.addAgent("c", Collections.emptySet(), null, 3);
+
+        Map<String, Integer> loads = new HashMap<>();
+        loads.put("a", 1);
+        loads.put("b", 5);
+        loads.put("d", 0);
+        Map<String, Set<String>> skills = new HashMap<>();
+        skills.put("b", Collections.singleton("vip"));
+        skills.put("d", Collections.singleton("vip"));
+        Map<String, Integer> capacities = new HashMap<>();
+        capacities.put("a", 4);
+
+        // a容量变化，b负载变化，c移除，d新增
+        assertEquals(4, engine.reconcile(loads, skills, capacities));
+        assertNull(engine.getLoad("c"));
+        assertEquals(5, engine.getLoad("b").intValue());
+        assertEquals(4, engine.getCapacity("a").intValue());
+        assertEquals("d", engine.peek("vip"));
+        assertEquals(0, engine.reconcile(loads, skills, capacities));
+    }
+}
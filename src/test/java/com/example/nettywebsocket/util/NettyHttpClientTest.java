@@ -0,0 +1,197 @@
+package com.example.nettywebsocket.util;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import com.sun.net.httpserver.HttpServer;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * NettyHttpClient测试类，使用JDK自带的HttpServer作为桩服务
+ */
+class NettyHttpClientTest {
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private NettyHttpClient client;
+
+    @AfterEach
+    void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.stop(0);
+            serverExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testReusesKeepAliveConnections() throws Exception {
+        String url = startServer(0);
+        client = new NettyHttpClient(1, 2, 16, 1000, 1000);
+
+        for (int i = 0; i < 20; i++) {
+            NettyHttpClient.Response response = client.execute(HttpMethod.GET, url + "?i=" + i,
+                    Collections.singletonMap("Authorization", "Bearer token" + i)).get(5, TimeUnit.SECONDS);
+            assertEquals(200, response.getStatus());
+            assertEquals("{\"userId\":\"Bearer token" + i + "\"}", response.getBody());
+        }
+        // 顺序请求复用同一个连接
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    void testLimitsConcurrentConnections() throws Exception {
+        String url = startServer(50);
+        client = new NettyHttpClient(1, 4, 64, 1000, 5000);
+
+        List<CompletableFuture<NettyHttpClient.Response>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(client.execute(HttpMethod.GET, url, Collections.emptyMap()));
+        }
+        for (CompletableFuture<NettyHttpClient.Response> future : futures) {
+            assertTrue(future.get(5, TimeUnit.SECONDS).isSuccessful());
+        }
+        assertTrue(maxActive.get() <= 4);
+        assertTrue(clientPorts.size() <= 4);
+    }
+
+    @Test
+    void testRequestTimeout() throws Exception {
+        String url = startServer(500);
+        client = new NettyHttpClient(1, 1, 16, 1000, 100);
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> client.execute(HttpMethod.GET, url, Collections.emptyMap()).get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof TimeoutException);
+    }
+
+    @Test
+    void testRejectsRequestsBeyondPendingLimit() throws Exception {
+        String url = startServer(200);
+        client = new NettyHttpClient(1, 1, 1, 1000, 5000);
+
+        CompletableFuture<NettyHttpClient.Response> first = client.execute(HttpMethod.GET, url, Collections.emptyMap());
+        CompletableFuture<NettyHttpClient.Response> second = client.execute(HttpMethod.GET, url, Collections.emptyMap());
+        CompletableFuture<NettyHttpClient.Response> third = client.execute(HttpMethod.GET, url, Collections.emptyMap());
+
+        // 第三个请求超过排队上限，立即失败
+        assertThrows(ExecutionException.class, () -> third.get(1, TimeUnit.SECONDS));
+        assertTrue(first.get(5, TimeUnit.SECONDS).isSuccessful());
+        assertTrue(second.get(5, TimeUnit.SECONDS).isSuccessful());
+    }
+
+    @Test
+    void testHttpsVerifiesHostname() throws Exception {
+        SelfSignedCertificate localhostCert = new SelfSignedCertificate("localhost");
+        String url = startHttpsServer(localhostCert);
+        client = new NettyHttpClient(1, 2, 16, 1000, 5000,
+                SslContextBuilder.forClient().trustManager(localhostCert.cert()).build());
+
+        NettyHttpClient.Response response = client.execute(HttpMethod.GET, url,
+                Collections.singletonMap("Authorization", "Bearer token")).get(5, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    void testHttpsRejectsHostnameMismatch() throws Exception {
+        // 证书受信任，但签发给其他主机
+        SelfSignedCertificate otherHostCert = new SelfSignedCertificate("auth.example.com");
+        String url = startHttpsServer(otherHostCert);
+        client = new NettyHttpClient(1, 2, 16, 1000, 5000,
+                SslContextBuilder.forClient().trustManager(otherHostCert.cert()).build());
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> client.execute(HttpMethod.GET, url,
+                Collections.singletonMap("Authorization", "Bearer token")).get(5, TimeUnit.SECONDS));
+        Throwable cause = e.getCause();
+        while (cause != null && !(cause instanceof SSLHandshakeException)) {
+            cause = cause.getCause();
+        }
+        assertNotNull(cause, String.valueOf(e.getCause()));
+    }
+
+    /**
+     * 启动使用指定证书的https桩服务，通过localhost访问
+     */
+    private String startHttpsServer(SelfSignedCertificate certificate) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        char[] password = "changeit".toCharArray();
+        keyStore.setKeyEntry("server", certificate.key(), password, new Certificate[]{certificate.cert()});
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        serverExecutor = Executors.newCachedThreadPool();
+        HttpsServer httpsServer = HttpsServer.create(new InetSocketAddress("localhost", 0), 128);
+        httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        httpsServer.setExecutor(serverExecutor);
+        httpsServer.createContext("/user-info", exchange -> {
+            byte[] body = "{\"userId\":\"user1\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        httpsServer.start();
+        server = httpsServer;
+        return "https://localhost:" + httpsServer.getAddress().getPort() + "/user-info";
+    }
+
+    /**
+     * 启动桩服务，每个请求延迟delayMillis后返回包含Authorization请求头的JSON
+     */
+    private String startServer(long delayMillis) throws Exception {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        server.setExecutor(serverExecutor);
+        server.createContext("/user-info", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            byte[] body = ("{\"userId\":\"" + authorization + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/user-info";
+    }
+}
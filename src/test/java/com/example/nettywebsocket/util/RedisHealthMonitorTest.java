@@ -0,0 +1,95 @@
+package com.example.nettywebsocket.util;
+
+import com.example.nettywebsocket.metrics.WebSocketMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * RedisHealthMonitor测试类
+ */
+@ExtendWith(MockitoExtension.class)
+class RedisHealthMonitorTest {
+
+    @Mock
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private final WebSocketMetrics metrics = new WebSocketMetrics();
+
+    private RedisHealthMonitor monitor;
+
+    @BeforeEach
+    void setUp() {
+        // 不启动后台线程，测试中手动调用checkHealth
+        monitor = new RedisHealthMonitor();
+        ReflectionTestUtils.setField(monitor, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(monitor, "metrics", metrics);
+        ReflectionTestUtils.setField(monitor, "failureThreshold", 2);
+        ReflectionTestUtils.setField(monitor, "openDurationMillis", 0L);
+    }
+
+    @Test
+    void testOpensAfterConsecutivePingFailures() {
+        when(redisTemplate.execute(any(RedisCallback.class))).thenThrow(new RedisConnectionFailureException("down"));
+
+        monitor.checkHealth();
+        assertEquals(RedisHealthMonitor.State.CLOSED, monitor.getState());
+        assertTrue(monitor.isAvailable());
+
+        monitor.checkHealth();
+        assertEquals(RedisHealthMonitor.State.OPEN, monitor.getState());
+        assertFalse(monitor.isAvailable());
+        assertEquals(1, metrics.getCount(RedisHealthMonitor.METRIC_TRANSITION_PREFIX + "closed_to_open"));
+    }
+
+    @Test
+    void testHalfOpenProbeClosesCircuit() {
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenThrow(new RedisConnectionFailureException("down"))
+                .thenThrow(new RedisConnectionFailureException("down"))
+                .thenReturn("PONG");
+        monitor.checkHealth();
+        monitor.checkHealth();
+        assertEquals(RedisHealthMonitor.State.OPEN, monitor.getState());
+
+        monitor.checkHealth();
+
+        assertEquals(RedisHealthMonitor.State.CLOSED, monitor.getState());
+        assertEquals(1, metrics.getCount(RedisHealthMonitor.METRIC_TRANSITION_PREFIX + "open_to_half_open"));
+        assertEquals(1, metrics.getCount(RedisHealthMonitor.METRIC_TRANSITION_PREFIX + "half_open_to_closed"));
+    }
+
+    @Test
+    void testFailedProbeReopensCircuit() {
+        when(redisTemplate.execute(any(RedisCallback.class))).thenThrow(new RedisConnectionFailureException("down"));
+        monitor.checkHealth();
+        monitor.checkHealth();
+
+        monitor.checkHealth();
+
+        assertEquals(RedisHealthMonitor.State.OPEN, monitor.getState());
+        assertEquals(1, metrics.getCount(RedisHealthMonitor.METRIC_TRANSITION_PREFIX + "half_open_to_open"));
+    }
+
+    @Test
+    void testOnlyConnectionFailuresCountTowardsThreshold() {
+        monitor.recordFailure(new IllegalArgumentException("bad value"));
+        monitor.recordFailure(new IllegalArgumentException("bad value"));
+        assertTrue(monitor.isAvailable());
+
+        monitor.recordFailure(new RedisConnectionFailureException("down"));
+        monitor.recordFailure(new RedisConnectionFailureException("down"));
+        assertFalse(monitor.isAvailable());
+        verifyNoInteractions(redisTemplate);
+    }
+}